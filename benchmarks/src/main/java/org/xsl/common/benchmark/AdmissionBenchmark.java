@@ -0,0 +1,108 @@
+package org.xsl.common.benchmark;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.xsl.common.cache.AdmissionPolicy;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+import org.xsl.common.cache.TimingWheelBackoffCache;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放Zipf分布的访问序列，对比三种淘汰方式的吞吐量以及命中率：
+ * 1. FIFO：{@link AdmissionPolicy#ADMIT_ALL}，容量满时按进入缓存的顺序淘汰，查询不影响淘汰顺序
+ * 2. TINY_LFU：{@link AdmissionPolicy#TINY_LFU}
+ * 3. LRU：只有一个段的guava缓存，容量淘汰是精确的LRU，作为TinyLFU命中率的对照
+ * 每次访问先查询，不存在时再放入缓存，命中率在每轮测试结束时打印出来
+ * 运行方式：mvn package && java -jar target/benchmarks.jar AdmissionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class AdmissionBenchmark {
+    private static final int TRACE_LENGTH = 1 << 22;
+
+    @Param({"FIFO", "TINY_LFU", "LRU"})
+    public String policy;
+
+    /**
+     * 不同key的数量以及单层容量
+     */
+    @Param({"1000000"})
+    public int keySpace;
+
+    @Param({"10000"})
+    public int sizeLimit;
+
+    @Param({"0.9"})
+    public double exponent;
+
+    private TimingWheelBackoffCache cache;
+    private Cache<String, String> lru;
+    private String[] keys;
+    private int[] trace;
+    private int index;
+    private long hits;
+    private long requests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.keys = new String[this.keySpace];
+        for (int i = 0; i < this.keySpace; i++) {
+            this.keys[i] = "key_" + i;
+        }
+        this.trace = new ZipfGenerator(this.keySpace, this.exponent, 17).trace(TRACE_LENGTH);
+        if ("LRU".equals(this.policy)) {
+            this.lru = CacheBuilder.newBuilder().concurrencyLevel(1).maximumSize(this.sizeLimit).build();
+        }
+        else {
+            AdmissionPolicy admission = "FIFO".equals(this.policy) ? AdmissionPolicy.ADMIT_ALL : AdmissionPolicy.TINY_LFU;
+            this.cache = new TimingWheelBackoffCache(1, 3600, 2, this.sizeLimit, admission, null, null);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        this.hits = 0;
+        this.requests = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void printHitRate() {
+        System.out.println();
+        System.out.println(this.policy + " hit rate: " + (this.requests == 0 ? 0 : (double) this.hits / this.requests));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (this.cache != null) {
+            this.cache.close();
+        }
+    }
+
+    @Benchmark
+    public boolean access() {
+        String key = this.keys[this.trace[this.index]];
+        this.index = (this.index + 1) & (TRACE_LENGTH - 1);
+        this.requests++;
+
+        if (this.lru != null) {
+            if (this.lru.getIfPresent(key) != null) {
+                this.hits++;
+                return true;
+            }
+            this.lru.put(key, key);
+            return false;
+        }
+
+        if (this.cache.exist(key)) {
+            this.hits++;
+            return true;
+        }
+        this.cache.addData(key, new CacheItem<>(key));
+        return false;
+    }
+}
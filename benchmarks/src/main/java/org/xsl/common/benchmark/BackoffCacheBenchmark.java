@@ -0,0 +1,94 @@
+package org.xsl.common.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.BackoffCache;
+import org.xsl.common.cache.GuavaBackoffCache;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+import org.xsl.common.cache.TimingWheelBackoffCache;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比{@link GuavaBackoffCache}和{@link TimingWheelBackoffCache}在缓存中有100万条数据时的性能，
+ * 超时时间设置得足够长，保证测试期间数据不会退出缓存。guava-sharded是按cpu核数分片的{@link GuavaBackoffCache}。
+ * 线程数由{@link BenchmarkMain}统一设置，单独运行时使用JMH的-t参数
+ * 运行方式：mvn package && java -jar target/benchmarks.jar BackoffCacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class BackoffCacheBenchmark {
+    private static final int BACKOFF_TIMES = 3;
+    private static final int BEGIN_EXPIRE = 3600;
+    private static final int FACTOR = 2;
+
+    @Param({"guava", "guava-sharded", "wheel"})
+    public String impl;
+
+    @Param({"1000000"})
+    public int liveKeys;
+
+    @Param({"uniform", "zipf"})
+    public String distribution;
+
+    /**
+     * 每条数据的字节数
+     */
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private BackoffCache cache;
+    private String[] keys;
+    private String[] missingKeys;
+    private int[] trace;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int sizeLimit = this.liveKeys * 2;
+        if ("guava".equals(this.impl)) {
+            this.cache = new GuavaBackoffCache(BACKOFF_TIMES, BEGIN_EXPIRE, FACTOR, sizeLimit, null, null);
+        }
+        else if ("guava-sharded".equals(this.impl)) {
+            this.cache = new GuavaBackoffCache(BACKOFF_TIMES, BEGIN_EXPIRE, FACTOR, sizeLimit,
+                    GuavaBackoffCache.DEFAULT_SHARDS, null, (Callback) null);
+        }
+        else {
+            this.cache = new TimingWheelBackoffCache(BACKOFF_TIMES, BEGIN_EXPIRE, FACTOR, sizeLimit, null, null);
+        }
+
+        this.keys = new String[this.liveKeys];
+        this.missingKeys = new String[this.liveKeys];
+        for (int i = 0; i < this.liveKeys; i++) {
+            this.keys[i] = "key_" + i;
+            this.missingKeys[i] = "missing_" + i;
+            this.cache.addData(this.keys[i], new CacheItem<>(new byte[this.valueSize]));
+        }
+        this.trace = KeyTrace.create(this.distribution, this.liveKeys, 17);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cache.close();
+    }
+
+    /**
+     * 重复放入已经存在的key，缓存中的数据量保持不变
+     */
+    @Benchmark
+    public void addData(KeyTrace.Cursor cursor) {
+        this.cache.addData(this.keys[cursor.next(this.trace)], new CacheItem<>(new byte[this.valueSize]));
+    }
+
+    @Benchmark
+    public boolean existHit(KeyTrace.Cursor cursor) {
+        return this.cache.exist(this.keys[cursor.next(this.trace)]);
+    }
+
+    @Benchmark
+    public boolean existMiss(KeyTrace.Cursor cursor) {
+        return this.cache.exist(this.missingKeys[cursor.next(this.trace)]);
+    }
+}
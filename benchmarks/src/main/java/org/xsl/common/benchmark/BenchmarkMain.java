@@ -0,0 +1,47 @@
+package org.xsl.common.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import java.io.File;
+
+/**
+ * 依次用不同的线程数运行缓存的测试，打开GC profiler统计分配速率（gc.alloc.rate.norm是每次操作分配的字节数），
+ * 每个线程数的结果写入一个JSON文件，文件名中带有版本号，用于不同版本之间对比：
+ *   {dir}/jmh-{version}-t{threads}.json
+ *
+ * 运行方式：mvn package && java -Dbenchmark.version=1.0 -cp target/benchmarks.jar
+ *          org.xsl.common.benchmark.BenchmarkMain [测试名的正则表达式]
+ * 可以通过系统属性修改：benchmark.threads（默认1,4,16,64）、benchmark.version（默认dev）、
+ * benchmark.dir（默认target）。只想跑某个参数组合时直接使用JMH的命令行：java -jar target/benchmarks.jar
+ */
+public class BenchmarkMain {
+    /**
+     * {@link AdmissionBenchmark}统计命中率的计数器不是线程安全的，只能单线程运行，默认不包含
+     */
+    private static final String DEFAULT_INCLUDE = "BackoffCacheBenchmark|TimeCacheBenchmark";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+        String version = System.getProperty("benchmark.version", "dev");
+        File dir = new File(System.getProperty("benchmark.dir", "target"));
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Can not create result dir " + dir);
+        }
+
+        for (String threads : System.getProperty("benchmark.threads", "1,4,16,64").split(",")) {
+            int t = Integer.parseInt(threads.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(t)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(dir, "jmh-" + version + "-t" + t + ".json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.xsl.common.benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 预先生成的key访问序列，测试时按顺序取下标，避免在测量中混入生成随机数的开销。
+ * uniform是均匀分布，zipf是指数为0.99的Zipf分布（少量热点key占大部分访问）
+ */
+public class KeyTrace {
+    public static final int LENGTH = 1 << 20;
+
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    /**
+     * @param distribution  uniform或者zipf
+     * @param keys          key的数量，生成的下标在[0, keys)之间
+     */
+    public static int[] create(String distribution, int keys, long seed) {
+        if ("zipf".equals(distribution)) {
+            int[] trace = new ZipfGenerator(keys, ZIPF_EXPONENT, seed).trace(LENGTH);
+
+            /**
+             * Zipf分布中排名靠前的是0, 1, 2...，打乱一下，避免热点key恰好在hash表中挨在一起
+             */
+            int[] shuffle = new int[keys];
+            for (int i = 0; i < keys; i++) {
+                shuffle[i] = i;
+            }
+            Random random = new Random(seed);
+            for (int i = keys - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = shuffle[i];
+                shuffle[i] = shuffle[j];
+                shuffle[j] = tmp;
+            }
+            for (int i = 0; i < LENGTH; i++) {
+                trace[i] = shuffle[trace[i]];
+            }
+            return trace;
+        }
+        else if ("uniform".equals(distribution)) {
+            Random random = new Random(seed);
+            int[] trace = new int[LENGTH];
+            for (int i = 0; i < LENGTH; i++) {
+                trace[i] = random.nextInt(keys);
+            }
+            return trace;
+        }
+        throw new IllegalArgumentException("unknown distribution " + distribution);
+    }
+
+    /**
+     * 每个测试线程自己的读取位置，起点随机，多个线程不会同时访问相同的key序列
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index = ThreadLocalRandom.current().nextInt(LENGTH);
+
+        public int next(int[] trace) {
+            int res = trace[this.index];
+            this.index = (this.index + 1) & (LENGTH - 1);
+            return res;
+        }
+    }
+}
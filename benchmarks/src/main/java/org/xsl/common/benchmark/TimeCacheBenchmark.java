@@ -0,0 +1,87 @@
+package org.xsl.common.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.xsl.common.cache.ConcurrentSoftRefTimeCache;
+import org.xsl.common.cache.SoftRefTimeCache;
+import org.xsl.common.cache.TimeCache;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比{@link SoftRefTimeCache}和{@link ConcurrentSoftRefTimeCache}的读写性能，覆盖不同的槽数量、
+ * key分布以及数据大小，超时时间设置得足够长，保证测试期间不会发生轮转。
+ * 线程数由{@link BenchmarkMain}统一设置，单独运行时使用JMH的-t参数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class TimeCacheBenchmark {
+    private static final int EXPIRE = 3600;
+
+    @Param({"softref", "concurrent"})
+    public String impl;
+
+    @Param({"3", "8"})
+    public int buckets;
+
+    @Param({"uniform", "zipf"})
+    public String distribution;
+
+    /**
+     * 每条数据的字节数
+     */
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    @Param({"100000"})
+    public int liveKeys;
+
+    private TimeCache<String, byte[]> cache;
+    private String[] keys;
+    private String[] missingKeys;
+    private int[] trace;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("softref".equals(this.impl)) {
+            this.cache = new SoftRefTimeCache<>(EXPIRE, this.buckets);
+        }
+        else {
+            this.cache = new ConcurrentSoftRefTimeCache<>(EXPIRE, this.buckets);
+        }
+
+        this.keys = new String[this.liveKeys];
+        this.missingKeys = new String[this.liveKeys];
+        for (int i = 0; i < this.liveKeys; i++) {
+            this.keys[i] = "key_" + i;
+            this.missingKeys[i] = "missing_" + i;
+            this.cache.put(this.keys[i], new byte[this.valueSize]);
+        }
+        this.trace = KeyTrace.create(this.distribution, this.liveKeys, 17);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cache.close();
+    }
+
+    /**
+     * 覆盖写已经存在的key，缓存中的数据量保持不变，每次写入一份新的数据
+     */
+    @Benchmark
+    public void put(KeyTrace.Cursor cursor) {
+        this.cache.put(this.keys[cursor.next(this.trace)], new byte[this.valueSize]);
+    }
+
+    @Benchmark
+    public byte[] getHit(KeyTrace.Cursor cursor) {
+        return this.cache.get(this.keys[cursor.next(this.trace)]);
+    }
+
+    @Benchmark
+    public byte[] getMiss(KeyTrace.Cursor cursor) {
+        return this.cache.get(this.missingKeys[cursor.next(this.trace)]);
+    }
+}
@@ -0,0 +1,47 @@
+package org.xsl.common.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 生成服从Zipf分布的整数，第k个（从0开始）数出现的概率与1/(k+1)^exponent成正比，
+ * 用于模拟少量热点key占大部分访问的场景
+ */
+public class ZipfGenerator {
+    private double[] cdf;
+    private Random random;
+
+    /**
+     * @param items     不同的数的个数
+     * @param exponent  分布的倾斜程度，越大热点越集中，常用0.8到1.2
+     * @param seed      随机数种子，相同的种子生成相同的序列
+     */
+    public ZipfGenerator(int items, double exponent, long seed) {
+        this.cdf = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            this.cdf[i] = sum;
+        }
+        for (int i = 0; i < items; i++) {
+            this.cdf[i] /= sum;
+        }
+        this.random = new Random(seed);
+    }
+
+    public int next() {
+        int index = Arrays.binarySearch(this.cdf, this.random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, this.cdf.length - 1);
+    }
+
+    /**
+     * 生成一段长度为length的访问序列
+     */
+    public int[] trace(int length) {
+        int[] res = new int[length];
+        for (int i = 0; i < length; i++) {
+            res[i] = this.next();
+        }
+        return res;
+    }
+}
@@ -0,0 +1,10 @@
+package org.xsl.common.base;
+
+import java.util.List;
+
+/**
+ * 批量回调函数，一次接收多条数据，适合回调中需要写数据库等批量操作更高效的场景
+ */
+public interface BatchCallback<T> {
+    void callback(List<T> batch);
+}
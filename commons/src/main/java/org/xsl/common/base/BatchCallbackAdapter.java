@@ -0,0 +1,24 @@
+package org.xsl.common.base;
+
+import java.util.List;
+
+/**
+ * 把逐条处理的{@link Callback}适配成{@link BatchCallback}，批次中的数据按顺序逐条回调
+ */
+public class BatchCallbackAdapter<T> implements BatchCallback<T> {
+    private Callback callback;
+
+    public BatchCallbackAdapter(Callback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is null");
+        }
+        this.callback = callback;
+    }
+
+    @Override
+    public void callback(List<T> batch) {
+        for (T item : batch) {
+            this.callback.callback(item);
+        }
+    }
+}
@@ -0,0 +1,542 @@
+package org.xsl.common.cache;
+
+import com.google.common.cache.RemovalCause;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于{@link TimingWheel}的回退匹配缓存的公共部分，所有层共用一个时间轮和一个key索引，
+ * 数据按编号保存在数组中。key的保存和比较由子类完成，这样可以针对不同类型的key避免装箱。
+ *
+ * 所有以Entry结尾的方法调用前都需要持有{@link #lock}，监听器的通知在释放锁之后进行。
+ */
+abstract class AbstractBackoffCache {
+    static final int NIL = TimingWheel.NIL;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int INITIAL_WINDOW_PERCENT = 1;
+    private static final int WINDOW_STEP = 5;
+    private static final int MAX_WINDOW_PERCENT = 80;
+
+    protected final Object lock = new Object();
+
+    protected int sizeLimit;
+
+    /**
+     * 所有层的数据总权重的上限，为0时不限制；超过上限时从最高层开始淘汰最早进入该层的数据
+     */
+    protected long maxWeight;
+    private long totalWeight;
+    private int[] weights;
+
+    /**
+     * 使用{@link AdmissionPolicy#TINY_LFU}时记录key的访问频率，否则为null
+     */
+    private FrequencySketch sketch;
+
+    /**
+     * W-TinyLFU的准入窗口，是每一层链表尾部最近进入的一段数据。数据进入某一层时先进入窗口，
+     * 被挤出窗口时才和该层最早进入的数据比较访问频率，这样集中出现的新key可以先在窗口里积累访问频率。
+     * 只在使用TinyLFU时不为null
+     */
+    private int[] windowHeads;
+    private int[] windowSizes;
+    private boolean[] inWindow;
+
+    /**
+     * 窗口大小占sizeLimit的百分比，每个采样周期结束时按查询命中率调整（爬山法）：
+     * 命中率比上一个周期低就反转调整方向
+     */
+    private int windowPercent = INITIAL_WINDOW_PERCENT;
+    private int windowStep = WINDOW_STEP;
+    private int samplePeriod;
+    private int sampleHits;
+    private int sampleCount;
+    private double lastHitRate = -1;
+    protected long tickMillis;
+    protected long[] expireMillis;
+    protected TimingWheel wheel;
+    private CacheMaintenanceScheduler.Registration registration;
+
+    /**
+     * 按编号保存的数据，空闲的编号通过levelNext串成一个链表
+     */
+    protected CacheItem[] items;
+    protected int[] itemLevels;
+    private int freeHead = NIL;
+    private int allocated = 0;
+
+    /**
+     * 每一层的数据按照进入的先后顺序串成一个双向链表，单层数据量超过限制时从链表头淘汰数据
+     */
+    private int[] levelNext;
+    private int[] levelPrev;
+    protected int[] levelHeads;
+    private int[] levelTails;
+    protected int[] levelSizes;
+
+    /**
+     * key索引，线性探测的开放寻址hash表，保存的是数据编号
+     */
+    protected int[] table;
+    protected int size;
+
+    AbstractBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long maxWeight,
+                         AdmissionPolicy admission, long tickMillis) {
+        if (backOffTimes < 0 || beginExpire <= 0 || factor <= 0 || sizeLimit <= 0 || maxWeight < 0
+                || admission == null || tickMillis <= 0) {
+            throw new RuntimeException("invalid init params");
+        }
+
+        this.sizeLimit = sizeLimit;
+        this.maxWeight = maxWeight;
+        if (admission == AdmissionPolicy.TINY_LFU && sizeLimit < Integer.MAX_VALUE) {
+            long expectedSize = (long) sizeLimit * Math.max(backOffTimes, 1);
+            this.sketch = new FrequencySketch(expectedSize);
+            this.windowHeads = new int[backOffTimes];
+            this.windowSizes = new int[backOffTimes];
+            this.inWindow = new boolean[INITIAL_CAPACITY];
+            Arrays.fill(this.windowHeads, NIL);
+            this.samplePeriod = (int) Math.min(expectedSize * 10, 1 << 20);
+        }
+        this.tickMillis = tickMillis;
+
+        this.expireMillis = new long[backOffTimes];
+        long expire = beginExpire * 1000L;
+        for (int i = 0; i < backOffTimes; i++) {
+            this.expireMillis[i] = expire;
+            expire *= factor;
+        }
+
+        long maxExpire = backOffTimes > 0 ? this.expireMillis[backOffTimes - 1] : 0;
+        this.wheel = new TimingWheel(tickMillis, maxExpire, System.currentTimeMillis(), INITIAL_CAPACITY);
+
+        this.items = new CacheItem[INITIAL_CAPACITY];
+        this.itemLevels = new int[INITIAL_CAPACITY];
+        this.weights = new int[INITIAL_CAPACITY];
+        this.levelNext = new int[INITIAL_CAPACITY];
+        this.levelPrev = new int[INITIAL_CAPACITY];
+
+        this.levelHeads = new int[backOffTimes];
+        this.levelTails = new int[backOffTimes];
+        this.levelSizes = new int[backOffTimes];
+        Arrays.fill(this.levelHeads, NIL);
+        Arrays.fill(this.levelTails, NIL);
+
+        this.table = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(this.table, NIL);
+    }
+
+    /**
+     * 编号为id的数据的key的hash值
+     */
+    abstract int hashOf(int id);
+
+    /**
+     * 扩容保存key的数组
+     */
+    abstract void growKeys(int capacity);
+
+    /**
+     * 数据退出缓存时，在释放编号之前记录下退出事件，事件在释放锁之后通过{@link #fireRemoval}通知出去
+     */
+    abstract Removal newRemoval(int id, RemovalCause cause);
+
+    /**
+     * 释放编号为id的数据的key
+     */
+    abstract void releaseKey(int id);
+
+    abstract void fireRemoval(Removal removal);
+
+    /**
+     * 数据放入缓存的次数是否已经超过层数，调用方需要在返回true时执行最终的回调
+     */
+    boolean exhausted(CacheItem cacheItem) {
+        int times = cacheItem.getTimes();
+        cacheItem.setTimes(times + 1);
+        return times >= this.expireMillis.length;
+    }
+
+    /**
+     * 将数据放入第level层，id是已经在索引中的数据编号，如果数据已经在缓存中，会先从原来的层中移除
+     * @param weight  数据的权重，没有设置权重上限时忽略
+     */
+    void putEntry(int id, CacheItem cacheItem, int level, int weight, boolean existed, List<Removal> removed) {
+        this.putEntry(id, cacheItem, level, weight, System.currentTimeMillis() + this.expireMillis[level],
+                existed, removed);
+    }
+
+    /**
+     * 与{@link #putEntry(int, CacheItem, int, int, boolean, List)}相同，但是到期时间由调用方指定，
+     * 用于恢复之前保存下来的数据，已经过了到期时间的数据会在时间轮下一次推进时超时
+     */
+    void putEntry(int id, CacheItem cacheItem, int level, int weight, long deadlineMillis,
+                  boolean existed, List<Removal> removed) {
+        if (existed) {
+            CacheItem old = this.items[id];
+            this.wheel.cancel(id);
+            this.unlinkLevel(id);
+            this.totalWeight -= this.weights[id];
+            if (old != cacheItem) {
+                removed.add(this.newRemoval(id, RemovalCause.REPLACED));
+            }
+        }
+
+        this.items[id] = cacheItem;
+        this.weights[id] = weight;
+        this.totalWeight += weight;
+        this.linkLevel(id, level);
+        this.wheel.schedule(id, deadlineMillis);
+
+        /**
+         * 使用TinyLFU时，被挤出窗口的数据的访问频率不高于该层最早进入的数据的话，淘汰的是被挤出窗口的数据
+         */
+        int candidate = NIL;
+        if (this.sketch != null) {
+            int windowLimit = Math.max(1, (int) ((long) this.sizeLimit * this.windowPercent / 100));
+            while (this.windowSizes[level] > windowLimit) {
+                candidate = this.leaveWindow(level);
+            }
+        }
+        if (this.levelSizes[level] > this.sizeLimit) {
+            int victim = this.levelHeads[level];
+            if (candidate != NIL
+                    && this.sketch.frequency(this.hashOf(candidate)) <= this.sketch.frequency(this.hashOf(victim))) {
+                victim = candidate;
+            }
+            removed.add(this.newRemoval(victim, RemovalCause.SIZE));
+            this.removeEntry(victim);
+        }
+
+        /**
+         * 高层的数据已经回退了多次，再被匹配上的可能性最小，优先淘汰；同一层中最早进入的数据在链表头。
+         * 每条数据最多被淘汰一次，所以淘汰的均摊开销是O(1)，层数是常数
+         */
+        if (this.maxWeight > 0) {
+            int top = this.levelHeads.length - 1;
+            while (this.totalWeight > this.maxWeight) {
+                while (this.levelHeads[top] == NIL) {
+                    top--;
+                }
+                int victim = this.levelHeads[top];
+                removed.add(this.newRemoval(victim, RemovalCause.SIZE));
+                this.removeEntry(victim);
+            }
+        }
+    }
+
+    /**
+     * 新分配一个编号，并把它放到索引的pos位置上
+     */
+    int insertEntry(int pos) {
+        int id = this.allocate();
+        this.table[pos] = id;
+        this.size++;
+        return id;
+    }
+
+    /**
+     * 新数据的key保存完之后调用，必要时对索引扩容
+     */
+    void afterInsert() {
+        if (this.size * 2 > this.table.length) {
+            this.rehash(this.table.length * 2);
+        }
+    }
+
+    CacheItem getEntry(int id) {
+        CacheItem cacheItem = null;
+        if (id != NIL && !this.wheel.isExpired(id, System.currentTimeMillis())) {
+            cacheItem = this.items[id];
+        }
+        if (this.sketch != null) {
+            this.sample(cacheItem != null);
+        }
+        return cacheItem;
+    }
+
+    /**
+     * 记录一次对key的访问（放入或者查询），调用前需要持有锁
+     */
+    void recordAccess(int hash) {
+        if (this.sketch != null) {
+            this.sketch.increment(hash);
+        }
+    }
+
+    /**
+     * 数据的到期时间，精度为时间轮的一个tick
+     */
+    long getDeadline(int id) {
+        return this.wheel.getDeadline(id);
+    }
+
+    /**
+     * 把数据从索引、时间轮以及所在层中删除，并回收编号
+     */
+    void removeEntry(int id) {
+        this.wheel.cancel(id);
+        this.unlinkLevel(id);
+        this.totalWeight -= this.weights[id];
+        this.weights[id] = 0;
+        this.deletePosition(this.positionOf(id));
+        this.size--;
+
+        this.releaseKey(id);
+        this.items[id] = null;
+        this.levelNext[id] = this.freeHead;
+        this.freeHead = id;
+    }
+
+    void fireAll(List<Removal> removed) {
+        for (Removal removal : removed) {
+            this.fireRemoval(removal);
+        }
+    }
+
+    /**
+     * 推进时间轮，所有到期的数据会退出缓存，并通知监听器，后台线程会定时调用该方法
+     */
+    public void cleanUp() {
+        final List<Removal> removed = new ArrayList<>(0);
+        synchronized (this.lock) {
+            this.wheel.advance(System.currentTimeMillis(), new TimingWheel.ExpireHandler() {
+                public void onExpire(int id) {
+                    removed.add(newRemoval(id, RemovalCause.EXPIRED));
+                    removeEntry(id);
+                }
+            });
+        }
+
+        this.fireAll(removed);
+    }
+
+    /**
+     * 获取整个缓存当前的容量大小
+     * @return
+     */
+    public int getDataSize() {
+        synchronized (this.lock) {
+            return this.size;
+        }
+    }
+
+    /**
+     * 缓存中所有数据的权重之和，没有设置权重上限时为0
+     */
+    public long getTotalWeight() {
+        synchronized (this.lock) {
+            return this.totalWeight;
+        }
+    }
+
+    private int allocate() {
+        if (this.freeHead != NIL) {
+            int id = this.freeHead;
+            this.freeHead = this.levelNext[id];
+            return id;
+        }
+
+        if (this.allocated == this.items.length) {
+            int capacity = this.items.length + (this.items.length >> 1);
+            this.items = Arrays.copyOf(this.items, capacity);
+            this.itemLevels = Arrays.copyOf(this.itemLevels, capacity);
+            this.weights = Arrays.copyOf(this.weights, capacity);
+            this.levelNext = Arrays.copyOf(this.levelNext, capacity);
+            this.levelPrev = Arrays.copyOf(this.levelPrev, capacity);
+            if (this.inWindow != null) {
+                this.inWindow = Arrays.copyOf(this.inWindow, capacity);
+            }
+            this.wheel.ensureCapacity(capacity);
+            this.growKeys(capacity);
+        }
+        return this.allocated++;
+    }
+
+    private void linkLevel(int id, int level) {
+        int tail = this.levelTails[level];
+        this.itemLevels[id] = level;
+        this.levelPrev[id] = tail;
+        this.levelNext[id] = NIL;
+        if (tail == NIL) {
+            this.levelHeads[level] = id;
+        }
+        else {
+            this.levelNext[tail] = id;
+        }
+        this.levelTails[level] = id;
+        this.levelSizes[level]++;
+
+        if (this.inWindow != null) {
+            this.inWindow[id] = true;
+            if (this.windowHeads[level] == NIL) {
+                this.windowHeads[level] = id;
+            }
+            this.windowSizes[level]++;
+        }
+    }
+
+    private void unlinkLevel(int id) {
+        int level = this.itemLevels[id];
+        int p = this.levelPrev[id];
+        int n = this.levelNext[id];
+        if (this.inWindow != null && this.inWindow[id]) {
+            this.inWindow[id] = false;
+            if (this.windowHeads[level] == id) {
+                this.windowHeads[level] = n;
+            }
+            this.windowSizes[level]--;
+        }
+        if (p == NIL) {
+            this.levelHeads[level] = n;
+        }
+        else {
+            this.levelNext[p] = n;
+        }
+        if (n == NIL) {
+            this.levelTails[level] = p;
+        }
+        else {
+            this.levelPrev[n] = p;
+        }
+        this.levelSizes[level]--;
+    }
+
+    /**
+     * 窗口是链表尾部的一段，窗口中最早进入的数据离开窗口后仍然在链表中，返回它的编号
+     */
+    private int leaveWindow(int level) {
+        int id = this.windowHeads[level];
+        this.inWindow[id] = false;
+        this.windowHeads[level] = this.levelNext[id];
+        this.windowSizes[level]--;
+        return id;
+    }
+
+    /**
+     * 记录一次查询是否命中，每个采样周期结束时按命中率的变化调整窗口大小
+     */
+    private void sample(boolean hit) {
+        if (hit) {
+            this.sampleHits++;
+        }
+        if (++this.sampleCount < this.samplePeriod) {
+            return;
+        }
+
+        double hitRate = (double) this.sampleHits / this.sampleCount;
+        if (this.lastHitRate >= 0 && hitRate < this.lastHitRate) {
+            this.windowStep = -this.windowStep;
+        }
+        this.lastHitRate = hitRate;
+        this.windowPercent = Math.max(INITIAL_WINDOW_PERCENT,
+                Math.min(MAX_WINDOW_PERCENT, this.windowPercent + this.windowStep));
+        this.sampleHits = 0;
+        this.sampleCount = 0;
+    }
+
+    private int positionOf(int id) {
+        int mask = this.table.length - 1;
+        int pos = this.hashOf(id) & mask;
+        while (this.table[pos] != id) {
+            pos = (pos + 1) & mask;
+        }
+        return pos;
+    }
+
+    /**
+     * 删除索引中某个位置的数据，后面同一探测链上的数据依次前移，保证查找时不会提前遇到空位置
+     */
+    private void deletePosition(int pos) {
+        int mask = this.table.length - 1;
+        int gap = pos;
+        int i = pos;
+        while (true) {
+            i = (i + 1) & mask;
+            int id = this.table[i];
+            if (id == NIL) {
+                break;
+            }
+
+            int home = this.hashOf(id) & mask;
+            boolean movable = (i > gap) ? (home <= gap || home > i) : (home <= gap && home > i);
+            if (movable) {
+                this.table[gap] = id;
+                gap = i;
+            }
+        }
+        this.table[gap] = NIL;
+    }
+
+    private void rehash(int capacity) {
+        int[] newTable = new int[capacity];
+        Arrays.fill(newTable, NIL);
+
+        int mask = capacity - 1;
+        for (int id : this.table) {
+            if (id == NIL) {
+                continue;
+            }
+            int pos = this.hashOf(id) & mask;
+            while (newTable[pos] != NIL) {
+                pos = (pos + 1) & mask;
+            }
+            newTable[pos] = id;
+        }
+        this.table = newTable;
+    }
+
+    /**
+     * 注册到调度器上定时推进时间轮
+     */
+    void refreshCache(CacheMaintenanceScheduler scheduler) {
+        this.registration = scheduler.register(new Runnable() {
+            public void run() {
+                cleanUp();
+            }
+        }, this.tickMillis);
+    }
+
+    /**
+     * 停止推进时间轮，之后数据只会在被访问时发现超时
+     */
+    public void close() {
+        if (this.registration != null) {
+            this.registration.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (this.lock) {
+            sb.append("cacheSize: " + this.size);
+            for (int i = 0; i < this.levelSizes.length; i++) {
+                sb.append(" level" + i + ": " + this.levelSizes[i]);
+            }
+            if (this.maxWeight > 0) {
+                sb.append(" totalWeight: " + this.totalWeight);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 数据退出缓存的事件
+     */
+    static final class Removal {
+        final CacheItem item;
+        final RemovalCause cause;
+        final long longKey;
+
+        Removal(CacheItem item, RemovalCause cause, long longKey) {
+            this.item = item;
+            this.cause = cause;
+            this.longKey = longKey;
+        }
+    }
+}
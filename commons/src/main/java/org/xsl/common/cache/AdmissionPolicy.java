@@ -0,0 +1,18 @@
+package org.xsl.common.cache;
+
+/**
+ * 某一层的数据量达到上限时，新数据能否进入该层的策略
+ */
+public enum AdmissionPolicy {
+    /**
+     * 新数据总是可以进入，该层中最早进入的数据被淘汰
+     */
+    ADMIT_ALL,
+
+    /**
+     * W-TinyLFU：用count-min sketch记录每个key最近的访问频率，避免大量只出现一次的key把即将被匹配上的数据挤出缓存。
+     * 新数据先进入每一层尾部的一个小窗口，被挤出窗口时访问频率高于该层最早进入的数据才淘汰后者，否则自己被淘汰。
+     * 窗口初始为sizeLimit的1%，之后按照查询命中率的变化自动调整
+     */
+    TINY_LFU
+}
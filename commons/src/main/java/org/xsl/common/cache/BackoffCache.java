@@ -0,0 +1,27 @@
+package org.xsl.common.cache;
+
+/**
+ * 回退匹配缓存的公共接口，数据每次放入缓存都会进入下一层，每一层的超时时间依次增加，
+ * 数据放入的次数超过层数之后，数据在缓存中的生命周期结束
+ */
+public interface BackoffCache {
+    /**
+     * 将数据放入缓存的下一层，如果已经没有下一层了，则调用最终的回调函数
+     */
+    void addData(String key, GuavaBackoffCache.CacheItem cacheItem);
+
+    /**
+     * 检查某条数据是否还在缓存中
+     */
+    boolean exist(String key);
+
+    /**
+     * 获取整个缓存当前的容量大小
+     */
+    int getDataSize();
+
+    /**
+     * 停止缓存的定时清理任务，关闭之后缓存中的数据不会再超时
+     */
+    void close();
+}
@@ -0,0 +1,388 @@
+package org.xsl.common.cache;
+
+import org.apache.log4j.Logger;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+import org.xsl.common.cache.TimingWheelBackoffCache.SnapshotEntry;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把{@link TimingWheelBackoffCache}中的数据以及每条数据的回退状态（放入次数、创建时间、到期时间）保存到本地文件，
+ * 进程重启之后可以从文件中恢复，还没有完成回退的数据不会因为重启丢失最终的回调。
+ *
+ * 文件是一个只追加写的日志，每次保存只写入上次保存之后发生过变化的数据，日志的大小超过上次压缩之后的
+ * 两倍时，把缓存中的全部数据写入一个新文件并替换掉原来的日志。恢复时通过内存映射顺序读取日志，后面的
+ * 记录覆盖前面的记录，到期时间保存的是绝对时间，停机期间已经到期的数据在恢复后马上超时，监听器会收到通知。
+ *
+ * 保存失败时（磁盘错误、某条数据序列化失败等）这次没有写入的key重新记为发生过变化，下一次保存时重试；
+ * 每次追加之前先把日志截断到上一次成功写入的位置，失败时留下的半条记录不会挡住后面的记录。
+ *
+ * 使用方式：创建缓存之后先调用{@link #restore()}，再调用{@link #start(long)}开始定时保存。
+ * 定时保存在快照自己的线程中执行，磁盘慢的时候不会拖慢{@link CacheMaintenanceScheduler}上其他缓存的维护任务
+ */
+public class BackoffCacheSnapshot implements Closeable {
+    private static Logger logger = Logger.getLogger(BackoffCacheSnapshot.class);
+
+    private static final int MAGIC = 0x424B4331;
+    private static final int HEADER_BYTES = 4;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    /**
+     * 日志小于该值时不压缩
+     */
+    private static final long MIN_COMPACT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 恢复时每次映射的文件大小
+     */
+    private static final long MAP_WINDOW = 64 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TimingWheelBackoffCache cache;
+    private File file;
+    private ValueSerializer<Object> serializer;
+
+    private long logBytes;
+    private long compactedBytes;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param cache       需要保存的缓存
+     * @param file        日志文件
+     * @param serializer  缓存中数据的序列化方式
+     */
+    public BackoffCacheSnapshot(TimingWheelBackoffCache cache, File file, ValueSerializer<Object> serializer) {
+        if (cache == null || file == null || serializer == null) {
+            throw new IllegalArgumentException("invalid init params");
+        }
+
+        this.cache = cache;
+        this.file = file;
+        this.serializer = serializer;
+    }
+
+    public BackoffCacheSnapshot(TimingWheelBackoffCache cache, File file) {
+        this(cache, file, new JavaValueSerializer<>());
+    }
+
+    /**
+     * 从日志中恢复数据，日志末尾不完整的记录（例如写到一半时进程退出）会被截掉，
+     * 恢复完成之后开始记录缓存的变化
+     * @return 恢复之后缓存中的数据条数
+     */
+    public synchronized int restore() throws IOException {
+        if (!this.file.exists() || this.file.length() < HEADER_BYTES) {
+            this.writeHeader(this.file);
+            this.logBytes = HEADER_BYTES;
+            this.cache.trackChanges();
+            return this.cache.getDataSize();
+        }
+
+        long validBytes;
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            MappedReader reader = new MappedReader(channel);
+            if (!reader.ensure(HEADER_BYTES) || reader.buffer.getInt() != MAGIC) {
+                throw new IOException("Invalid backoff cache snapshot file " + this.file);
+            }
+
+            validBytes = reader.position();
+            while (reader.ensure(4)) {
+                int length = reader.buffer.getInt();
+                if (length <= 0 || !reader.ensure(length)) {
+                    break;
+                }
+                this.apply(reader.buffer);
+                validBytes = reader.position();
+            }
+
+            if (validBytes < channel.size()) {
+                logger.warn("Truncate " + (channel.size() - validBytes) + " broken bytes of " + this.file);
+                channel.truncate(validBytes);
+            }
+        }
+
+        this.logBytes = validBytes;
+        this.compactedBytes = validBytes;
+        this.cache.trackChanges();
+        return this.cache.getDataSize();
+    }
+
+    /**
+     * 开始定时保存，保存失败时记录日志，下一次继续保存
+     * @param intervalMillis  两次保存之间的间隔，单位毫秒
+     */
+    public synchronized void start(long intervalMillis) {
+        if (intervalMillis <= 0 || this.executor != null) {
+            throw new IllegalStateException("invalid interval or already started");
+        }
+
+        final String name = "backoff-snapshot-" + this.file.getName();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable e) {
+                    logger.error("Save backoff cache snapshot error", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 把上次保存之后发生变化的数据追加到日志中，日志过大时进行压缩
+     */
+    public synchronized void flush() throws IOException {
+        if (this.logBytes == 0) {
+            throw new IllegalStateException("restore must be called before flush");
+        }
+
+        List<SnapshotEntry> changes = this.cache.drainChanges();
+        if (!changes.isEmpty()) {
+            this.append(changes);
+        }
+
+        if (this.logBytes > MIN_COMPACT_BYTES && this.logBytes > this.compactedBytes * 2) {
+            this.compact();
+        }
+    }
+
+    /**
+     * 把缓存中的全部数据写入临时文件，然后替换掉原来的日志，失败时原来的日志保持不变
+     */
+    public synchronized void compact() throws IOException {
+        File tmp = new File(this.file.getPath() + ".tmp");
+        List<SnapshotEntry> entries = this.cache.snapshotAll();
+        List<String> failed = new ArrayList<>(0);
+
+        long bytes;
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+                out.writeInt(MAGIC);
+                this.writeEntries(out, entries, failed);
+                out.flush();
+                fos.getChannel().force(false);
+            }
+            bytes = tmp.length();
+
+            Files.move(tmp.toPath(), this.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            this.cache.markChanged(keysOf(entries));
+            tmp.delete();
+            throw e;
+        }
+
+        this.logBytes = bytes;
+        this.compactedBytes = bytes;
+        this.retryLater(failed);
+    }
+
+    /**
+     * 停止定时保存，并把最后的变化写入日志，没有调用过{@link #restore()}时不写入
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            if (this.logBytes > 0) {
+                this.flush();
+            }
+        }
+    }
+
+    /**
+     * 从上一次成功写入的位置开始追加，先截掉上一次失败时可能留下的半条记录。写入失败时所有的key都留到下一次重试
+     */
+    private void append(List<SnapshotEntry> changes) throws IOException {
+        List<String> failed = new ArrayList<>(0);
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(this.logBytes);
+            channel.position(this.logBytes);
+
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            this.writeEntries(out, changes, failed);
+            out.flush();
+            channel.force(false);
+            this.logBytes = channel.size();
+        } catch (IOException | RuntimeException e) {
+            this.cache.markChanged(keysOf(changes));
+            throw e;
+        }
+        this.retryLater(failed);
+    }
+
+    /**
+     * 序列化失败的数据没有写入，下一次保存时重试
+     */
+    private void retryLater(List<String> failed) {
+        if (!failed.isEmpty()) {
+            this.cache.markChanged(failed);
+            logger.error("Serialize " + failed.size() + " values of " + this.file + " error, retry on next flush");
+        }
+    }
+
+    private static List<String> keysOf(List<SnapshotEntry> entries) {
+        List<String> keys = new ArrayList<>(entries.size());
+        for (SnapshotEntry entry : entries) {
+            keys.add(entry.key);
+        }
+        return keys;
+    }
+
+    /**
+     * 每条记录的格式：记录长度(int) 类型(byte) key长度(int) key，类型为PUT时后面还有
+     * 放入次数(int) 创建时间(long) 到期时间(long) 数据长度(int) 数据。
+     * 数据在写入记录之前序列化，序列化失败的数据整条跳过，key放入failed
+     */
+    private void writeEntries(DataOutputStream out, List<SnapshotEntry> entries, List<String> failed)
+            throws IOException {
+        for (SnapshotEntry entry : entries) {
+            byte[] key = entry.key.getBytes(UTF8);
+            if (entry.item == null) {
+                out.writeInt(1 + 4 + key.length);
+                out.writeByte(TYPE_REMOVE);
+                out.writeInt(key.length);
+                out.write(key);
+                continue;
+            }
+
+            byte[] data;
+            try {
+                data = this.serializer.serialize(entry.item.getData());
+            } catch (RuntimeException e) {
+                if (failed.isEmpty()) {
+                    logger.error("Serialize value of " + entry.key + " error", e);
+                }
+                failed.add(entry.key);
+                continue;
+            }
+            out.writeInt(1 + 4 + key.length + 4 + 8 + 8 + 4 + data.length);
+            out.writeByte(TYPE_PUT);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(entry.times);
+            out.writeLong(entry.startTime);
+            out.writeLong(entry.deadline);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private void apply(MappedByteBuffer buffer) {
+        byte type = buffer.get();
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        String keyStr = new String(key, UTF8);
+
+        if (type == TYPE_REMOVE) {
+            this.cache.removeQuietly(keyStr);
+            return;
+        }
+
+        int times = buffer.getInt();
+        long startTime = buffer.getLong();
+        long deadline = buffer.getLong();
+        byte[] data = new byte[buffer.getInt()];
+        buffer.get(data);
+
+        CacheItem<Object> item = new CacheItem<>(this.serializer.deserialize(data));
+        item.setKey(keyStr);
+        item.setTimes(times);
+        item.setStartTime(startTime);
+        this.cache.restoreEntry(keyStr, item, deadline);
+    }
+
+    private void writeHeader(File target) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(target)) {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getChannel().force(false);
+        }
+    }
+
+    /**
+     * 分段映射文件进行顺序读取，保证当前记录完整地落在映射的区域中
+     */
+    private static class MappedReader {
+        private FileChannel channel;
+        private long fileSize;
+        private long base;
+        private MappedByteBuffer buffer;
+
+        MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            this.base = 0;
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(MAP_WINDOW, this.fileSize));
+        }
+
+        long position() {
+            return this.base + this.buffer.position();
+        }
+
+        /**
+         * 确保从当前位置开始至少有n个字节可读，文件剩余的字节不足时返回false
+         */
+        boolean ensure(int n) throws IOException {
+            if (this.buffer.remaining() >= n) {
+                return true;
+            }
+
+            long position = this.position();
+            if (position + n > this.fileSize) {
+                return false;
+            }
+
+            long size = Math.max(n, Math.min(MAP_WINDOW, this.fileSize - position));
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            this.base = position;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.xsl.common.cache;
+
+import com.google.common.cache.RemovalCause;
+
+/**
+ * 数据退出{@link TimingWheelBackoffCache}某一层时的监听器，作用与{@link GuavaBackoffCache}中
+ * 使用的{@link com.google.common.cache.RemovalListener}相同，通常在这里做一次匹配，匹配失败的话
+ * 再调用{@link BackoffCache#addData}把数据放入下一层
+ */
+public interface BackoffListener {
+    /**
+     * @param item   退出缓存的数据，可以通过{@link GuavaBackoffCache.CacheItem#getKey()}获取key
+     * @param cause  数据退出缓存的原因
+     */
+    void onRemoval(GuavaBackoffCache.CacheItem item, RemovalCause cause);
+}
@@ -0,0 +1,113 @@
+package org.xsl.common.cache;
+
+import org.apache.log4j.Logger;
+import java.io.Closeable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓存的定时维护任务（槽轮转、超时清理等）的共享调度器，所有缓存默认注册到{@link #getDefault()}上，
+ * 无论创建多少个缓存，维护线程的数量都是固定的。缓存关闭时通过{@link Registration#close()}取消注册
+ */
+public class CacheMaintenanceScheduler implements Closeable {
+    private static final int DEFAULT_THREADS = 2;
+
+    private static Logger logger = Logger.getLogger(CacheMaintenanceScheduler.class);
+    private static volatile CacheMaintenanceScheduler defaultScheduler;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    /**
+     * @param threads  维护线程的数量，线程都是守护线程
+     */
+    public CacheMaintenanceScheduler(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("invalid thread number");
+        }
+
+        final AtomicInteger index = new AtomicInteger(0);
+        this.executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cache-maintenance-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 获取全局共享的调度器
+     */
+    public static CacheMaintenanceScheduler getDefault() {
+        if (defaultScheduler == null) {
+            synchronized (CacheMaintenanceScheduler.class) {
+                if (defaultScheduler == null) {
+                    defaultScheduler = new CacheMaintenanceScheduler(DEFAULT_THREADS);
+                }
+            }
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * 替换全局共享的调度器，只影响之后创建的缓存，原来的调度器不会被关闭
+     */
+    public static void setDefault(CacheMaintenanceScheduler scheduler) {
+        synchronized (CacheMaintenanceScheduler.class) {
+            defaultScheduler = scheduler;
+        }
+    }
+
+    /**
+     * 注册一个定时任务，任务注册后马上执行一次，之后每次执行完间隔periodMillis再执行，
+     * 任务抛出的异常会被记录下来，不会影响后续的执行
+     * @param task          维护任务
+     * @param periodMillis  两次执行之间的间隔，单位毫秒
+     * @return 用于取消注册
+     */
+    public Registration register(final Runnable task, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("invalid period");
+        }
+
+        ScheduledFuture<?> future = this.executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.error("Cache maintenance task error", e);
+                }
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+
+        return new Registration(future);
+    }
+
+    /**
+     * 关闭调度器，所有注册的任务都不会再执行
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    public static class Registration implements Closeable {
+        private ScheduledFuture<?> future;
+
+        private Registration(ScheduledFuture<?> future) {
+            this.future = future;
+        }
+
+        /**
+         * 取消注册，正在执行的任务不会被中断
+         */
+        @Override
+        public void close() {
+            this.future.cancel(false);
+        }
+    }
+}
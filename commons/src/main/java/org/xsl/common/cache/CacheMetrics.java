@@ -0,0 +1,141 @@
+package org.xsl.common.cache;
+
+import org.xsl.common.metrics.Histogram;
+import org.xsl.common.metrics.MetricSet;
+import org.xsl.common.metrics.MetricsReporter;
+import org.xsl.common.metrics.StripedCounter;
+import java.util.Map;
+
+/**
+ * 缓存的运行指标，计数器都是分段计数器，记录的开销很小，可以一直打开。
+ * 对于只有一层的缓存（例如{@link SoftRefTimeCache}），所有超时都记在第0层
+ */
+public class CacheMetrics {
+    private MetricSet metrics = new MetricSet();
+
+    private StripedCounter hits;
+    private StripedCounter misses;
+    private StripedCounter[] puts;
+    private StripedCounter[] expirations;
+    private StripedCounter evictions;
+    private StripedCounter exhausted;
+    private StripedCounter softClears;
+
+    /**
+     * @param levels           缓存的层数
+     * @param callbackLatency  回调耗时的直方图，单位微秒，没有回调时为null
+     */
+    CacheMetrics(int levels, Histogram callbackLatency) {
+        this.hits = this.metrics.counter("hit");
+        this.misses = this.metrics.counter("miss");
+
+        this.puts = new StripedCounter[levels];
+        this.expirations = new StripedCounter[levels];
+        for (int i = 0; i < levels; i++) {
+            this.puts[i] = this.metrics.counter("put.level" + i);
+        }
+        for (int i = 0; i < levels; i++) {
+            this.expirations[i] = this.metrics.counter("expired.level" + i);
+        }
+
+        this.evictions = this.metrics.counter("evicted");
+        this.exhausted = this.metrics.counter("exhausted");
+        this.softClears = this.metrics.counter("softCleared");
+        if (callbackLatency != null) {
+            this.metrics.register("callbackMicros", callbackLatency);
+        }
+    }
+
+    void recordHit() {
+        this.hits.increment();
+    }
+
+    void recordMiss() {
+        this.misses.increment();
+    }
+
+    void recordPut(int level) {
+        this.puts[level].increment();
+    }
+
+    void recordExpired(int level, long count) {
+        this.expirations[level].add(count);
+    }
+
+    void recordEvicted() {
+        this.evictions.increment();
+    }
+
+    void recordExhausted() {
+        this.exhausted.increment();
+    }
+
+    void recordSoftClear() {
+        this.softClears.increment();
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * 命中率，还没有查询时返回0
+     */
+    public double getHitRate() {
+        long hit = this.hits.sum();
+        long total = hit + this.misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * 放入第level层的次数
+     */
+    public long getPutCount(int level) {
+        return this.puts[level].sum();
+    }
+
+    /**
+     * 在第level层超时退出的数据条数
+     */
+    public long getExpiredCount(int level) {
+        return this.expirations[level].sum();
+    }
+
+    /**
+     * 因为容量限制被强制退出的数据条数
+     */
+    public long getEvictedCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * 放入次数超过层数，结束了生命周期的数据条数
+     */
+    public long getExhaustedCount() {
+        return this.exhausted.sum();
+    }
+
+    /**
+     * 因为内存紧张被垃圾回收器整体回收掉的槽的个数，这些槽中的数据不会触发回调
+     */
+    public long getSoftClearCount() {
+        return this.softClears.sum();
+    }
+
+    public Map<String, Long> snapshot() {
+        return this.metrics.snapshot();
+    }
+
+    public void report(String source, MetricsReporter reporter) {
+        this.metrics.report(source, reporter);
+    }
+
+    @Override
+    public String toString() {
+        return this.snapshot().toString();
+    }
+}
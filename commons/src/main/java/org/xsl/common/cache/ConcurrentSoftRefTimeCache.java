@@ -0,0 +1,237 @@
+package org.xsl.common.cache;
+
+import org.xsl.common.base.BatchCallbackAdapter;
+import org.xsl.common.base.Callback;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link SoftRefTimeCache}的并发版本，语义与其相同，区别在于：
+ * 1. 数据按照key的hash分散到多个段中，每个段有自己的一组轮转槽，槽中的数据保存在{@link ConcurrentHashMap}中
+ * 2. 读操作不加锁，写操作只在槽被垃圾回收器回收后重建槽的时候有一次CAS
+ * 3. 槽的轮转通过原子替换完成，不会阻塞写操作，替换出来的数据交给{@link ExpiryDispatcher}异步批量回调，
+ *    回调跟不上时暂时放不进dispatcher的数据留在缓存中，下一次轮转时再提交
+ */
+public class ConcurrentSoftRefTimeCache<K, V> implements TimeCache<K, V> {
+    private static final int DEFAULT_SIZE = 3;
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    private Segment<K, V>[] segments;
+    private int segmentMask;
+
+    private CacheMaintenanceScheduler.Registration registration;
+    private ExpiryBacklog<Map.Entry<K, V>> expiryBacklog;
+    private boolean ownsDispatcher;
+    private int bucketSize;
+
+    /**
+     * @param expire            数据超时时间，单位秒，数据加入缓存的时间超过该时间，数据肯定会
+     *                          被清理掉，但是也有可能由于内存紧张，数据被提前清理掉
+     * @param bs                每个段中的槽数量，默认为3
+     * @param dispatcher        超时数据的回调，为null时超时数据直接丢弃
+     * @param concurrencyLevel  预计同时写缓存的线程数，段的数量为不小于该值的2的幂
+     * @param scheduler         负责定时轮转槽的调度器
+     */
+    public ConcurrentSoftRefTimeCache(int expire, int bs, ExpiryDispatcher<Map.Entry<K, V>> dispatcher,
+                                      int concurrencyLevel, CacheMaintenanceScheduler scheduler) {
+        if (expire < 0 || bs < 2 || concurrencyLevel <= 0 || scheduler == null) {
+            throw new RuntimeException("Invalid init params");
+        }
+
+        this.expiryBacklog = dispatcher == null ? null : new ExpiryBacklog<>(dispatcher);
+        this.bucketSize = bs;
+
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount < MAX_SEGMENTS) {
+            segmentCount <<= 1;
+        }
+        this.segmentMask = segmentCount - 1;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment<>(bs);
+        }
+
+        long expireMillis = expire * 1000L;
+        long sleepTime = Math.max(1, expireMillis / (this.bucketSize - 1));
+        this.registration = scheduler.register(new Runnable() {
+            public void run() {
+                rotate();
+            }
+        }, sleepTime);
+    }
+
+    /**
+     * @param cb  回调函数，当数据在缓存中超时时，会在回调线程中逐条调用该函数
+     */
+    public ConcurrentSoftRefTimeCache(int expire, int bs, Callback cb, int concurrencyLevel,
+                                      CacheMaintenanceScheduler scheduler) {
+        this(expire, bs, cb == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<Map.Entry<K, V>>(cb)),
+                concurrencyLevel, scheduler);
+        this.ownsDispatcher = cb != null;
+    }
+
+    public ConcurrentSoftRefTimeCache(int expire, int bs, Callback cb, int concurrencyLevel) {
+        this(expire, bs, cb, concurrencyLevel, CacheMaintenanceScheduler.getDefault());
+    }
+
+    public ConcurrentSoftRefTimeCache(int expire, int bs, Callback cb) {
+        this(expire, bs, cb, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ConcurrentSoftRefTimeCache(int expire, int bucketSize) {
+        this(expire, bucketSize, null);
+    }
+
+    public ConcurrentSoftRefTimeCache(int expire) {
+        this(expire, DEFAULT_SIZE, null);
+    }
+
+    /**
+     * 从最新的槽开始查找，返回最近一次放入的数据
+     */
+    @Override
+    public V get(K key) {
+        Segment<K, V> segment = this.segmentFor(key);
+        int current = segment.currentIndex;
+        for (int i = 0; i < this.bucketSize; i++) {
+            Map<K, V> map = segment.buckets.get((current - i + this.bucketSize) % this.bucketSize).get();
+            if (map != null) {
+                V value = map.get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        Segment<K, V> segment = this.segmentFor(key);
+
+        int index = segment.currentIndex;
+        ConcurrentHashMap<K, V> map = segment.liveBucket(index);
+        map.put(key, value);
+
+        /**
+         * 写入的过程中槽被轮转出去了，说明写线程停顿了整个超时周期，重新写到最新的槽中
+         */
+        if (segment.buckets.get(index).get() != map) {
+            segment.liveBucket(segment.currentIndex).put(key, value);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        Segment<K, V> segment = this.segmentFor(key);
+        for (int i = 0; i < this.bucketSize; i++) {
+            Map<K, V> map = segment.buckets.get(i).get();
+            if (map != null) {
+                map.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int res = 0;
+        for (Segment<K, V> segment : this.segments) {
+            for (int i = 0; i < this.bucketSize; i++) {
+                Map<K, V> map = segment.buckets.get(i).get();
+                if (map != null) {
+                    res += map.size();
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 停止槽的轮转，缓存中剩余的数据不会再触发回调，已经超时的数据在返回前回调完成；
+     * 通过{@link Callback}创建的dispatcher属于缓存自己，会一起关闭
+     */
+    @Override
+    public void close() {
+        this.registration.close();
+        if (this.expiryBacklog != null) {
+            this.expiryBacklog.close(this.ownsDispatcher);
+        }
+    }
+
+    /**
+     * 所有段各轮转一次，最老的槽被替换成空槽并成为新的当前槽，然后把所有段被替换出来的数据一起交给回调
+     */
+    private void rotate() {
+        List<Map.Entry<K, V>> entries = new ArrayList<>();
+        for (Segment<K, V> segment : this.segments) {
+            int removeIndex = (segment.currentIndex + 1) % this.bucketSize;
+            SoftReference<ConcurrentHashMap<K, V>> expired = segment.buckets.getAndSet(removeIndex,
+                    new SoftReference<>(new ConcurrentHashMap<K, V>()));
+            segment.currentIndex = removeIndex;
+
+            Map<K, V> map = expired.get();
+            if (map != null && this.expiryBacklog != null) {
+                entries.addAll(map.entrySet());
+            }
+        }
+        if (this.expiryBacklog != null) {
+            this.expiryBacklog.submit(entries);
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return this.segments[h & this.segmentMask];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("segments: " + this.segments.length);
+        sb.append(" bucketSize: " + this.bucketSize);
+        sb.append(" cacheSize: " + this.size());
+        return sb.toString();
+    }
+
+    private static final class Segment<K, V> {
+        private final AtomicReferenceArray<SoftReference<ConcurrentHashMap<K, V>>> buckets;
+
+        /**
+         * 只有清理线程会修改
+         */
+        private volatile int currentIndex;
+
+        Segment(int bucketSize) {
+            this.buckets = new AtomicReferenceArray<>(bucketSize);
+            for (int i = 0; i < bucketSize; i++) {
+                this.buckets.set(i, new SoftReference<>(new ConcurrentHashMap<K, V>()));
+            }
+            this.currentIndex = bucketSize - 1;
+        }
+
+        /**
+         * 获取某个槽，如果槽已经被垃圾回收器回收，则重建一个
+         */
+        ConcurrentHashMap<K, V> liveBucket(int index) {
+            while (true) {
+                SoftReference<ConcurrentHashMap<K, V>> ref = this.buckets.get(index);
+                ConcurrentHashMap<K, V> map = ref.get();
+                if (map != null) {
+                    return map;
+                }
+
+                map = new ConcurrentHashMap<>();
+                if (this.buckets.compareAndSet(index, ref, new SoftReference<>(map))) {
+                    return map;
+                }
+            }
+        }
+    }
+}
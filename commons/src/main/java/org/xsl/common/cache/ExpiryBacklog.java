@@ -0,0 +1,54 @@
+package org.xsl.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 缓存在共用的维护线程中提交超时数据时使用。dispatcher的队列满了放不进去的数据暂存在这里，
+ * 下一次提交时排在新数据的前面，回调不会丢失，维护线程也不会一直等待慢回调。
+ * 暂存的数据与它们留在缓存中时占用的内存相同，回调持续跟不上时会一直增长
+ */
+class ExpiryBacklog<T> {
+    private ExpiryDispatcher<T> dispatcher;
+    private List<T> items = new ArrayList<>();
+
+    ExpiryBacklog(ExpiryDispatcher<T> dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * 先提交上一次暂存的数据，再提交新的数据，队列满的时候最多等待dispatcher的offerTimeoutMillis
+     */
+    synchronized void submit(Collection<? extends T> expired) {
+        if (this.items.isEmpty()) {
+            this.items = this.dispatcher.offerAll(expired);
+            return;
+        }
+
+        this.items.addAll(expired);
+        this.items = this.dispatcher.offerAll(this.items);
+    }
+
+    /**
+     * 暂存的数据条数
+     */
+    synchronized int size() {
+        return this.items.size();
+    }
+
+    /**
+     * 缓存关闭时调用：等待暂存的数据全部进入队列，并执行完所有回调，ownsDispatcher为true时关闭dispatcher
+     */
+    synchronized void close(boolean ownsDispatcher) {
+        this.dispatcher.dispatchAll(this.items);
+        this.items = new ArrayList<>();
+
+        if (ownsDispatcher) {
+            this.dispatcher.close();
+        }
+        else {
+            this.dispatcher.flush();
+        }
+    }
+}
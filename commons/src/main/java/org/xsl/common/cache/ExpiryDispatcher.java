@@ -0,0 +1,342 @@
+package org.xsl.common.cache;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.log4j.Logger;
+import org.xsl.common.base.BatchCallback;
+import org.xsl.common.metrics.Histogram;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 超时数据的异步批量回调。缓存把超时的数据交给dispatcher之后立即返回，数据先进入一个有界队列，
+ * 再由executor中的线程按批取出并调用{@link BatchCallback}，回调的快慢不会影响缓存的读写。
+ *
+ * 同一个dispatcher的回调总是串行执行的，批次之间保持数据进入队列的顺序，因此回调函数不需要是线程安全的；
+ * 不同的dispatcher可以共用一个executor，每个dispatcher连续回调若干批之后会把线程让给其他dispatcher。
+ *
+ * 队列满的时候默认按照{@link OverflowPolicy#BLOCK}等待回调跟上，数据不会丢失；显式指定{@link OverflowPolicy#DROP}时
+ * 最多等待offerTimeoutMillis，放不进去的数据被丢弃并计数。回调函数中不要向共用同一个executor的dispatcher提交数据，
+ * 否则队列满的时候可能互相等待。
+ *
+ * 所有缓存共用的维护线程不能被一个慢回调卡住，它通过{@link #offerAll(Collection)}提交数据，最多等待offerTimeoutMillis，
+ * 放不进去的数据交还给缓存，下一次轮转时重新提交。
+ */
+public class ExpiryDispatcher<T> {
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100000;
+    private static final int DEFAULT_THREADS = 2;
+    private static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 100;
+
+    /**
+     * 一次调度中最多回调的批数，之后重新提交到executor，避免持续有数据的dispatcher一直占用共享线程
+     */
+    private static final int MAX_BATCHES_PER_RUN = 16;
+
+    private static Logger logger = Logger.getLogger(ExpiryDispatcher.class);
+    private static volatile ExecutorService defaultExecutor;
+
+    private BatchCallback<T> callback;
+    private Executor executor;
+    private int batchSize;
+    private OverflowPolicy policy;
+    private long offerTimeoutNanos;
+
+    private LinkedBlockingQueue<T> pending;
+    private AtomicBoolean draining = new AtomicBoolean(false);
+    private Histogram callbackLatency = new Histogram();
+    private AtomicLong droppedCount = new AtomicLong(0);
+
+    /**
+     * DROP策略下上一次等待超时之后置位，队列重新放得进数据时清除
+     */
+    private volatile boolean saturated;
+    private volatile boolean closed;
+
+    private Runnable drainTask = new Runnable() {
+        public void run() {
+            drain(MAX_BATCHES_PER_RUN);
+        }
+    };
+
+    /**
+     * @param callback            批量回调函数
+     * @param batchSize           每批最多的数据条数
+     * @param queueCapacity       等待回调的数据最多有多少条
+     * @param policy              队列满的时候{@link #dispatch(Object)}和{@link #dispatchAll(Collection)}如何处理
+     * @param offerTimeoutMillis  DROP策略以及{@link #offerAll(Collection)}在队列满的时候最多等待的时间，单位毫秒
+     * @param executor            执行回调的线程池
+     */
+    public ExpiryDispatcher(BatchCallback<T> callback, int batchSize, int queueCapacity, OverflowPolicy policy,
+                            long offerTimeoutMillis, Executor executor) {
+        if (callback == null || batchSize <= 0 || queueCapacity <= 0 || policy == null || offerTimeoutMillis < 0
+                || executor == null) {
+            throw new IllegalArgumentException("invalid init params");
+        }
+
+        this.callback = callback;
+        this.batchSize = batchSize;
+        this.policy = policy;
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        this.executor = executor;
+        this.pending = new LinkedBlockingQueue<>(queueCapacity);
+    }
+
+    public ExpiryDispatcher(BatchCallback<T> callback, int batchSize, int queueCapacity, Executor executor) {
+        this(callback, batchSize, queueCapacity, OverflowPolicy.BLOCK, DEFAULT_OFFER_TIMEOUT_MILLIS, executor);
+    }
+
+    public ExpiryDispatcher(BatchCallback<T> callback, int batchSize, int queueCapacity) {
+        this(callback, batchSize, queueCapacity, getDefaultExecutor());
+    }
+
+    public ExpiryDispatcher(BatchCallback<T> callback) {
+        this(callback, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY, getDefaultExecutor());
+    }
+
+    /**
+     * 所有未指定executor的dispatcher共用的线程池，线程都是守护线程
+     */
+    private static ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            synchronized (ExpiryDispatcher.class) {
+                if (defaultExecutor == null) {
+                    final AtomicInteger index = new AtomicInteger(0);
+                    defaultExecutor = Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "expiry-callback-" + index.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * 提交一条超时的数据，队列满的时候按照policy等待或者丢弃
+     */
+    public void dispatch(T item) {
+        this.enqueue(item, System.nanoTime() + this.offerTimeoutNanos);
+        this.afterEnqueue();
+    }
+
+    /**
+     * 提交多条超时的数据，队列满的时候按照policy等待或者丢弃，DROP策略下整批最多等待offerTimeoutMillis
+     */
+    public void dispatchAll(Collection<? extends T> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + this.offerTimeoutNanos;
+        for (T item : items) {
+            this.enqueue(item, deadline);
+        }
+        this.afterEnqueue();
+    }
+
+    /**
+     * 供维护线程提交多条数据，无论policy是什么，队列满的时候整批最多等待offerTimeoutMillis。
+     * BLOCK策略下没有放进去的数据按原来的顺序返回，由调用方保留下来稍后重新提交；DROP策略下这些数据被丢弃并计数
+     * @return 没有进入队列的数据
+     */
+    public List<T> offerAll(Collection<? extends T> items) {
+        List<T> rest = new ArrayList<>();
+        if (items.isEmpty()) {
+            return rest;
+        }
+
+        long deadline = System.nanoTime() + this.offerTimeoutNanos;
+        Iterator<? extends T> it = items.iterator();
+        while (it.hasNext()) {
+            T item = it.next();
+            if (!this.offer(item, deadline)) {
+                rest.add(item);
+                break;
+            }
+        }
+        while (it.hasNext()) {
+            rest.add(it.next());
+        }
+        this.afterEnqueue();
+
+        if (this.policy == OverflowPolicy.DROP && !rest.isEmpty()) {
+            this.droppedCount.addAndGet(rest.size());
+            logger.warn("Expiry callback queue full, drop " + rest.size() + " items");
+            rest.clear();
+        }
+        return rest;
+    }
+
+    /**
+     * 在当前线程中执行完所有已经提交的回调再返回，如果executor正在回调，等待它结束
+     */
+    public void flush() {
+        while (true) {
+            if (this.draining.compareAndSet(false, true)) {
+                this.drain(Integer.MAX_VALUE);
+            }
+            if (this.pending.isEmpty() && !this.draining.get()) {
+                return;
+            }
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 执行完已经提交的回调，之后提交的数据在提交数据的线程中同步回调，不会关闭executor
+     */
+    public void close() {
+        this.closed = true;
+        this.flush();
+    }
+
+    /**
+     * 每批回调的耗时，单位微秒
+     */
+    public Histogram getCallbackLatency() {
+        return this.callbackLatency;
+    }
+
+    /**
+     * 当前等待回调的数据条数
+     */
+    public int getPendingSize() {
+        return this.pending.size();
+    }
+
+    /**
+     * DROP策略下因为队列满而被丢弃的数据条数
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * BLOCK策略下一直等到数据进入队列；DROP策略下最多等到deadline，上一次已经等待超时的话不再等待，放不进去就丢弃
+     */
+    private void enqueue(T item, long deadline) {
+        if (this.policy == OverflowPolicy.BLOCK) {
+            if (!this.pending.offer(item)) {
+                this.scheduleDrain();
+                Uninterruptibles.putUninterruptibly(this.pending, item);
+            }
+            return;
+        }
+
+        if (this.offer(item, this.saturated ? System.nanoTime() : deadline)) {
+            this.saturated = false;
+            return;
+        }
+        if (!this.saturated) {
+            this.saturated = true;
+            logger.warn("Expiry callback queue full, drop items until callbacks catch up");
+        }
+        this.droppedCount.incrementAndGet();
+    }
+
+    /**
+     * 队列满的时候确保有线程在消费，然后最多等到deadline
+     * @return 数据是否进入了队列
+     */
+    private boolean offer(T item, long deadline) {
+        if (this.pending.offer(item)) {
+            return true;
+        }
+
+        this.scheduleDrain();
+        long wait = deadline - System.nanoTime();
+        if (wait > 0) {
+            try {
+                return this.pending.offer(item, wait, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 关闭之后在当前线程中回调，否则交给executor
+     */
+    private void afterEnqueue() {
+        if (this.closed) {
+            this.flush();
+        }
+        else {
+            this.scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (this.draining.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this.drainTask);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Expiry callback executor rejected, run callback in caller thread");
+                this.drain(Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * 取出数据并回调，直到队列为空或者回调了maxBatches批，后一种情况下保留draining标记并重新提交到executor；
+     * 只有拿到draining标记的线程才能调用，因此回调是串行的
+     */
+    private void drain(int maxBatches) {
+        int batches = 0;
+        while (true) {
+            if (batches >= maxBatches) {
+                try {
+                    this.executor.execute(this.drainTask);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    batches = 0;
+                }
+            }
+
+            List<T> batch = new ArrayList<>(Math.min(this.batchSize, this.pending.size()));
+            this.pending.drainTo(batch, this.batchSize);
+            if (batch.isEmpty()) {
+                this.draining.set(false);
+
+                /**
+                 * 释放标记之后可能又有数据进来，并且提交数据的线程看到标记未释放而没有调度消费
+                 */
+                if (this.pending.isEmpty() || !this.draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            batches++;
+            long start = System.nanoTime();
+            try {
+                this.callback.callback(batch);
+            } catch (Throwable e) {
+                logger.error("Expiry callback error, " + batch.size() + " items dropped", e);
+            }
+            this.callbackLatency.update((System.nanoTime() - start) / 1000);
+        }
+    }
+}
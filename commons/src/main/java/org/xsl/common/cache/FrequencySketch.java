@@ -0,0 +1,72 @@
+package org.xsl.common.cache;
+
+/**
+ * 近似记录key访问频率的count-min sketch，每个计数器4位，最大为15，16个计数器放在一个long中。
+ * 每个key在4行中各对应一个计数器，频率取4个计数器的最小值。
+ *
+ * 记录的次数达到计数器数量的10倍时，所有计数器减半，这样频率反映的是最近一段时间的访问情况。
+ * 不是线程安全的，调用方需要加锁
+ */
+class FrequencySketch {
+    private static final int[] SEEDS = {0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0x5851f42d};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedSize  缓存中最多的数据条数，决定计数器的数量
+     */
+    FrequencySketch(long expectedSize) {
+        int size = 16;
+        while (size < expectedSize && size < MAX_TABLE_SIZE) {
+            size <<= 1;
+        }
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = size * 10;
+    }
+
+    int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int h = rehash(hash, i);
+            int shift = ((h >>> 24) & 15) << 2;
+            int count = (int) ((this.table[h & this.tableMask] >>> shift) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int h = rehash(hash, i);
+            int index = h & this.tableMask;
+            int shift = ((h >>> 24) & 15) << 2;
+            if (((this.table[index] >>> shift) & 0xF) != 0xF) {
+                this.table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added && ++this.additions == this.sampleSize) {
+            this.reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.additions >>>= 1;
+    }
+
+    private static int rehash(int hash, int row) {
+        int h = (hash ^ (hash >>> 17)) * SEEDS[row];
+        return h ^ (h >>> 15);
+    }
+}
@@ -2,19 +2,52 @@ package org.xsl.common.cache;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.xsl.common.base.BatchCallbackAdapter;
 import org.xsl.common.base.Callback;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * 对guava中{@link Cache}的封装，维护了一个缓存队列，缓存队列的超时时间呈指数增长，例如第一个队列
- * 的超时时间为4秒，第二个为8秒，第三个为16秒，以此类推，该数据结构适合用在回退匹配算法中
+ * 的超时时间为4秒，第二个为8秒，第三个为16秒，以此类推，该数据结构适合用在回退匹配算法中。
+ *
+ * 可以把缓存分成多个分片，每个分片有自己独立的一组缓存队列，key按照hash固定落在某个分片上，
+ * 多线程写入时不同的key大概率不会竞争同一个guava缓存的段锁。分片之后容量限制平均分到每个分片上
  * Created by xiongsenlin on 15/7/2.
  */
-public class GuavaBackoffCache {
-    private Callback callback;
-    private Cache<String, CacheItem> [] cacheList;
+public class GuavaBackoffCache implements BackoffCache {
+    /**
+     * 分片模式下默认的分片数量
+     */
+    public static final int DEFAULT_SHARDS = Runtime.getRuntime().availableProcessors();
+
+    private static final int MAX_SHARDS = 1 << 16;
+
+    /**
+     * 相邻两个分片的计数之间间隔8个long，避免伪共享
+     */
+    private static final int PADDING = 8;
+
+    private ExpiryDispatcher<CacheItem> dispatcher;
+    private boolean ownsDispatcher;
+
+    /**
+     * 第一维是分片，第二维是层
+     */
+    private Cache<String, CacheItem> [][] shards;
+    private int shardMask;
+    private int levels;
+
+    /**
+     * 每个分片中的数据条数，放入时加一，收到退出通知时减一
+     */
+    private AtomicLongArray shardSizes;
+    private CacheMaintenanceScheduler.Registration registration;
+    private CacheMetrics metrics;
 
     /**
      * 默认的缓存容量大小
@@ -53,56 +86,109 @@ public class GuavaBackoffCache {
      * @param beginExpire    第一次数据进入缓存后的超时时间
      * @param factor         后续数据每次重新放入缓存的时候超时时间相对于前一次的增加比例
      * @param sizeLimit      单个缓存容量大小的限制，当缓存中数据大小超过此值时，数据会被强制退出缓存
+     * @param shardCount     分片数量，取不小于该值的2的幂，每个分片的容量限制为sizeLimit / 分片数量（向上取整）
      * @param listener       监听器，当数据退出缓存时，会调用监听器对应的监听函数
-     * @param callback       当数据最后一次出缓存的时候调用的回调函数
+     * @param dispatcher     数据最后一次出缓存时的回调，回调在dispatcher的线程中异步批量执行
+     * @param scheduler      负责定时刷新缓存的调度器
      */
-    public GuavaBackoffCache(int backOffTimes, int beginExpire, int factor,
-                             int sizeLimit, RemovalListener listener, Callback callback) {
-        if (backOffTimes < 0 || beginExpire <= 0 || factor <= 0 || sizeLimit <= 0) {
+    public GuavaBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, int shardCount,
+                             RemovalListener listener, ExpiryDispatcher<CacheItem> dispatcher,
+                             CacheMaintenanceScheduler scheduler) {
+        if (backOffTimes < 0 || beginExpire <= 0 || factor <= 0 || sizeLimit <= 0 || shardCount <= 0
+                || scheduler == null) {
             throw new RuntimeException("invalid init params");
         }
 
-        this.callback = callback;
-        this.cacheList = new Cache[backOffTimes];
-
-        int expire = beginExpire;
-        for (int i = 0; i < backOffTimes; i++) {
-            CacheBuilder cacheBuilder = CacheBuilder.newBuilder()
-                    .expireAfterWrite(expire, TimeUnit.SECONDS)
-                    .maximumSize(sizeLimit);
-            if (listener != null) {
-                cacheBuilder.removalListener(listener);
-            }
+        int shardNum = 1;
+        while (shardNum < shardCount && shardNum < MAX_SHARDS) {
+            shardNum <<= 1;
+        }
+        int shardSizeLimit = (int) (((long) sizeLimit + shardNum - 1) / shardNum);
+
+        this.dispatcher = dispatcher;
+        this.levels = backOffTimes;
+        this.shardMask = shardNum - 1;
+        this.shards = new Cache[shardNum][backOffTimes];
+        this.shardSizes = new AtomicLongArray(shardNum * PADDING);
+        this.metrics = new CacheMetrics(backOffTimes, dispatcher == null ? null : dispatcher.getCallbackLatency());
+
+        for (int s = 0; s < shardNum; s++) {
+            int expire = beginExpire;
+            for (int i = 0; i < backOffTimes; i++) {
+                CacheBuilder cacheBuilder = CacheBuilder.newBuilder()
+                        .expireAfterWrite(expire, TimeUnit.SECONDS)
+                        .maximumSize(shardSizeLimit)
+                        .removalListener(new LevelListener(i, s * PADDING, listener, this.metrics, this.shardSizes));
+
+                /**
+                 * 分片已经把并发分散开了，每个guava缓存只用一个段，容量淘汰也因此是精确的LRU
+                 */
+                if (shardNum > 1) {
+                    cacheBuilder.concurrencyLevel(1);
+                }
 
-            Cache<String, CacheItem> cacheItem = cacheBuilder.build();
+                Cache<String, CacheItem> cacheItem = cacheBuilder.build();
 
-            cacheList[i] = cacheItem;
-            expire *= factor;
+                this.shards[s][i] = cacheItem;
+                expire *= factor;
+            }
         }
 
         if (backOffTimes > 0) {
-            this.refreshCache();
+            this.refreshCache(scheduler);
         }
     }
 
+    public GuavaBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, RemovalListener listener,
+                             ExpiryDispatcher<CacheItem> dispatcher, CacheMaintenanceScheduler scheduler) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, 1, listener, dispatcher, scheduler);
+    }
+
+    /**
+     * 分片模式，分片数量可以使用{@link #DEFAULT_SHARDS}
+     */
+    public GuavaBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, int shardCount,
+                             RemovalListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, shardCount, listener,
+                callback == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<CacheItem>(callback)),
+                CacheMaintenanceScheduler.getDefault());
+        this.ownsDispatcher = callback != null;
+    }
+
+    /**
+     * @param callback       当数据最后一次出缓存的时候调用的回调函数，在回调线程中逐条调用
+     */
+    public GuavaBackoffCache(int backOffTimes, int beginExpire, int factor,
+                             int sizeLimit, RemovalListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, listener,
+                callback == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<CacheItem>(callback)),
+                CacheMaintenanceScheduler.getDefault());
+        this.ownsDispatcher = callback != null;
+    }
+
     /**
-     * 将数据放回缓存中，如果放回次数超过回退匹配的次数，则调用回调函数（如果存在的话），
-     * 然后数据在缓存中的生命周期就结束了
+     * 将数据放回缓存中，如果放回次数超过回退匹配的次数，则把数据交给回调（如果存在的话），
+     * 然后数据在缓存中的生命周期就结束了。回调是异步执行的，回调队列满的时候见{@link ExpiryDispatcher}
      * @param key
      * @param cacheItem
      */
+    @Override
     public void addData(String key, CacheItem cacheItem) {
         int times = cacheItem.getTimes();
         cacheItem.setTimes(times + 1);
 
-        if (times >= this.cacheList.length) {
-            if (this.callback != null){
+        if (times >= this.levels) {
+            this.metrics.recordExhausted();
+            if (this.dispatcher != null){
                 cacheItem.setKey(key);
-                this.callback.callback(cacheItem);
+                this.dispatcher.dispatch(cacheItem);
             }
         }
         else {
-            this.cacheList[times].put(key, cacheItem);
+            int shard = this.shardOf(key);
+            this.shards[shard][times].put(key, cacheItem);
+            this.shardSizes.getAndIncrement(shard * PADDING);
+            this.metrics.recordPut(times);
         }
     }
 
@@ -111,48 +197,120 @@ public class GuavaBackoffCache {
      * @param key
      * @return
      */
+    @Override
     public boolean exist(String key) {
-        for (int i = 0; i < this.cacheList.length; i++) {
-            if (this.cacheList[i].getIfPresent(key) != null) {
+        Cache<String, CacheItem>[] cacheList = this.shards[this.shardOf(key)];
+        for (int i = 0; i < cacheList.length; i++) {
+            if (cacheList[i].getIfPresent(key) != null) {
+                this.metrics.recordHit();
                 return true;
             }
         }
 
+        this.metrics.recordMiss();
         return false;
     }
 
     /**
-     * 获取整个缓存当前的容量大小
+     * 获取整个缓存当前的容量大小，由每个分片的计数相加得到，不加锁，并发写入时不是某一时刻的精确值；
+     * 与guava缓存的size一样，已经超时但是还没有被清理的数据也计算在内
      * @return
      */
+    @Override
     public int getDataSize() {
-        int result = 0;
-        for (int i = 0; i < this.cacheList.length; i++) {
-            result += this.cacheList[i].size();
+        long result = 0;
+        for (int s = 0; s <= this.shardMask; s++) {
+            result += this.shardSizes.get(s * PADDING);
+        }
+        return (int) Math.max(0, Math.min(result, Integer.MAX_VALUE));
+    }
+
+    public int getShardCount() {
+        return this.shardMask + 1;
+    }
+
+    /**
+     * 缓存的运行指标，第i层的超时数量对应第i个guava缓存中超时退出的数据
+     */
+    public CacheMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * 停止定时刷新，之后数据只会在添加删除数据时顺带被清理；已经交给dispatcher的数据在返回前回调完成，
+     * 通过{@link Callback}创建的dispatcher属于缓存自己，会一起关闭
+     */
+    @Override
+    public void close() {
+        if (this.registration != null) {
+            this.registration.close();
+        }
+        if (this.dispatcher != null) {
+            if (this.ownsDispatcher) {
+                this.dispatcher.close();
+            }
+            else {
+                this.dispatcher.flush();
+            }
         }
-        return result;
     }
 
     /**
      * {@link Cache}不会自动刷新，只是在添加删除数据时做一些刷新操作，所以需要定时手动对缓存进行刷新操作
      */
-    private void refreshCache() {
-        Thread cleaner = new Thread(new Runnable() {
+    private void refreshCache(CacheMaintenanceScheduler scheduler) {
+        this.registration = scheduler.register(new Runnable() {
             public void run() {
-                while (true) {
+                for (Cache<String, CacheItem>[] cacheList : shards) {
                     for (int i = 0; i < cacheList.length; i++) {
                         cacheList[i].cleanUp();
                     }
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
                 }
             }
-        });
-        cleaner.setDaemon(true);
-        cleaner.start();
+        }, 1000);
+    }
+
+    private int shardOf(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & this.shardMask;
+    }
+
+    /**
+     * 统计每一层的超时以及容量淘汰，维护分片的数据条数，然后交给用户的监听器
+     */
+    private static class LevelListener implements RemovalListener<String, CacheItem> {
+        private int level;
+        private int sizeIndex;
+        private RemovalListener listener;
+        private CacheMetrics metrics;
+        private AtomicLongArray shardSizes;
+
+        LevelListener(int level, int sizeIndex, RemovalListener listener, CacheMetrics metrics,
+                      AtomicLongArray shardSizes) {
+            this.level = level;
+            this.sizeIndex = sizeIndex;
+            this.listener = listener;
+            this.metrics = metrics;
+            this.shardSizes = shardSizes;
+        }
+
+        @Override
+        public void onRemoval(RemovalNotification<String, CacheItem> notification) {
+            this.shardSizes.getAndDecrement(this.sizeIndex);
+            if (notification.getCause() == RemovalCause.EXPIRED) {
+                this.metrics.recordExpired(this.level, 1);
+            }
+            else if (notification.getCause() == RemovalCause.SIZE) {
+                this.metrics.recordEvicted();
+            }
+
+            if (this.listener != null) {
+                this.listener.onRemoval(notification);
+            }
+        }
     }
 
     public static class CacheItem <T> {
@@ -182,6 +340,17 @@ public class GuavaBackoffCache {
             this.times = times;
         }
 
+        /**
+         * 数据第一次创建的时间
+         */
+        public long getStartTime() {
+            return sTime;
+        }
+
+        public void setStartTime(long sTime) {
+            this.sTime = sTime;
+        }
+
         public String getKey() {
             return key;
         }
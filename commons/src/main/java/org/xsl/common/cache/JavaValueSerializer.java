@@ -0,0 +1,28 @@
+package org.xsl.common.cache;
+
+import java.io.*;
+
+/**
+ * 使用java自带的序列化机制实现的{@link ValueSerializer}，数据需要实现{@link Serializable}接口
+ */
+public class JavaValueSerializer<V> implements ValueSerializer<V> {
+    @Override
+    public byte[] serialize(V value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+        } catch (IOException e) {
+            throw new RuntimeException("Serialize value error", e);
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    public V deserialize(byte[] bytes) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (V) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Deserialize value error", e);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.xsl.common.cache;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.log4j.Logger;
+import org.xsl.common.base.BatchCallbackAdapter;
+import org.xsl.common.base.Callback;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 自动加载数据的{@link SoftRefTimeCache}，{@link #get(Object)}在数据不存在时通过loader加载数据并放入缓存。
+ *
+ * 同一个key同时只会有一次加载，其他线程等待这次加载的结果，避免槽轮转之后热点数据同时穿透到数据库；
+ * {@link #getAll(Collection)}把所有不存在的key合并成一次{@link CacheLoader#loadAll(Iterable)}调用。
+ * 设置了refreshExecutor时，命中的数据如果在最早的槽中（下一次轮转就会超时），会在后台提前重新加载，
+ * 重新加载期间读到的仍然是旧数据。loader返回null时不放入缓存，get返回null
+ */
+public class LoadingSoftRefTimeCache<K, V> extends SoftRefTimeCache<K, V> {
+    private static Logger logger = Logger.getLogger(LoadingSoftRefTimeCache.class);
+
+    private CacheLoader<K, V> loader;
+    private Executor refreshExecutor;
+
+    /**
+     * 正在加载的key，value是加载结果
+     */
+    private ConcurrentHashMap<K, SettableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * @param expire           数据超时时间，单位秒
+     * @param bs               缓存中的槽数量
+     * @param loader           数据不存在时加载数据
+     * @param refreshExecutor  提前重新加载数据的线程池，为null时不提前加载
+     * @param dispatcher       超时数据的回调，为null时超时数据直接丢弃
+     * @param scheduler        负责定时轮转槽的调度器
+     */
+    public LoadingSoftRefTimeCache(int expire, int bs, CacheLoader<K, V> loader, Executor refreshExecutor,
+                                   ExpiryDispatcher<Map.Entry<K, V>> dispatcher, CacheMaintenanceScheduler scheduler) {
+        super(expire, bs, dispatcher, scheduler);
+        if (loader == null) {
+            throw new RuntimeException("Invalid init params");
+        }
+
+        this.loader = loader;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public LoadingSoftRefTimeCache(int expire, int bs, CacheLoader<K, V> loader, Executor refreshExecutor, Callback cb) {
+        this(expire, bs, loader, refreshExecutor,
+                cb == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<Map.Entry<K, V>>(cb)),
+                CacheMaintenanceScheduler.getDefault());
+        this.ownsDispatcher = cb != null;
+    }
+
+    public LoadingSoftRefTimeCache(int expire, int bs, CacheLoader<K, V> loader) {
+        this(expire, bs, loader, null, null);
+    }
+
+    /**
+     * 获取数据，数据不存在时加载
+     * @throws UncheckedExecutionException loader抛出了异常
+     */
+    @Override
+    public V get(K key) {
+        V value = super.get(key);
+        if (value != null) {
+            if (this.refreshExecutor != null && this.isExpiringSoon(key)) {
+                this.refresh(key);
+            }
+            return value;
+        }
+
+        SettableFuture<V> future = SettableFuture.create();
+        SettableFuture<V> existing = this.loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return waitFor(existing);
+        }
+
+        /**
+         * 查询缓存之后、获得加载权之前，其他线程可能刚刚加载完成，这时不需要再加载一次
+         */
+        value = this.peek(key);
+        if (value != null) {
+            this.loading.remove(key, future);
+            future.set(value);
+            return value;
+        }
+
+        try {
+            value = this.loader.load(key);
+        } catch (Throwable e) {
+            this.loading.remove(key, future);
+            future.setException(e);
+            throw new UncheckedExecutionException(e);
+        }
+        this.complete(key, future, value);
+        return value;
+    }
+
+    /**
+     * 获取缓存中的数据，不会触发加载
+     */
+    public V getIfPresent(K key) {
+        return super.get(key);
+    }
+
+    /**
+     * 批量获取数据，缓存中没有的key合并成一次loadAll调用，正在被其他线程加载的key等待其加载结果。
+     * loader没有实现loadAll时逐个调用load
+     * @return 只包含有数据的key
+     * @throws UncheckedExecutionException loader抛出了异常
+     */
+    public Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> res = new LinkedHashMap<>();
+        Map<K, SettableFuture<V>> owned = new LinkedHashMap<>();
+        Map<K, SettableFuture<V>> waiting = new HashMap<>();
+
+        for (K key : keys) {
+            V value = super.get(key);
+            if (value != null) {
+                res.put(key, value);
+                continue;
+            }
+
+            SettableFuture<V> future = SettableFuture.create();
+            SettableFuture<V> existing = this.loading.putIfAbsent(key, future);
+            if (existing == null) {
+                owned.put(key, future);
+            }
+            else if (existing != owned.get(key)) {
+                waiting.put(key, existing);
+            }
+        }
+
+        for (Iterator<Map.Entry<K, SettableFuture<V>>> it = owned.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<K, SettableFuture<V>> entry = it.next();
+            V value = this.peek(entry.getKey());
+            if (value != null) {
+                this.loading.remove(entry.getKey(), entry.getValue());
+                entry.getValue().set(value);
+                res.put(entry.getKey(), value);
+                it.remove();
+            }
+        }
+
+        if (!owned.isEmpty()) {
+            Map<K, V> loaded;
+            try {
+                loaded = this.loadAll(owned.keySet());
+            } catch (Throwable e) {
+                for (Map.Entry<K, SettableFuture<V>> entry : owned.entrySet()) {
+                    this.loading.remove(entry.getKey(), entry.getValue());
+                    entry.getValue().setException(e);
+                }
+                throw new UncheckedExecutionException(e);
+            }
+
+            for (Map.Entry<K, SettableFuture<V>> entry : owned.entrySet()) {
+                V value = loaded.get(entry.getKey());
+                this.complete(entry.getKey(), entry.getValue(), value);
+                if (value != null) {
+                    res.put(entry.getKey(), value);
+                }
+            }
+        }
+
+        for (Map.Entry<K, SettableFuture<V>> entry : waiting.entrySet()) {
+            V value = waitFor(entry.getValue());
+            if (value != null) {
+                res.put(entry.getKey(), value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 在后台重新加载数据，已经在加载的key直接返回，没有设置refreshExecutor时在当前线程加载
+     */
+    public void refresh(final K key) {
+        final SettableFuture<V> future = SettableFuture.create();
+        if (this.loading.putIfAbsent(key, future) != null) {
+            return;
+        }
+
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    complete(key, future, loader.load(key));
+                } catch (Throwable e) {
+                    logger.error("Refresh cache key " + key + " error", e);
+                    loading.remove(key, future);
+                    future.setException(e);
+                }
+            }
+        };
+
+        Executor executor = this.refreshExecutor;
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            this.loading.remove(key, future);
+            future.set(this.getIfPresent(key));
+        }
+    }
+
+    private Map<K, V> loadAll(Collection<K> keys) throws Exception {
+        try {
+            Map<K, V> loaded = this.loader.loadAll(keys);
+            return loaded == null ? Collections.<K, V>emptyMap() : loaded;
+        } catch (UnsupportedOperationException e) {
+            Map<K, V> loaded = new HashMap<>();
+            for (K key : keys) {
+                V value = this.loader.load(key);
+                if (value != null) {
+                    loaded.put(key, value);
+                }
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * 先把数据放入缓存再结束加载，这样加载结束之后到来的请求一定能在缓存中找到数据
+     */
+    private void complete(K key, SettableFuture<V> future, V value) {
+        if (value != null) {
+            this.put(key, value);
+        }
+        this.loading.remove(key, future);
+        future.set(value);
+    }
+
+    private static <V> V waitFor(SettableFuture<V> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.xsl.common.cache;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
+import org.xsl.common.base.BatchCallbackAdapter;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * key为long的{@link TimingWheelBackoffCache}，key保存在long数组中，不需要装箱，也不需要转换成字符串。
+ * 数据最后一次出缓存时，回调函数收到的参数是{@link java.util.Map.Entry}，key为{@link Long}，value为{@link CacheItem}
+ */
+public class LongBackoffCache extends AbstractBackoffCache {
+    /**
+     * 默认的缓存容量大小
+     */
+    private static int defaultCacheSizeLimit = 50000;
+
+    /**
+     * 默认的回退匹配次数
+     */
+    private static int defaultJoinTimes = 3;
+
+    /**
+     * 默认的第一次超时时间以及每次超时时间的递增倍数
+     */
+    private static int defaultBeginExpireTime = 4;
+    private static int defaultFactor = 2;
+
+    /**
+     * 默认每秒推进一次时间轮
+     */
+    private static long defaultTickMillis = 1000;
+
+    private LongBackoffListener listener;
+    private ExpiryDispatcher<Map.Entry<Long, CacheItem>> dispatcher;
+    private boolean ownsDispatcher;
+    private Weigher<Long, CacheItem> weigher;
+    private long[] keys;
+
+    public LongBackoffCache(LongBackoffListener listener) {
+        this(defaultJoinTimes, defaultBeginExpireTime, defaultFactor, defaultCacheSizeLimit, listener, null);
+    }
+
+    public LongBackoffCache(int backOffTimes, LongBackoffListener listener) {
+        this(backOffTimes, defaultBeginExpireTime, defaultFactor, defaultCacheSizeLimit, listener, null);
+    }
+
+    public LongBackoffCache(int backOffTimes, LongBackoffListener listener, Callback cb) {
+        this(backOffTimes, defaultBeginExpireTime, defaultFactor, defaultCacheSizeLimit, listener, cb);
+    }
+
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, LongBackoffListener listener, Callback cb) {
+        this(backOffTimes, beginExpire, factor, defaultCacheSizeLimit, listener, cb);
+    }
+
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor,
+                            int sizeLimit, LongBackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, defaultTickMillis, listener, callback);
+    }
+
+    /**
+     * @param backOffTimes   数据放入缓存的次数
+     * @param beginExpire    第一次数据进入缓存后的超时时间，单位秒
+     * @param factor         后续数据每次重新放入缓存的时候超时时间相对于前一次的增加比例
+     * @param sizeLimit      单层容量大小的限制，当某一层数据量超过此值时，最早进入该层的数据会被强制退出缓存
+     * @param maxWeight      所有层数据总权重的上限，为0时不限制，超过上限时优先淘汰最高层中最早进入的数据，
+     *                       监听器会收到{@link RemovalCause#SIZE}通知
+     * @param weigher        计算数据的权重，例如数据占用的字节数，maxWeight为0时可以为null
+     * @param admission      某一层数据量达到sizeLimit时新数据的准入策略
+     * @param tickMillis     时间轮的精度，单位毫秒，数据最多会比超时时间晚这么久退出缓存
+     * @param listener       监听器，当数据退出某一层时，会调用监听器对应的监听函数
+     * @param dispatcher     数据最后一次出缓存时的回调，回调在dispatcher的线程中异步批量执行
+     * @param scheduler      负责定时推进时间轮的调度器
+     */
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long maxWeight,
+                            Weigher<Long, CacheItem> weigher, AdmissionPolicy admission, long tickMillis,
+                            LongBackoffListener listener, ExpiryDispatcher<Map.Entry<Long, CacheItem>> dispatcher,
+                            CacheMaintenanceScheduler scheduler) {
+        super(backOffTimes, beginExpire, factor, sizeLimit, maxWeight, admission, tickMillis);
+        if (scheduler == null || (maxWeight > 0 && weigher == null)) {
+            throw new RuntimeException("invalid init params");
+        }
+
+        this.dispatcher = dispatcher;
+        this.listener = listener;
+        this.weigher = maxWeight > 0 ? weigher : null;
+        this.keys = new long[this.items.length];
+
+        if (backOffTimes > 0) {
+            this.refreshCache(scheduler);
+        }
+    }
+
+    /**
+     * @param callback       当数据最后一次出缓存的时候调用的回调函数，在回调线程中逐条调用
+     */
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long maxWeight,
+                            Weigher<Long, CacheItem> weigher, AdmissionPolicy admission, long tickMillis,
+                            LongBackoffListener listener, Callback callback, CacheMaintenanceScheduler scheduler) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, maxWeight, weigher, admission, tickMillis, listener,
+                callback == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<Map.Entry<Long, CacheItem>>(callback)),
+                scheduler);
+        this.ownsDispatcher = callback != null;
+    }
+
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long maxWeight,
+                            Weigher<Long, CacheItem> weigher, long tickMillis, LongBackoffListener listener,
+                            Callback callback, CacheMaintenanceScheduler scheduler) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, maxWeight, weigher, AdmissionPolicy.ADMIT_ALL, tickMillis,
+                listener, callback, scheduler);
+    }
+
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long tickMillis,
+                            LongBackoffListener listener, Callback callback, CacheMaintenanceScheduler scheduler) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, 0, null, tickMillis, listener, callback, scheduler);
+    }
+
+    /**
+     * 按单层数据量限制容量，数据量达到上限时按照admission决定是否接受新数据
+     */
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, AdmissionPolicy admission,
+                            LongBackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, 0, null, admission, defaultTickMillis,
+                listener, callback, CacheMaintenanceScheduler.getDefault());
+    }
+
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit,
+                            long tickMillis, LongBackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, tickMillis, listener, callback,
+                CacheMaintenanceScheduler.getDefault());
+    }
+
+    /**
+     * 只按总权重限制容量的缓存，单层的数据量不受限制
+     */
+    public LongBackoffCache(int backOffTimes, int beginExpire, int factor, long maxWeight,
+                            Weigher<Long, CacheItem> weigher, LongBackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, Integer.MAX_VALUE, maxWeight, weigher, defaultTickMillis,
+                listener, callback, CacheMaintenanceScheduler.getDefault());
+    }
+
+    /**
+     * 将数据放回缓存中，如果放回次数超过回退匹配的次数，则把数据交给回调（如果存在的话），
+     * 然后数据在缓存中的生命周期就结束了。回调是异步执行的，回调队列满的时候见{@link ExpiryDispatcher}。
+     * 如果缓存中已经存在相同key的数据，旧数据会被替换掉
+     * @param key
+     * @param cacheItem
+     */
+    public void addData(long key, CacheItem cacheItem) {
+        if (this.exhausted(cacheItem)) {
+            if (this.dispatcher != null) {
+                this.dispatcher.dispatch(new AbstractMap.SimpleImmutableEntry<Long, CacheItem>(key, cacheItem));
+            }
+            return;
+        }
+
+        int weight = this.weigher == null ? 0 : this.weigher.weigh(key, cacheItem);
+        if (weight < 0) {
+            throw new IllegalArgumentException("negative weight " + weight);
+        }
+
+        List<Removal> removed = new ArrayList<>(0);
+        synchronized (this.lock) {
+            this.recordAccess(LongHashTable.hash(key));
+            int pos = this.findPosition(key);
+            int id = this.table[pos];
+            boolean existed = id != NIL;
+            if (!existed) {
+                id = this.insertEntry(pos);
+                this.keys[id] = key;
+                this.afterInsert();
+            }
+            this.putEntry(id, cacheItem, cacheItem.getTimes() - 1, weight, existed, removed);
+        }
+
+        this.fireAll(removed);
+    }
+
+    /**
+     * 检查某条数据是否还在缓存中
+     * @param key
+     * @return
+     */
+    public boolean exist(long key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * 获取缓存中的数据，数据不存在或者已经超时的话返回null
+     * @param key
+     * @return
+     */
+    public CacheItem get(long key) {
+        synchronized (this.lock) {
+            this.recordAccess(LongHashTable.hash(key));
+            return this.getEntry(this.table[this.findPosition(key)]);
+        }
+    }
+
+    /**
+     * 将数据从缓存中删除，监听器会收到{@link RemovalCause#EXPLICIT}通知
+     * @param key
+     * @return 被删除的数据，数据不存在的话返回null
+     */
+    public CacheItem remove(long key) {
+        Removal removal;
+        synchronized (this.lock) {
+            int id = this.table[this.findPosition(key)];
+            if (id == NIL) {
+                return null;
+            }
+            removal = this.newRemoval(id, RemovalCause.EXPLICIT);
+            this.removeEntry(id);
+        }
+
+        this.fireRemoval(removal);
+        return removal.item;
+    }
+
+    /**
+     * 停止推进时间轮，已经交给dispatcher的数据在返回前回调完成，
+     * 通过{@link Callback}创建的dispatcher属于缓存自己，会一起关闭
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (this.dispatcher != null) {
+            if (this.ownsDispatcher) {
+                this.dispatcher.close();
+            }
+            else {
+                this.dispatcher.flush();
+            }
+        }
+    }
+
+    @Override
+    int hashOf(int id) {
+        return LongHashTable.hash(this.keys[id]);
+    }
+
+    @Override
+    void growKeys(int capacity) {
+        this.keys = Arrays.copyOf(this.keys, capacity);
+    }
+
+    @Override
+    Removal newRemoval(int id, RemovalCause cause) {
+        return new Removal(this.items[id], cause, this.keys[id]);
+    }
+
+    @Override
+    void releaseKey(int id) {
+        // long类型的key不持有对象引用，不需要清理
+    }
+
+    @Override
+    void fireRemoval(Removal removal) {
+        if (this.listener != null) {
+            this.listener.onRemoval(removal.longKey, removal.item, removal.cause);
+        }
+    }
+
+    /**
+     * 查找key在索引中的位置，如果key不存在，返回的是可以插入key的空位置
+     */
+    private int findPosition(long key) {
+        int mask = this.table.length - 1;
+        int pos = LongHashTable.hash(key) & mask;
+        while (true) {
+            int id = this.table[pos];
+            if (id == NIL || this.keys[id] == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.xsl.common.cache;
+
+import com.google.common.cache.RemovalCause;
+
+/**
+ * 数据退出{@link LongBackoffCache}某一层时的监听器，与{@link BackoffListener}的区别是key为long
+ */
+public interface LongBackoffListener {
+    /**
+     * @param key    退出缓存的数据的key
+     * @param item   退出缓存的数据
+     * @param cause  数据退出缓存的原因
+     */
+    void onRemoval(long key, GuavaBackoffCache.CacheItem item, RemovalCause cause);
+}
@@ -0,0 +1,159 @@
+package org.xsl.common.cache;
+
+import java.util.Arrays;
+
+/**
+ * key为long的hash表，线性探测的开放寻址实现，key和value分别保存在两个数组中，
+ * 不会对key装箱，也不会为每条数据创建Entry对象，value不能为null。该类不是线程安全的
+ */
+class LongHashTable<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * 装载因子为3/4，平均每条数据占用 (8 + 4) / 0.75 = 16 字节（开启指针压缩的情况下）
+     */
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int threshold;
+
+    LongHashTable() {
+        this(MIN_CAPACITY);
+    }
+
+    LongHashTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        this.allocate(capacity);
+    }
+
+    V get(long key) {
+        int pos = this.findPosition(key);
+        return (V) this.values[pos];
+    }
+
+    boolean containsKey(long key) {
+        return this.values[this.findPosition(key)] != null;
+    }
+
+    /**
+     * @return 原来的value，不存在的话返回null
+     */
+    V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value can not be null");
+        }
+
+        int pos = this.findPosition(key);
+        V old = (V) this.values[pos];
+        if (old == null) {
+            this.keys[pos] = key;
+            if (++this.size > this.threshold) {
+                this.values[pos] = value;
+                this.rehash(this.keys.length * 2);
+                return null;
+            }
+        }
+        this.values[pos] = value;
+        return old;
+    }
+
+    V remove(long key) {
+        int pos = this.findPosition(key);
+        V old = (V) this.values[pos];
+        if (old != null) {
+            this.deletePosition(pos);
+            this.size--;
+        }
+        return old;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    void clear() {
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    /**
+     * 以下三个方法用于遍历，valueAt返回null表示该位置为空
+     */
+    int capacity() {
+        return this.keys.length;
+    }
+
+    long keyAt(int pos) {
+        return this.keys[pos];
+    }
+
+    V valueAt(int pos) {
+        return (V) this.values[pos];
+    }
+
+    private int findPosition(long key) {
+        int mask = this.keys.length - 1;
+        int pos = hash(key) & mask;
+        while (this.values[pos] != null && this.keys[pos] != key) {
+            pos = (pos + 1) & mask;
+        }
+        return pos;
+    }
+
+    /**
+     * 删除某个位置的数据，后面同一探测链上的数据依次前移
+     */
+    private void deletePosition(int pos) {
+        int mask = this.keys.length - 1;
+        int gap = pos;
+        int i = pos;
+        while (true) {
+            i = (i + 1) & mask;
+            if (this.values[i] == null) {
+                break;
+            }
+
+            int home = hash(this.keys[i]) & mask;
+            boolean movable = (i > gap) ? (home <= gap || home > i) : (home <= gap && home > i);
+            if (movable) {
+                this.keys[gap] = this.keys[i];
+                this.values[gap] = this.values[i];
+                gap = i;
+            }
+        }
+        this.values[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+            int pos = hash(oldKeys[i]) & mask;
+            while (this.values[pos] != null) {
+                pos = (pos + 1) & mask;
+            }
+            this.keys[pos] = oldKeys[i];
+            this.values[pos] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.threshold = capacity * 3 / 4;
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
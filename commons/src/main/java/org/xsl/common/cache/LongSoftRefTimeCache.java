@@ -0,0 +1,186 @@
+package org.xsl.common.cache;
+
+import org.xsl.common.base.BatchCallbackAdapter;
+import org.xsl.common.base.Callback;
+import java.lang.ref.SoftReference;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * key为long的{@link SoftRefTimeCache}，超时、软引用以及回调的语义都与其相同，区别在于每个槽是
+ * 一个{@link LongHashTable}，key不需要装箱，也不会为每条数据创建Entry对象，适合保存几千万条以
+ * 用户id、订单id等数字为key的数据。回调函数收到的参数是{@link java.util.Map.Entry}，key为{@link Long}，
+ * 超时的槽在锁内被整体换下，槽中的数据在锁外交给{@link ExpiryDispatcher}异步批量回调
+ */
+public class LongSoftRefTimeCache<V> {
+    private static final int DEFAULT_SIZE = 3;
+
+    private SoftReference<LongHashTable<V>>[] buckets;
+
+    private CacheMaintenanceScheduler.Registration registration;
+    private ExpiryBacklog<Map.Entry<Long, V>> expiryBacklog;
+    private boolean ownsDispatcher;
+    private Object lock = new Object();
+
+    private int bucketSize;
+    private int currentIndex, removeIndex;
+
+    /**
+     * @param expire     数据超时时间，单位秒，数据加入缓存的时间超过该时间，数据肯定会
+     *                   被清理掉，但是也有可能由于内存紧张，数据被提前清理掉
+     * @param bs         缓存中的槽数量，默认为3
+     * @param dispatcher 超时数据的回调，为null时超时数据直接丢弃
+     * @param scheduler  负责定时轮转槽的调度器
+     */
+    public LongSoftRefTimeCache(int expire, int bs, ExpiryDispatcher<Map.Entry<Long, V>> dispatcher,
+                                CacheMaintenanceScheduler scheduler) {
+        if (expire < 0 || bs < 2 || scheduler == null) {
+            throw new RuntimeException("Invalid init params");
+        }
+
+        this.expiryBacklog = dispatcher == null ? null : new ExpiryBacklog<>(dispatcher);
+        this.bucketSize = bs;
+        this.removeIndex = 0;
+        this.currentIndex = this.bucketSize - 1;
+
+        this.buckets = new SoftReference[this.bucketSize];
+        for (int i = 0 ; i < this.bucketSize; i++) {
+            buckets[i] = new SoftReference<>(new LongHashTable<V>());
+        }
+
+        long expireMillis = expire * 1000L;
+        long sleepTime = Math.max(1, expireMillis / (this.bucketSize - 1));
+        this.registration = scheduler.register(new Runnable() {
+            public void run() {
+                rotate();
+            }
+        }, sleepTime);
+    }
+
+    /**
+     * @param cb  回调函数，当数据在缓存中超时时，会在回调线程中逐条调用该函数
+     */
+    public LongSoftRefTimeCache(int expire, int bs, Callback cb, CacheMaintenanceScheduler scheduler) {
+        this(expire, bs, cb == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<Map.Entry<Long, V>>(cb)),
+                scheduler);
+        this.ownsDispatcher = cb != null;
+    }
+
+    public LongSoftRefTimeCache(int expire, int bs, Callback cb) {
+        this(expire, bs, cb, CacheMaintenanceScheduler.getDefault());
+    }
+
+    public LongSoftRefTimeCache(int expire, int bucketSize) {
+        this(expire, bucketSize, null);
+    }
+
+    public LongSoftRefTimeCache(int expire) {
+        this(expire, DEFAULT_SIZE, null);
+    }
+
+    /**
+     * 从最新的槽开始查找，返回最近一次放入的数据
+     */
+    public V get(long key) {
+        synchronized (this.lock) {
+            for (int i = 0; i < this.bucketSize; i++) {
+                int index = (this.currentIndex - i + this.bucketSize) % this.bucketSize;
+                LongHashTable<V> table = this.buckets[index].get();
+                if (table != null) {
+                    V value = table.get(key);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * value不能为null
+     */
+    public void put(long key, V value) {
+        synchronized (this.lock) {
+            SoftReference<LongHashTable<V>> softReference = this.buckets[this.currentIndex];
+            LongHashTable<V> table = softReference.get();
+            if (table == null) {
+                table = new LongHashTable<>();
+                this.buckets[currentIndex] = new SoftReference<>(table);
+            }
+            table.put(key, value);
+        }
+    }
+
+    public void remove(long key) {
+        synchronized (this.lock) {
+            for (int i = 0; i < this.bucketSize; i++) {
+                LongHashTable<V> table = this.buckets[i].get();
+                if (table != null) {
+                    table.remove(key);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        int res = 0;
+        synchronized (this.lock) {
+            for (int i = 0; i < this.bucketSize; i++) {
+                LongHashTable<V> table = this.buckets[i].get();
+                if (table != null) {
+                    res += table.size();
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 停止槽的轮转，缓存中剩余的数据不会再触发回调，已经超时的数据在返回前回调完成；
+     * 通过{@link Callback}创建的dispatcher属于缓存自己，会一起关闭
+     */
+    public void close() {
+        this.registration.close();
+        if (this.expiryBacklog != null) {
+            this.expiryBacklog.close(this.ownsDispatcher);
+        }
+    }
+
+    /**
+     * 把最早的槽换成空槽，然后轮转一次，换下来的数据在锁外交给回调
+     */
+    private void rotate() {
+        LongHashTable<V> table;
+        synchronized (this.lock) {
+            table = this.buckets[this.removeIndex].get();
+            if (table != null) {
+                this.buckets[this.removeIndex] = new SoftReference<>(new LongHashTable<V>());
+            }
+            this.removeIndex = (this.removeIndex + 1) % this.bucketSize;
+            this.currentIndex = (this.currentIndex + 1) % this.bucketSize;
+        }
+
+        if (table != null && this.expiryBacklog != null) {
+            List<Map.Entry<Long, V>> entries = new ArrayList<>(table.size());
+            for (int i = 0; i < table.capacity(); i++) {
+                V value = table.valueAt(i);
+                if (value != null) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(table.keyAt(i), value));
+                }
+            }
+            this.expiryBacklog.submit(entries);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("currentIndex: " + this.currentIndex);
+        sb.append(" removeIndex: " + this.removeIndex);
+        sb.append(" cacheSize: " + this.size());
+        return sb.toString();
+    }
+}
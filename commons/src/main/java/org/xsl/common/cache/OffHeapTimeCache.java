@@ -0,0 +1,363 @@
+package org.xsl.common.cache;
+
+import org.xsl.common.base.BatchCallbackAdapter;
+import org.xsl.common.base.Callback;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 与{@link SoftRefTimeCache}的轮转方式相同，区别在于数据序列化之后保存在堆外内存中，不会给垃圾回收带来压力，
+ * 也不会因为内存紧张导致整个槽的数据被回收、回调丢失。
+ *
+ * 每个槽由若干块固定大小的堆外内存（slab）组成，数据顺序追加写入，可以跨越内存块，槽超时的时候内存块整体
+ * 回到空闲列表；堆上只保存key到数据地址的索引。使用的堆外内存总量不会超过memoryLimit，超过的时候最早的槽会被
+ * 提前清理（同样会调用回调函数），因此数据被淘汰的时机是确定的。被清理的数据在锁内复制出来，在锁外反序列化之后
+ * 交给{@link ExpiryDispatcher}异步批量回调：轮转时回调跟不上的数据留到下一次轮转再提交，put提前清理的数据
+ * 在回调队列满的时候按照dispatcher的策略等待。
+ *
+ * 堆外内存只有在ByteBuffer被垃圾回收之后才真正释放，所以申请过的内存块从不丢弃，只在缓存内部复用，
+ * 实际占用的堆外内存始终不超过memoryLimit。
+ */
+public class OffHeapTimeCache<K, V> implements TimeCache<K, V> {
+    private static final int DEFAULT_SIZE = 3;
+    private static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * 每条数据前面用4个字节保存数据长度
+     */
+    private static final int LENGTH_BYTES = 4;
+
+    private Bucket<K>[] buckets;
+    private ArrayDeque<ByteBuffer> freeSlabs = new ArrayDeque<>();
+
+    private CacheMaintenanceScheduler.Registration registration;
+    private ExpiryDispatcher<Map.Entry<K, V>> dispatcher;
+    private ExpiryBacklog<Map.Entry<K, V>> expiryBacklog;
+    private boolean ownsDispatcher;
+    private ValueSerializer<V> serializer;
+    private Object lock = new Object();
+
+    private int bucketSize;
+    private int currentIndex, removeIndex;
+
+    private int slabSize;
+    private long memoryLimit;
+    private long allocatedBytes;
+
+    /**
+     * @param expire       数据超时时间，单位秒
+     * @param bs           缓存中的槽数量，默认为3
+     * @param memoryLimit  最多使用的堆外内存，单位字节
+     * @param slabSize     每次申请的堆外内存块大小，单位字节，超过该大小的数据跨多个内存块保存
+     * @param serializer   数据的序列化方式
+     * @param dispatcher   数据在缓存中超时或者因为内存不足被提前清理时的回调，为null时数据直接丢弃
+     * @param scheduler    负责定时轮转槽的调度器
+     */
+    public OffHeapTimeCache(int expire, int bs, long memoryLimit, int slabSize, ValueSerializer<V> serializer,
+                            ExpiryDispatcher<Map.Entry<K, V>> dispatcher, CacheMaintenanceScheduler scheduler) {
+        if (expire < 0 || bs < 2 || slabSize <= 0 || memoryLimit < slabSize
+                || serializer == null || scheduler == null) {
+            throw new RuntimeException("Invalid init params");
+        }
+
+        this.dispatcher = dispatcher;
+        this.expiryBacklog = dispatcher == null ? null : new ExpiryBacklog<>(dispatcher);
+        this.serializer = serializer;
+        this.bucketSize = bs;
+        this.slabSize = slabSize;
+        this.memoryLimit = memoryLimit - memoryLimit % slabSize;
+        this.removeIndex = 0;
+        this.currentIndex = this.bucketSize - 1;
+
+        this.buckets = new Bucket[this.bucketSize];
+        for (int i = 0; i < this.bucketSize; i++) {
+            this.buckets[i] = new Bucket<>();
+        }
+
+        long expireMillis = expire * 1000L;
+        long sleepTime = Math.max(1, expireMillis / (this.bucketSize - 1));
+        this.registration = scheduler.register(new Runnable() {
+            public void run() {
+                rotate();
+            }
+        }, sleepTime);
+    }
+
+    /**
+     * @param cb  回调函数，当数据在缓存中超时或者因为内存不足被提前清理时，会在回调线程中逐条调用该函数
+     */
+    public OffHeapTimeCache(int expire, int bs, long memoryLimit, int slabSize,
+                            ValueSerializer<V> serializer, Callback cb, CacheMaintenanceScheduler scheduler) {
+        this(expire, bs, memoryLimit, slabSize, serializer,
+                cb == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<Map.Entry<K, V>>(cb)), scheduler);
+        this.ownsDispatcher = cb != null;
+    }
+
+    public OffHeapTimeCache(int expire, int bs, long memoryLimit, int slabSize,
+                            ValueSerializer<V> serializer, Callback cb) {
+        this(expire, bs, memoryLimit, slabSize, serializer, cb, CacheMaintenanceScheduler.getDefault());
+    }
+
+    public OffHeapTimeCache(int expire, int bs, long memoryLimit, ValueSerializer<V> serializer, Callback cb) {
+        this(expire, bs, memoryLimit, DEFAULT_SLAB_SIZE, serializer, cb);
+    }
+
+    public OffHeapTimeCache(int expire, long memoryLimit, ValueSerializer<V> serializer) {
+        this(expire, DEFAULT_SIZE, memoryLimit, DEFAULT_SLAB_SIZE, serializer, null);
+    }
+
+    @Override
+    public V get(K key) {
+        byte[] bytes = null;
+        synchronized (this.lock) {
+            for (int i = 0; i < this.bucketSize; i++) {
+                Bucket<K> bucket = this.buckets[(this.currentIndex - i + this.bucketSize) % this.bucketSize];
+                Long address = bucket.index.get(key);
+                if (address != null) {
+                    bytes = bucket.read(address);
+                    break;
+                }
+            }
+        }
+        return bytes == null ? null : this.serializer.deserialize(bytes);
+    }
+
+    /**
+     * 数据先在锁外序列化，再写入当前槽，如果堆外内存不足，最早的槽会被提前清理
+     * @throws IllegalArgumentException 单条数据的大小超过了memoryLimit
+     */
+    @Override
+    public void put(K key, V value) {
+        byte[] bytes = this.serializer.serialize(value);
+        long need = (long) bytes.length + LENGTH_BYTES;
+        if (need > this.memoryLimit) {
+            throw new IllegalArgumentException("Value size " + need + " exceeds memory limit " + this.memoryLimit);
+        }
+
+        List<Map.Entry<K, byte[]>> evicted = new ArrayList<>(0);
+        synchronized (this.lock) {
+            Bucket<K> bucket = this.buckets[this.currentIndex];
+            ArrayDeque<ByteBuffer> acquired = this.acquireSlabs(bucket, need, evicted);
+
+            long address = bucket.address();
+            bucket.write(ByteBuffer.allocate(LENGTH_BYTES).putInt(0, bytes.length).array(), acquired);
+            bucket.write(bytes, acquired);
+            bucket.index.put(key, address);
+            this.freeSlabs.addAll(acquired);
+        }
+
+        if (!evicted.isEmpty()) {
+            this.dispatcher.dispatchAll(this.deserialize(evicted));
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        synchronized (this.lock) {
+            for (int i = 0; i < this.bucketSize; i++) {
+                this.buckets[i].index.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int res = 0;
+        synchronized (this.lock) {
+            for (int i = 0; i < this.bucketSize; i++) {
+                res += this.buckets[i].index.size();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 停止槽的轮转，缓存中剩余的数据不会再触发回调，已经被清理的数据在返回前回调完成，
+     * 通过{@link Callback}创建的dispatcher属于缓存自己，会一起关闭。已经申请的堆外内存在缓存对象被回收后释放
+     */
+    @Override
+    public void close() {
+        this.registration.close();
+        if (this.expiryBacklog != null) {
+            this.expiryBacklog.close(this.ownsDispatcher);
+        }
+    }
+
+    /**
+     * 当前已经申请的堆外内存大小，包括空闲待复用的内存块
+     */
+    public long getAllocatedBytes() {
+        synchronized (this.lock) {
+            return this.allocatedBytes;
+        }
+    }
+
+    /**
+     * 清理最早的槽，并把它作为新的当前槽
+     */
+    private void rotate() {
+        List<Map.Entry<K, byte[]>> expired = new ArrayList<>();
+        synchronized (this.lock) {
+            this.expireBucket(this.removeIndex, expired);
+            this.removeIndex = (this.removeIndex + 1) % this.bucketSize;
+            this.currentIndex = (this.currentIndex + 1) % this.bucketSize;
+        }
+
+        if (this.expiryBacklog != null) {
+            this.expiryBacklog.submit(this.deserialize(expired));
+        }
+    }
+
+    /**
+     * 获取足够的内存块，使当前槽可以再写入need个字节，优先复用空闲的内存块，内存不足时提前清理最早的槽。
+     * 当前槽也可能被清理，所以每次都重新计算还缺多少内存
+     */
+    private ArrayDeque<ByteBuffer> acquireSlabs(Bucket<K> bucket, long need, List<Map.Entry<K, byte[]>> evicted) {
+        ArrayDeque<ByteBuffer> acquired = new ArrayDeque<>();
+        while (bucket.remaining() + (long) acquired.size() * this.slabSize < need) {
+            if (!this.freeSlabs.isEmpty()) {
+                ByteBuffer slab = this.freeSlabs.poll();
+                slab.clear();
+                acquired.add(slab);
+            }
+            else if (this.allocatedBytes + this.slabSize <= this.memoryLimit) {
+                this.allocatedBytes += this.slabSize;
+                acquired.add(ByteBuffer.allocateDirect(this.slabSize));
+            }
+            else if (!this.evictOldest(evicted)) {
+                throw new IllegalStateException("Can not allocate " + need + " bytes off-heap memory");
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * 从最早的槽开始找到第一个使用了内存的槽并清理掉，当前槽放在最后考虑
+     * @return 是否清理了某个槽
+     */
+    private boolean evictOldest(List<Map.Entry<K, byte[]>> evicted) {
+        for (int i = 1; i <= this.bucketSize; i++) {
+            int index = (this.currentIndex + i) % this.bucketSize;
+            if (!this.buckets[index].slabs.isEmpty()) {
+                this.expireBucket(index, evicted);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 复制出槽中的所有数据用于回调，然后释放槽占用的内存，调用前需要持有锁
+     */
+    private void expireBucket(int index, List<Map.Entry<K, byte[]>> expired) {
+        Bucket<K> bucket = this.buckets[index];
+        if (this.dispatcher != null) {
+            for (Map.Entry<K, Long> entry : bucket.index.entrySet()) {
+                expired.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), bucket.read(entry.getValue())));
+            }
+        }
+
+        this.freeSlabs.addAll(bucket.slabs);
+        bucket.index = new HashMap<>();
+        bucket.slabs.clear();
+        bucket.writing = null;
+    }
+
+    /**
+     * 在锁外反序列化被清理的数据
+     */
+    private List<Map.Entry<K, V>> deserialize(List<Map.Entry<K, byte[]>> entries) {
+        List<Map.Entry<K, V>> res = new ArrayList<>(entries.size());
+        for (Map.Entry<K, byte[]> entry : entries) {
+            V value = this.serializer.deserialize(entry.getValue());
+            res.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value));
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("currentIndex: " + this.currentIndex);
+        sb.append(" removeIndex: " + this.removeIndex);
+        sb.append(" cacheSize: " + this.size());
+        sb.append(" allocatedBytes: " + this.getAllocatedBytes());
+        return sb.toString();
+    }
+
+    private static class Bucket<K> {
+        /**
+         * key到数据地址的索引，地址的高32位是内存块的编号，低32位是数据在内存块中的偏移
+         */
+        private HashMap<K, Long> index = new HashMap<>();
+        private List<ByteBuffer> slabs = new ArrayList<>();
+        private ByteBuffer writing;
+
+        long remaining() {
+            return this.writing == null ? 0 : this.writing.remaining();
+        }
+
+        /**
+         * 下一个字节写入的位置，当前内存块写满时是下一块内存的开头
+         */
+        long address() {
+            if (this.writing == null || !this.writing.hasRemaining()) {
+                return (long) this.slabs.size() << 32;
+            }
+            return ((long) (this.slabs.size() - 1) << 32) | this.writing.position();
+        }
+
+        /**
+         * 顺序写入，当前内存块写满之后从acquired中取下一块
+         */
+        void write(byte[] src, ArrayDeque<ByteBuffer> acquired) {
+            int offset = 0;
+            while (offset < src.length) {
+                if (this.writing == null || !this.writing.hasRemaining()) {
+                    this.writing = acquired.poll();
+                    this.slabs.add(this.writing);
+                }
+                int n = Math.min(this.writing.remaining(), src.length - offset);
+                this.writing.put(src, offset, n);
+                offset += n;
+            }
+        }
+
+        byte[] read(long address) {
+            int slab = (int) (address >>> 32);
+            int offset = (int) address;
+
+            byte[] length = new byte[LENGTH_BYTES];
+            long next = this.read(slab, offset, length);
+            byte[] bytes = new byte[ByteBuffer.wrap(length).getInt()];
+            this.read((int) (next >>> 32), (int) next, bytes);
+            return bytes;
+        }
+
+        /**
+         * 从指定位置开始读满dst，返回读完之后的位置
+         */
+        private long read(int slab, int offset, byte[] dst) {
+            int done = 0;
+            while (done < dst.length) {
+                ByteBuffer view = this.slabs.get(slab).duplicate();
+                view.clear();
+                view.position(offset);
+                int n = Math.min(view.remaining(), dst.length - done);
+                view.get(dst, done, n);
+                done += n;
+                offset += n;
+                if (!view.hasRemaining()) {
+                    slab++;
+                    offset = 0;
+                }
+            }
+            return ((long) slab << 32) | offset;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.xsl.common.cache;
+
+import org.xsl.common.base.BatchCallbackAdapter;
+import org.xsl.common.base.Callback;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * key有序的{@link SoftRefTimeCache}，槽使用{@link ConcurrentSkipListMap}保存数据，除了按key查询之外，
+ * 还支持按key的范围或者前缀扫描，适合key是"userId_ts"这类组合字符串、需要查出某个用户全部数据的场景。
+ *
+ * 槽的轮转、超时回调以及内存紧张时整槽回收的语义与{@link SoftRefTimeCache}完全相同。扫描时对所有还没有
+ * 被回收的槽做多路归并，边遍历边合并，不会复制数据；同一个key出现在多个槽中时只返回最新的槽中的数据。
+ * 扫描不持有缓存的锁，遍历期间的写入和轮转不会被阻塞，结果是弱一致的：遍历开始之后写入的数据可能
+ * 看得到也可能看不到，遍历开始之后才超时的数据仍然会被返回。与{@link SoftRefTimeCache}不同，key和value都不能为null
+ */
+public class OrderedSoftRefTimeCache<V> extends SoftRefTimeCache<String, V> {
+
+    /**
+     * @param expire     数据超时时间，单位秒
+     * @param bs         缓存中的槽数量
+     * @param dispatcher 超时数据的回调，为null时超时数据直接丢弃
+     * @param scheduler  负责定时轮转槽的调度器
+     */
+    public OrderedSoftRefTimeCache(int expire, int bs, ExpiryDispatcher<Map.Entry<String, V>> dispatcher,
+                                   CacheMaintenanceScheduler scheduler) {
+        super(expire, bs, dispatcher, scheduler);
+    }
+
+    public OrderedSoftRefTimeCache(int expire, int bs, Callback cb) {
+        this(expire, bs, cb == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<Map.Entry<String, V>>(cb)),
+                CacheMaintenanceScheduler.getDefault());
+        this.ownsDispatcher = cb != null;
+    }
+
+    public OrderedSoftRefTimeCache(int expire, int bucketSize) {
+        this(expire, bucketSize, null);
+    }
+
+    public OrderedSoftRefTimeCache(int expire) {
+        this(expire, DEFAULT_SIZE, null);
+    }
+
+    /**
+     * 按key的顺序遍历范围[fromKey, toKey)中的数据
+     */
+    public Iterator<Map.Entry<String, V>> subMap(String fromKey, String toKey) {
+        if (fromKey == null || toKey == null) {
+            throw new NullPointerException();
+        }
+
+        List<Map<String, V>> buckets = this.liveBuckets();
+        MergingIterator<V> res = new MergingIterator<>(buckets.size());
+        if (fromKey.compareTo(toKey) >= 0) {
+            return res;
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            ConcurrentSkipListMap<String, V> map = (ConcurrentSkipListMap<String, V>) buckets.get(i);
+            res.add(map.subMap(fromKey, true, toKey, false).entrySet().iterator(), i, null);
+        }
+        return res;
+    }
+
+    /**
+     * 按key的顺序遍历所有以prefix开头的数据
+     */
+    public Iterator<Map.Entry<String, V>> prefix(String prefix) {
+        if (prefix == null) {
+            throw new NullPointerException();
+        }
+
+        List<Map<String, V>> buckets = this.liveBuckets();
+        MergingIterator<V> res = new MergingIterator<>(buckets.size());
+        for (int i = 0; i < buckets.size(); i++) {
+            ConcurrentSkipListMap<String, V> map = (ConcurrentSkipListMap<String, V>) buckets.get(i);
+            res.add(map.tailMap(prefix, true).entrySet().iterator(), i, prefix);
+        }
+        return res;
+    }
+
+    @Override
+    Map<String, V> newMap() {
+        return new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * 单个槽上的游标，age是槽的新旧程度，越小越新
+     */
+    private static final class Cursor<V> {
+        private Iterator<Map.Entry<String, V>> iterator;
+        private int age;
+        private String prefix;
+        private Map.Entry<String, V> current;
+
+        Cursor(Iterator<Map.Entry<String, V>> iterator, int age, String prefix) {
+            this.iterator = iterator;
+            this.age = age;
+            this.prefix = prefix;
+        }
+
+        /**
+         * 移动到下一条数据，没有数据或者已经超出前缀的范围时返回false
+         */
+        boolean advance() {
+            if (!this.iterator.hasNext()) {
+                return false;
+            }
+            this.current = this.iterator.next();
+            return this.prefix == null || this.current.getKey().startsWith(this.prefix);
+        }
+    }
+
+    /**
+     * 多路归并，每个槽一个游标，堆顶是key最小的游标，key相同时较新的槽在前面
+     */
+    private static final class MergingIterator<V> implements Iterator<Map.Entry<String, V>> {
+        private PriorityQueue<Cursor<V>> heap;
+
+        MergingIterator(int ways) {
+            this.heap = new PriorityQueue<>(Math.max(1, ways), new Comparator<Cursor<V>>() {
+                public int compare(Cursor<V> a, Cursor<V> b) {
+                    int c = a.current.getKey().compareTo(b.current.getKey());
+                    return c != 0 ? c : a.age - b.age;
+                }
+            });
+        }
+
+        void add(Iterator<Map.Entry<String, V>> iterator, int age, String prefix) {
+            Cursor<V> cursor = new Cursor<>(iterator, age, prefix);
+            if (cursor.advance()) {
+                this.heap.add(cursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.heap.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, V> next() {
+            Cursor<V> head = this.heap.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+
+            Map.Entry<String, V> res = head.current;
+            if (head.advance()) {
+                this.heap.add(head);
+            }
+
+            /**
+             * 较旧的槽中相同key的数据已经被覆盖，跳过
+             */
+            while (!this.heap.isEmpty() && this.heap.peek().current.getKey().equals(res.getKey())) {
+                Cursor<V> stale = this.heap.poll();
+                if (stale.advance()) {
+                    this.heap.add(stale);
+                }
+            }
+            return res;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.xsl.common.cache;
+
+/**
+ * {@link ExpiryDispatcher}的队列满了之后，提交数据的线程如何处理
+ */
+public enum OverflowPolicy {
+    /**
+     * 等待队列空出位置，回调跟不上时提交数据的线程被拖慢，数据不会丢失
+     */
+    BLOCK,
+
+    /**
+     * 最多等待offerTimeoutMillis，仍然放不进去的数据被丢弃并计数，适合宁可丢掉回调也不能拖慢写入的场景
+     */
+    DROP
+}
@@ -1,78 +1,98 @@
 package org.xsl.common.cache;
 
+import org.xsl.common.base.BatchCallbackAdapter;
 import org.xsl.common.base.Callback;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * 功能类似storm中的TimeCacheMap，区别在于TimeCacheMap中的数据除非到了超时时间
  * 否则无论如何是不会被清理的，但SoftRefTimeCache中存的数据是java中的SoftReference
- * 当内存紧张时，数据会被垃圾回收器回收掉
+ * 当内存紧张时，数据会被垃圾回收器回收掉。
+ *
+ * 超时的槽在锁内被整体换下，槽中的数据在锁外交给{@link ExpiryDispatcher}异步批量回调，
+ * 回调跟不上时暂时放不进dispatcher的数据留在缓存中，下一次轮转时再提交。
+ *
+ * 使用读写锁而不是synchronized，查询之间不互斥；线程在锁上等待时是park而不是阻塞在监视器上，
+ * 在虚拟线程上运行时不会占住载体线程。{@link #getOrWait(Object, long, TimeUnit)}可以等待某个key被放入
  * Created by xiongsenlin on 15/7/3.
  */
-public class SoftRefTimeCache<K, V> {
-    private static final int DEFAULT_SIZE = 3;
+public class SoftRefTimeCache<K, V> implements TimeCache<K, V> {
+    static final int DEFAULT_SIZE = 3;
 
-    private SoftReference<HashMap<K, V>>[] buckets;
+    private SoftReference<Map<K, V>>[] buckets;
 
-    private Thread cleaner;
-    private Callback callback;
-    private Object lock = new Object();
+    /**
+     * 槽被垃圾回收器回收之后，对应的软引用会进入这个队列，用于统计
+     */
+    private ReferenceQueue<Map<K, V>> clearedQueue = new ReferenceQueue<>();
+    private CacheMetrics metrics;
+
+    private CacheMaintenanceScheduler.Registration registration;
+    private ExpiryBacklog<Map.Entry<K, V>> expiryBacklog;
+
+    /**
+     * dispatcher是否由缓存通过{@link Callback}自己创建，是的话关闭缓存时一起关闭，子类的构造函数也会设置
+     */
+    boolean ownsDispatcher;
+    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 有数据放入时通知{@link #getOrWait(Object, long, TimeUnit)}的等待者，waiters只在写锁内修改
+     */
+    private Condition arrived = this.lock.writeLock().newCondition();
+    private int waiters;
 
     private int bucketSize;
     private int currentIndex, removeIndex;
 
     /**
-     * @param expire  数据超时时间，单位秒，数据加入缓存的时间超过该时间，数据肯定会
-     *                被清理掉，但是也有可能由于内存紧张，数据被提前清理掉
-     * @param bs      缓存中的槽数量，默认为3
-     * @param cb      回调函数，当数据在缓存中超时时，会调用该函数
+     * @param expire     数据超时时间，单位秒，数据加入缓存的时间超过该时间，数据肯定会
+     *                   被清理掉，但是也有可能由于内存紧张，数据被提前清理掉
+     * @param bs         缓存中的槽数量，默认为3
+     * @param dispatcher 超时数据的回调，为null时超时数据直接丢弃
+     * @param scheduler  负责定时轮转槽的调度器
      */
-    public SoftRefTimeCache(int expire, final int bs, final Callback cb) {
-        if (expire < 0 || bs < 2) {
+    public SoftRefTimeCache(int expire, int bs, ExpiryDispatcher<Map.Entry<K, V>> dispatcher,
+                            CacheMaintenanceScheduler scheduler) {
+        if (expire < 0 || bs < 2 || scheduler == null) {
             throw new RuntimeException("Invalid init params");
         }
 
-        this.callback = cb;
+        this.expiryBacklog = dispatcher == null ? null : new ExpiryBacklog<>(dispatcher);
         this.bucketSize = bs;
         this.removeIndex = 0;
         this.currentIndex = this.bucketSize - 1;
 
         this.buckets = new SoftReference[this.bucketSize];
         for (int i = 0 ; i < this.bucketSize; i++) {
-            buckets[i] = new SoftReference<>(new HashMap<K, V>());
+            buckets[i] = this.newBucket(this.newMap());
         }
+        this.metrics = new CacheMetrics(1, dispatcher == null ? null : dispatcher.getCallbackLatency());
 
-        final long expireMillis = expire * 1000L;
-        final long sleepTime = expireMillis / (this.bucketSize - 1);
-        this.cleaner = new Thread(new Runnable() {
+        long expireMillis = expire * 1000L;
+        long sleepTime = Math.max(1, expireMillis / (this.bucketSize - 1));
+        this.registration = scheduler.register(new Runnable() {
             public void run() {
-                while (true) {
-                    synchronized (lock) {
-                        HashMap<K, V> map = buckets[removeIndex].get();
-                        if (map != null) {
-                            for (Map.Entry<K, V> entry : map.entrySet()) {
-                                if (callback != null) {
-                                    callback.callback(entry);
-                                }
-                            }
-                            map.clear();
-                        }
-                        removeIndex = (removeIndex + 1) % bucketSize;
-                        currentIndex = (currentIndex + 1) % bucketSize;
-                    }
-
-                    try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
+                rotate();
             }
-        });
-        this.cleaner.setDaemon(true);
-        this.cleaner.start();
+        }, sleepTime);
+    }
+
+    /**
+     * @param cb  回调函数，当数据在缓存中超时时，会在回调线程中逐条调用该函数
+     */
+    public SoftRefTimeCache(int expire, int bs, Callback cb) {
+        this(expire, bs, cb == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<Map.Entry<K, V>>(cb)),
+                CacheMaintenanceScheduler.getDefault());
+        this.ownsDispatcher = cb != null;
     }
 
     public SoftRefTimeCache(int expire, int bucketSize) {
@@ -83,54 +103,241 @@ public class SoftRefTimeCache<K, V> {
         this(expire, DEFAULT_SIZE, null);
     }
 
+    /**
+     * 从最新的槽开始查找，返回最近一次放入的数据
+     */
+    @Override
     public V get(K key) {
-        synchronized (this.lock) {
+        this.lock.readLock().lock();
+        try {
             for (int i = 0; i < this.bucketSize; i++) {
-                Map<K, V> map = this.buckets[i].get();
+                Map<K, V> map = this.buckets[(this.currentIndex - i + this.bucketSize) % this.bucketSize].get();
                 if (map != null && map.containsKey(key)) {
+                    this.metrics.recordHit();
                     return map.get(key);
                 }
             }
+            this.metrics.recordMiss();
             return null;
+        } finally {
+            this.lock.readLock().unlock();
         }
     }
 
+    /**
+     * 获取数据，数据不存在时等待其被放入，最多等待timeout时间。先在读锁下查找，命中时不会与其他读操作互斥；
+     * 没有命中才获取写锁重新查找并等待，等待期间释放锁，不影响其他线程读写
+     * @return 超时之后数据仍然不存在时返回null
+     * @throws InterruptedException 等待期间线程被中断
+     */
+    public V getOrWait(K key, long timeout, TimeUnit unit) throws InterruptedException {
+        this.lock.readLock().lockInterruptibly();
+        try {
+            V value = this.find(key);
+            if (value != null) {
+                this.metrics.recordHit();
+                return value;
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        long nanos = unit.toNanos(timeout);
+        this.lock.writeLock().lockInterruptibly();
+        try {
+            this.waiters++;
+            try {
+                while (true) {
+                    V value = this.find(key);
+                    if (value != null) {
+                        this.metrics.recordHit();
+                        return value;
+                    }
+                    if (nanos <= 0) {
+                        this.metrics.recordMiss();
+                        return null;
+                    }
+                    nanos = this.arrived.awaitNanos(nanos);
+                }
+            } finally {
+                this.waiters--;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 与{@link #get(Object)}相同，但是不计入命中和未命中的次数
+     */
+    V peek(K key) {
+        this.lock.readLock().lock();
+        try {
+            return this.find(key);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从最新的槽开始查找不为null的数据，调用前需要持有读锁或者写锁
+     */
+    private V find(K key) {
+        for (int i = 0; i < this.bucketSize; i++) {
+            Map<K, V> map = this.buckets[(this.currentIndex - i + this.bucketSize) % this.bucketSize].get();
+            V value = map == null ? null : map.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
     public void put(K key, V value) {
-        synchronized (this.lock) {
-            SoftReference<HashMap<K, V>> softReference = this.buckets[this.currentIndex];
-            HashMap<K, V> map = softReference.get();
+        this.lock.writeLock().lock();
+        try {
+            SoftReference<Map<K, V>> softReference = this.buckets[this.currentIndex];
+            Map<K, V> map = softReference.get();
             if (map == null) {
-                map = new HashMap<>();
-                this.buckets[currentIndex] = new SoftReference<>(map);
+                map = this.newMap();
+                this.buckets[currentIndex] = this.newBucket(map);
             }
             map.put(key, value);
+            if (this.waiters > 0) {
+                this.arrived.signalAll();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
         }
+        this.metrics.recordPut(0);
     }
 
+    @Override
     public void remove(K key) {
-        synchronized (this.lock) {
+        this.lock.writeLock().lock();
+        try {
             for (int i = 0; i < this.bucketSize; i++) {
                 Map<K, V> map = this.buckets[i].get();
                 if (map != null && map.containsKey(key)) {
                     map.remove(key);
                 }
             }
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
+    @Override
     public int size() {
         int res = 0;
-        synchronized (this.lock) {
+        this.lock.readLock().lock();
+        try {
             for (int i = 0; i < this.bucketSize; i++) {
-                HashMap<K, V> map = this.buckets[i].get();
+                Map<K, V> map = this.buckets[i].get();
                 if (map != null) {
                     res += map.size();
                 }
             }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return res;
+    }
+
+    /**
+     * 数据最近一次放入的槽是否是最早的槽，也就是说数据在下一次轮转时就会超时
+     */
+    boolean isExpiringSoon(K key) {
+        this.lock.readLock().lock();
+        try {
+            for (int i = 0; i < this.bucketSize; i++) {
+                int index = (this.currentIndex - i + this.bucketSize) % this.bucketSize;
+                Map<K, V> map = this.buckets[index].get();
+                if (map != null && map.containsKey(key)) {
+                    return index == this.removeIndex;
+                }
+            }
+            return false;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 所有还没有被回收的槽，按照从新到旧的顺序排列。返回的是槽本身，调用方在锁外读取时需要槽是线程安全的
+     */
+    List<Map<K, V>> liveBuckets() {
+        List<Map<K, V>> res = new ArrayList<>(this.bucketSize);
+        this.lock.readLock().lock();
+        try {
+            for (int i = 0; i < this.bucketSize; i++) {
+                Map<K, V> map = this.buckets[(this.currentIndex - i + this.bucketSize) % this.bucketSize].get();
+                if (map != null) {
+                    res.add(map);
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
         }
         return res;
     }
 
+    public CacheMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * 停止槽的轮转，缓存中剩余的数据不会再触发回调，已经超时的数据在返回前回调完成；
+     * 通过{@link Callback}创建的dispatcher属于缓存自己，会一起关闭
+     */
+    @Override
+    public void close() {
+        this.registration.close();
+        if (this.expiryBacklog != null) {
+            this.expiryBacklog.close(this.ownsDispatcher);
+        }
+    }
+
+    /**
+     * 把最早的槽换成空槽，然后轮转一次，换下来的数据在锁外交给回调
+     */
+    private void rotate() {
+        Map<K, V> expired;
+        this.lock.writeLock().lock();
+        try {
+            expired = this.buckets[this.removeIndex].get();
+            if (expired != null) {
+                this.buckets[this.removeIndex] = this.newBucket(this.newMap());
+            }
+            this.removeIndex = (this.removeIndex + 1) % this.bucketSize;
+            this.currentIndex = (this.currentIndex + 1) % this.bucketSize;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        while (this.clearedQueue.poll() != null) {
+            this.metrics.recordSoftClear();
+        }
+        if (expired != null) {
+            this.metrics.recordExpired(0, expired.size());
+        }
+        if (expired != null && this.expiryBacklog != null) {
+            this.expiryBacklog.submit(expired.entrySet());
+        }
+    }
+
+    /**
+     * 创建一个空槽，在构造函数中也会被调用，子类的实现不能依赖子类自己的字段
+     */
+    Map<K, V> newMap() {
+        return new HashMap<>();
+    }
+
+    private SoftReference<Map<K, V>> newBucket(Map<K, V> map) {
+        return new SoftReference<>(map, this.clearedQueue);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,18 @@
+package org.xsl.common.cache;
+
+import com.google.common.base.Charsets;
+
+/**
+ * 按UTF-8编码保存字符串的{@link ValueSerializer}
+ */
+public class StringValueSerializer implements ValueSerializer<String> {
+    @Override
+    public byte[] serialize(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    @Override
+    public String deserialize(byte[] bytes) {
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
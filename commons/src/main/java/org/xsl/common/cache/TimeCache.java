@@ -0,0 +1,22 @@
+package org.xsl.common.cache;
+
+/**
+ * 按时间淘汰数据的缓存的公共接口，数据放入缓存超过一定时间后会被清理掉
+ */
+public interface TimeCache<K, V> {
+    /**
+     * 获取数据，数据不存在或者已经被清理的话返回null
+     */
+    V get(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    int size();
+
+    /**
+     * 停止缓存的定时维护任务，关闭之后缓存中的数据不会再超时
+     */
+    void close();
+}
@@ -0,0 +1,240 @@
+package org.xsl.common.cache;
+
+import java.util.Arrays;
+
+/**
+ * 分层时间轮，每一层有64个槽，第k层一个槽的时间跨度是64^k个tick。数据按照到期时间
+ * 与当前时间的差距放到对应层的槽中，低层转完一圈时，把上一层当前槽中的数据重新下放到
+ * 低层，因此插入、删除都是O(1)的，到期处理均摊下来也是O(1)的。
+ *
+ * 时间轮只维护数据的编号（从0开始的int），数据本身由使用方按编号保存，这样每条数据不需要
+ * 额外创建链表节点对象。该类不是线程安全的，需要由使用方加锁。
+ */
+class TimingWheel {
+    static final int NIL = -1;
+
+    private static final int SLOT_BITS  = 6;
+    private static final int SLOT_COUNT = 1 << SLOT_BITS;
+    private static final int SLOT_MASK  = SLOT_COUNT - 1;
+
+    /**
+     * 数据到期时的回调，回调中不允许再操作时间轮
+     */
+    interface ExpireHandler {
+        void onExpire(int id);
+    }
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final int levels;
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * 每个槽对应一个双向链表，heads保存链表头，链表节点就是数据编号
+     */
+    private final int[] heads;
+    private int[] next;
+    private int[] prev;
+    private int[] slots;
+    private long[] deadlines;
+
+    /**
+     * @param tickMillis      时间轮的精度，单位毫秒
+     * @param maxDelayMillis  最长的超时时间，用于确定时间轮的层数，超过该时间的数据也能正确处理，只是需要多下放几次
+     * @param startMillis     时间轮的起始时间
+     * @param capacity        初始容量
+     */
+    TimingWheel(long tickMillis, long maxDelayMillis, long startMillis, int capacity) {
+        if (tickMillis <= 0 || maxDelayMillis < 0 || capacity < 0) {
+            throw new IllegalArgumentException("invalid timing wheel params");
+        }
+
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+
+        long maxTicks = maxDelayMillis / tickMillis + 1;
+        int tmpLevels = 1;
+        while (tmpLevels * SLOT_BITS < 63 && (maxTicks >>> (tmpLevels * SLOT_BITS)) > 0) {
+            tmpLevels++;
+        }
+        this.levels = tmpLevels;
+
+        this.heads = new int[this.levels * SLOT_COUNT];
+        Arrays.fill(this.heads, NIL);
+
+        this.next = new int[capacity];
+        this.prev = new int[capacity];
+        this.slots = new int[capacity];
+        this.deadlines = new long[capacity];
+        Arrays.fill(this.slots, NIL);
+    }
+
+    /**
+     * 保证编号小于capacity的数据都可以放入时间轮
+     */
+    void ensureCapacity(int capacity) {
+        int old = this.slots.length;
+        if (capacity <= old) {
+            return;
+        }
+
+        this.next = Arrays.copyOf(this.next, capacity);
+        this.prev = Arrays.copyOf(this.prev, capacity);
+        this.deadlines = Arrays.copyOf(this.deadlines, capacity);
+        this.slots = Arrays.copyOf(this.slots, capacity);
+        Arrays.fill(this.slots, old, capacity, NIL);
+    }
+
+    /**
+     * 将数据放入时间轮，如果数据已经在时间轮中，会先将其移除
+     * @param id              数据编号
+     * @param deadlineMillis  数据的到期时间
+     */
+    void schedule(int id, long deadlineMillis) {
+        if (this.slots[id] != NIL) {
+            this.cancel(id);
+        }
+
+        long tick = (deadlineMillis - this.startMillis + this.tickMillis - 1) / this.tickMillis;
+        if (tick <= this.currentTick) {
+            tick = this.currentTick + 1;
+        }
+
+        this.deadlines[id] = tick;
+        this.place(id);
+        this.size++;
+    }
+
+    /**
+     * 将数据从时间轮中移除
+     * @return 数据原来是否在时间轮中
+     */
+    boolean cancel(int id) {
+        if (this.slots[id] == NIL) {
+            return false;
+        }
+
+        this.unlink(id);
+        this.size--;
+        return true;
+    }
+
+    boolean isScheduled(int id) {
+        return this.slots[id] != NIL;
+    }
+
+    /**
+     * 判断数据在nowMillis时刻是否已经到期，到期但还没有被{@link #advance}处理的数据也算作到期
+     */
+    boolean isExpired(int id, long nowMillis) {
+        return this.startMillis + this.deadlines[id] * this.tickMillis <= nowMillis;
+    }
+
+    /**
+     * 数据的到期时间，精度为一个tick
+     */
+    long getDeadline(int id) {
+        return this.startMillis + this.deadlines[id] * this.tickMillis;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * 将时间轮推进到nowMillis，所有到期的数据都会从时间轮中移除，然后调用handler
+     */
+    void advance(long nowMillis, ExpireHandler handler) {
+        long targetTick = (nowMillis - this.startMillis) / this.tickMillis;
+
+        while (this.currentTick < targetTick) {
+            if (this.size == 0) {
+                this.currentTick = targetTick;
+                return;
+            }
+
+            this.currentTick++;
+
+            /**
+             * 低层转完一圈时，从高到低依次把各层当前槽中的数据下放
+             */
+            int top = 0;
+            while (top + 1 < this.levels
+                    && (this.currentTick & ((1L << ((top + 1) * SLOT_BITS)) - 1)) == 0) {
+                top++;
+            }
+            for (int level = top; level >= 1; level--) {
+                int slot = (int) (this.currentTick >>> (level * SLOT_BITS)) & SLOT_MASK;
+                this.flush(level * SLOT_COUNT + slot, handler);
+            }
+
+            this.flush((int) this.currentTick & SLOT_MASK, handler);
+        }
+    }
+
+    /**
+     * 取出某个槽中的所有数据，到期的数据交给handler处理，没有到期的数据重新放入时间轮
+     */
+    private void flush(int index, ExpireHandler handler) {
+        int id = this.heads[index];
+        this.heads[index] = NIL;
+
+        while (id != NIL) {
+            int nextId = this.next[id];
+            if (this.deadlines[id] <= this.currentTick) {
+                this.slots[id] = NIL;
+                this.size--;
+                handler.onExpire(id);
+            }
+            else {
+                this.place(id);
+            }
+            id = nextId;
+        }
+    }
+
+    private void place(int id) {
+        long tick = this.deadlines[id];
+        long diff = tick ^ this.currentTick;
+
+        int level = 0;
+        if (diff >= SLOT_COUNT) {
+            level = (63 - Long.numberOfLeadingZeros(diff)) / SLOT_BITS;
+        }
+
+        /**
+         * 最高层是循环使用的，超出时间轮范围的数据在最高层每转一圈下放一次，重新计算位置
+         */
+        if (level >= this.levels) {
+            level = this.levels - 1;
+        }
+        int slot = (int) (tick >>> (level * SLOT_BITS)) & SLOT_MASK;
+
+        int index = level * SLOT_COUNT + slot;
+        int head = this.heads[index];
+        this.next[id] = head;
+        this.prev[id] = NIL;
+        if (head != NIL) {
+            this.prev[head] = id;
+        }
+        this.heads[index] = id;
+        this.slots[id] = index;
+    }
+
+    private void unlink(int id) {
+        int p = this.prev[id];
+        int n = this.next[id];
+        if (p == NIL) {
+            this.heads[this.slots[id]] = n;
+        }
+        else {
+            this.next[p] = n;
+        }
+        if (n != NIL) {
+            this.prev[n] = p;
+        }
+        this.slots[id] = NIL;
+    }
+}
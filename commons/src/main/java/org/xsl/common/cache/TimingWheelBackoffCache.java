@@ -0,0 +1,433 @@
+package org.xsl.common.cache;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
+import org.xsl.common.base.BatchCallbackAdapter;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 功能与{@link GuavaBackoffCache}相同，区别在于所有层共用一个分层时间轮{@link TimingWheel}和一个key索引，
+ * 每条数据只存在于某一层的某一个槽中，插入、进入下一层、到期都是O(1)的操作，{@link #exist(String)}
+ * 只需要一次hash查找，适合缓存中同时有几百万条数据的场景。
+ *
+ * 数据按编号保存在数组中，key索引是一个开放寻址的hash表，所以除了数据本身之外不会为每条数据创建额外的对象。
+ */
+public class TimingWheelBackoffCache extends AbstractBackoffCache implements BackoffCache {
+    /**
+     * 默认的缓存容量大小
+     */
+    private static int defaultCacheSizeLimit = 50000;
+
+    /**
+     * 默认的回退匹配次数
+     */
+    private static int defaultJoinTimes = 3;
+
+    /**
+     * 默认的第一次超时时间以及每次超时时间的递增倍数
+     */
+    private static int defaultBeginExpireTime = 4;
+    private static int defaultFactor = 2;
+
+    /**
+     * 默认每秒推进一次时间轮
+     */
+    private static long defaultTickMillis = 1000;
+
+    private BackoffListener listener;
+    private ExpiryDispatcher<CacheItem> dispatcher;
+    private boolean ownsDispatcher;
+    private Weigher<String, CacheItem> weigher;
+    private String[] keys;
+
+    /**
+     * 上一次保存快照之后发生过变化的key，为null时不记录，见{@link BackoffCacheSnapshot}
+     */
+    private Set<String> changedKeys;
+
+    public TimingWheelBackoffCache(BackoffListener listener) {
+        this(defaultJoinTimes, defaultBeginExpireTime, defaultFactor, defaultCacheSizeLimit, listener, null);
+    }
+
+    public TimingWheelBackoffCache(int backOffTimes, BackoffListener listener) {
+        this(backOffTimes, defaultBeginExpireTime, defaultFactor, defaultCacheSizeLimit, listener, null);
+    }
+
+    public TimingWheelBackoffCache(int backOffTimes, BackoffListener listener, Callback cb) {
+        this(backOffTimes, defaultBeginExpireTime, defaultFactor, defaultCacheSizeLimit, listener, cb);
+    }
+
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, BackoffListener listener, Callback cb) {
+        this(backOffTimes, beginExpire, factor, defaultCacheSizeLimit, listener, cb);
+    }
+
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor,
+                                   int sizeLimit, BackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, defaultTickMillis, listener, callback);
+    }
+
+    /**
+     * @param backOffTimes   数据放入缓存的次数
+     * @param beginExpire    第一次数据进入缓存后的超时时间，单位秒
+     * @param factor         后续数据每次重新放入缓存的时候超时时间相对于前一次的增加比例
+     * @param sizeLimit      单层容量大小的限制，当某一层数据量超过此值时，最早进入该层的数据会被强制退出缓存
+     * @param maxWeight      所有层数据总权重的上限，为0时不限制，超过上限时优先淘汰最高层中最早进入的数据，
+     *                       监听器会收到{@link RemovalCause#SIZE}通知
+     * @param weigher        计算数据的权重，例如数据占用的字节数，maxWeight为0时可以为null
+     * @param admission      某一层数据量达到sizeLimit时新数据的准入策略
+     * @param tickMillis     时间轮的精度，单位毫秒，数据最多会比超时时间晚这么久退出缓存
+     * @param listener       监听器，当数据退出某一层时，会调用监听器对应的监听函数
+     * @param dispatcher     数据最后一次出缓存时的回调，回调在dispatcher的线程中异步批量执行
+     * @param scheduler      负责定时推进时间轮的调度器
+     */
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long maxWeight,
+                                   Weigher<String, CacheItem> weigher, AdmissionPolicy admission, long tickMillis,
+                                   BackoffListener listener, ExpiryDispatcher<CacheItem> dispatcher,
+                                   CacheMaintenanceScheduler scheduler) {
+        super(backOffTimes, beginExpire, factor, sizeLimit, maxWeight, admission, tickMillis);
+        if (scheduler == null || (maxWeight > 0 && weigher == null)) {
+            throw new RuntimeException("invalid init params");
+        }
+
+        this.dispatcher = dispatcher;
+        this.listener = listener;
+        this.weigher = maxWeight > 0 ? weigher : null;
+        this.keys = new String[this.items.length];
+
+        if (backOffTimes > 0) {
+            this.refreshCache(scheduler);
+        }
+    }
+
+    /**
+     * @param callback       当数据最后一次出缓存的时候调用的回调函数，在回调线程中逐条调用
+     */
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long maxWeight,
+                                   Weigher<String, CacheItem> weigher, AdmissionPolicy admission, long tickMillis,
+                                   BackoffListener listener, Callback callback, CacheMaintenanceScheduler scheduler) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, maxWeight, weigher, admission, tickMillis, listener,
+                callback == null ? null : new ExpiryDispatcher<>(new BatchCallbackAdapter<CacheItem>(callback)),
+                scheduler);
+        this.ownsDispatcher = callback != null;
+    }
+
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long maxWeight,
+                                   Weigher<String, CacheItem> weigher, long tickMillis, BackoffListener listener,
+                                   Callback callback, CacheMaintenanceScheduler scheduler) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, maxWeight, weigher, AdmissionPolicy.ADMIT_ALL, tickMillis,
+                listener, callback, scheduler);
+    }
+
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, long tickMillis,
+                                   BackoffListener listener, Callback callback, CacheMaintenanceScheduler scheduler) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, 0, null, tickMillis, listener, callback, scheduler);
+    }
+
+    /**
+     * 按单层数据量限制容量，数据量达到上限时按照admission决定是否接受新数据
+     */
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit, AdmissionPolicy admission,
+                                   BackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, 0, null, admission, defaultTickMillis,
+                listener, callback, CacheMaintenanceScheduler.getDefault());
+    }
+
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, int sizeLimit,
+                                   long tickMillis, BackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, sizeLimit, tickMillis, listener, callback,
+                CacheMaintenanceScheduler.getDefault());
+    }
+
+    /**
+     * 只按总权重限制容量的缓存，单层的数据量不受限制
+     */
+    public TimingWheelBackoffCache(int backOffTimes, int beginExpire, int factor, long maxWeight,
+                                   Weigher<String, CacheItem> weigher, BackoffListener listener, Callback callback) {
+        this(backOffTimes, beginExpire, factor, Integer.MAX_VALUE, maxWeight, weigher, defaultTickMillis,
+                listener, callback, CacheMaintenanceScheduler.getDefault());
+    }
+
+    /**
+     * 将数据放回缓存中，如果放回次数超过回退匹配的次数，则把数据交给回调（如果存在的话），
+     * 然后数据在缓存中的生命周期就结束了。回调是异步执行的，回调队列满的时候见{@link ExpiryDispatcher}。
+     * 如果缓存中已经存在相同key的数据，旧数据会被替换掉
+     * @param key
+     * @param cacheItem
+     */
+    @Override
+    public void addData(String key, CacheItem cacheItem) {
+        if (this.exhausted(cacheItem)) {
+            if (this.dispatcher != null) {
+                cacheItem.setKey(key);
+                this.dispatcher.dispatch(cacheItem);
+            }
+            return;
+        }
+
+        int weight = this.weigher == null ? 0 : this.weigher.weigh(key, cacheItem);
+        if (weight < 0) {
+            throw new IllegalArgumentException("negative weight " + weight);
+        }
+
+        List<Removal> removed = new ArrayList<>(0);
+        synchronized (this.lock) {
+            this.recordAccess(hash(key));
+            int pos = this.findPosition(key);
+            int id = this.table[pos];
+            boolean existed = id != NIL;
+            if (!existed) {
+                id = this.insertEntry(pos);
+                this.keys[id] = key;
+                this.afterInsert();
+            }
+            this.putEntry(id, cacheItem, cacheItem.getTimes() - 1, weight, existed, removed);
+            if (this.changedKeys != null) {
+                this.changedKeys.add(key);
+            }
+        }
+
+        this.fireAll(removed);
+    }
+
+    /**
+     * 检查某条数据是否还在缓存中
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean exist(String key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * 获取缓存中的数据，数据不存在或者已经超时的话返回null
+     * @param key
+     * @return
+     */
+    public CacheItem get(String key) {
+        synchronized (this.lock) {
+            this.recordAccess(hash(key));
+            return this.getEntry(this.table[this.findPosition(key)]);
+        }
+    }
+
+    /**
+     * 将数据从缓存中删除，监听器会收到{@link RemovalCause#EXPLICIT}通知
+     * @param key
+     * @return 被删除的数据，数据不存在的话返回null
+     */
+    public CacheItem remove(String key) {
+        Removal removal;
+        synchronized (this.lock) {
+            int id = this.table[this.findPosition(key)];
+            if (id == NIL) {
+                return null;
+            }
+            removal = this.newRemoval(id, RemovalCause.EXPLICIT);
+            this.removeEntry(id);
+        }
+
+        this.fireRemoval(removal);
+        return removal.item;
+    }
+
+    /**
+     * 停止推进时间轮，已经交给dispatcher的数据在返回前回调完成，
+     * 通过{@link Callback}创建的dispatcher属于缓存自己，会一起关闭
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (this.dispatcher != null) {
+            if (this.ownsDispatcher) {
+                this.dispatcher.close();
+            }
+            else {
+                this.dispatcher.flush();
+            }
+        }
+    }
+
+    @Override
+    int hashOf(int id) {
+        return hash(this.keys[id]);
+    }
+
+    @Override
+    void growKeys(int capacity) {
+        this.keys = Arrays.copyOf(this.keys, capacity);
+    }
+
+    @Override
+    Removal newRemoval(int id, RemovalCause cause) {
+        CacheItem item = this.items[id];
+        item.setKey(this.keys[id]);
+        if (this.changedKeys != null) {
+            this.changedKeys.add(this.keys[id]);
+        }
+        return new Removal(item, cause, 0);
+    }
+
+    @Override
+    void releaseKey(int id) {
+        this.keys[id] = null;
+    }
+
+    @Override
+    void fireRemoval(Removal removal) {
+        if (this.listener != null) {
+            this.listener.onRemoval(removal.item, removal.cause);
+        }
+    }
+
+    /**
+     * 开始记录发生变化的key
+     */
+    void trackChanges() {
+        synchronized (this.lock) {
+            if (this.changedKeys == null) {
+                this.changedKeys = new HashSet<>();
+            }
+        }
+    }
+
+    /**
+     * 取出上一次调用之后发生过变化的数据的当前状态，已经不在缓存中的key对应的数据为null
+     */
+    List<SnapshotEntry> drainChanges() {
+        synchronized (this.lock) {
+            List<SnapshotEntry> res = new ArrayList<>(this.changedKeys.size());
+            for (String key : this.changedKeys) {
+                int id = this.table[this.findPosition(key)];
+                res.add(id == NIL ? new SnapshotEntry(key, null, 0, 0, 0) : this.snapshotOf(id));
+            }
+            this.changedKeys.clear();
+            return res;
+        }
+    }
+
+    /**
+     * 缓存中所有数据的当前状态，上一次调用{@link #drainChanges()}之后被删除的key对应的数据为null
+     */
+    List<SnapshotEntry> snapshotAll() {
+        synchronized (this.lock) {
+            List<SnapshotEntry> res = new ArrayList<>(this.size);
+            for (int id : this.table) {
+                if (id != NIL) {
+                    res.add(this.snapshotOf(id));
+                }
+            }
+            if (this.changedKeys != null) {
+                for (String key : this.changedKeys) {
+                    if (this.table[this.findPosition(key)] == NIL) {
+                        res.add(new SnapshotEntry(key, null, 0, 0, 0));
+                    }
+                }
+                this.changedKeys.clear();
+            }
+            return res;
+        }
+    }
+
+    /**
+     * 重新把这些key记为发生过变化，保存失败时调用，下一次保存时重新写入它们的当前状态
+     */
+    void markChanged(Collection<String> keys) {
+        synchronized (this.lock) {
+            if (this.changedKeys != null) {
+                this.changedKeys.addAll(keys);
+            }
+        }
+    }
+
+    /**
+     * 按照保存下来的状态把数据放回缓存，不会通知监听器数据被替换
+     */
+    void restoreEntry(String key, CacheItem cacheItem, long deadlineMillis) {
+        int level = Math.min(Math.max(cacheItem.getTimes(), 1), this.expireMillis.length) - 1;
+        int weight = this.weigher == null ? 0 : this.weigher.weigh(key, cacheItem);
+
+        List<Removal> removed = new ArrayList<>(0);
+        synchronized (this.lock) {
+            int pos = this.findPosition(key);
+            int id = this.table[pos];
+            boolean existed = id != NIL;
+            if (!existed) {
+                id = this.insertEntry(pos);
+                this.keys[id] = key;
+                this.afterInsert();
+            }
+            this.putEntry(id, cacheItem, level, weight, deadlineMillis, existed, removed);
+        }
+
+        for (Removal removal : removed) {
+            if (removal.cause != RemovalCause.REPLACED) {
+                this.fireRemoval(removal);
+            }
+        }
+    }
+
+    /**
+     * 删除数据，不通知监听器
+     */
+    void removeQuietly(String key) {
+        synchronized (this.lock) {
+            int id = this.table[this.findPosition(key)];
+            if (id != NIL) {
+                this.removeEntry(id);
+            }
+        }
+    }
+
+    private SnapshotEntry snapshotOf(int id) {
+        CacheItem item = this.items[id];
+        return new SnapshotEntry(this.keys[id], item, item.getTimes(), item.getStartTime(), this.getDeadline(id));
+    }
+
+    /**
+     * 查找key在索引中的位置，如果key不存在，返回的是可以插入key的空位置
+     */
+    private int findPosition(String key) {
+        int mask = this.table.length - 1;
+        int pos = hash(key) & mask;
+        while (true) {
+            int id = this.table[pos];
+            if (id == NIL || this.keys[id].equals(key)) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 某条数据在某一时刻的状态，times和startTime在持有锁的时候读出
+     */
+    static class SnapshotEntry {
+        final String key;
+        final CacheItem item;
+        final int times;
+        final long startTime;
+        final long deadline;
+
+        SnapshotEntry(String key, CacheItem item, int times, long startTime, long deadline) {
+            this.key = key;
+            this.item = item;
+            this.times = times;
+            this.startTime = startTime;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.xsl.common.cache;
+
+/**
+ * 将缓存中的数据转换成字节数组，用于把数据保存在堆外内存中
+ */
+public interface ValueSerializer<V> {
+    byte[] serialize(V value);
+
+    V deserialize(byte[] bytes);
+}
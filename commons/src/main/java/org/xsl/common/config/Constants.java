@@ -19,6 +19,24 @@ public class Constants {
     public static final String MYSQL_POOL_MAX_IDLE                 = "mysql_pool_max_idle";
     public static final String MYSQL_POOL_MIN_IDLE                 = "mysql_pool_min_idle";
     public static final String MYSQL_POOL_MAX_TOTAL                = "mysql_pool_max_total";
+    public static final String MYSQL_POOL_MAX_WAIT_MILLIS          = "mysql_pool_max_wait_millis";
+    public static final String MYSQL_POOL_VALIDATION_QUERY         = "mysql_pool_validation_query";
+    public static final String MYSQL_POOL_TEST_ON_BORROW           = "mysql_pool_test_on_borrow";
+    public static final String MYSQL_POOL_TEST_WHILE_IDLE          = "mysql_pool_test_while_idle";
+    public static final String MYSQL_POOL_EVICTION_INTERVAL_MILLIS = "mysql_pool_eviction_interval_millis";
+    public static final String MYSQL_POOL_MIN_EVICTABLE_IDLE_MILLIS = "mysql_pool_min_evictable_idle_millis";
+    public static final String MYSQL_POOL_LEAK_DETECTION_MILLIS    = "mysql_pool_leak_detection_millis";
+    public static final String MYSQL_REPLICA_URLS                  = "mysql_replica_urls";
+    public static final String MYSQL_REPLICA_WEIGHTS               = "mysql_replica_weights";
+    public static final String MYSQL_REPLICA_BALANCE               = "mysql_replica_balance";
+    public static final String MYSQL_REPLICA_HEALTH_CHECK_MILLIS   = "mysql_replica_health_check_millis";
+    public static final String MYSQL_REPLICA_EJECT_FAILURES        = "mysql_replica_eject_failures";
+    public static final String MYSQL_REPLICA_READMIT_SUCCESSES     = "mysql_replica_readmit_successes";
+    public static final String MYSQL_FETCH_SIZE                    = "mysql_fetch_size";
+    public static final String MYSQL_TRANSACTION_ISOLATION         = "mysql_transaction_isolation";
+    public static final String MYSQL_DEADLOCK_RETRIES              = "mysql_deadlock_retries";
+    public static final String MYSQL_PREPARED_STATEMENT_CACHE_SIZE = "mysql_prepared_statement_cache_size";
+    public static final String MYSQL_SERVER_PREPARE                = "mysql_server_prepare";
 
     public static final String MYSQL_SYNC_TABLE_NAME               = "mysql_sync_table_name";
     public static final String MYSQL_BINLOG_TABLE_NAME_FILTER      = "mysql_binlog_table_name_filter";
@@ -37,6 +55,12 @@ public class Constants {
     public static final String MYSQL_JOB_QUEUE_LENGTH              = "mysql_job_queue_length";
     public static final String MYSQL_DUMP_CONFIG                   = "mysql_dump_config";
     public static final String MYSQL_QUERY_SQL                     = "mysql_query_sql";
+    public static final String MYSQL_DUMP_CHECKPOINT_FILE          = "mysql_dump_checkpoint_file";
+    public static final String MYSQL_DUMP_MAX_QPS                  = "mysql_dump_max_qps";
+    public static final String MYSQL_DUMP_MAX_ROWS_PER_SECOND      = "mysql_dump_max_rows_per_second";
+    public static final String MYSQL_DUMP_TARGET_QUERY_MILLIS      = "mysql_dump_target_query_millis";
+    public static final String MYSQL_DUMP_MODE                     = "mysql_dump_mode";
+    public static final String MYSQL_DUMP_BATCH_SIZE               = "mysql_dump_batch_size";
 
     /**
      * hbase相关的一些配置项
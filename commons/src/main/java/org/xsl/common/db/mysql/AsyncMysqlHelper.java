@@ -0,0 +1,229 @@
+package org.xsl.common.db.mysql;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.xsl.common.db.mysql.MysqlHelper.SqlField;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link MysqlHelper}的异步版本，所有操作在独立的有界线程池中执行，调用方线程不会被数据库操作阻塞，
+ * 结果通过guava的{@link ListenableFuture}返回，可以注册回调或者用Futures组合。
+ *
+ * 1. 线程数默认与连接池的最大连接数相同，更多的线程只会在连接池上排队
+ * 2. 等待队列满了之后新的调用马上失败（future中是{@link RejectedExecutionException}），不会无限堆积
+ * 3. 每次调用都有超时时间，超时之后future以{@link TimeoutException}结束，并中断执行线程
+ * 4. 取消future时，还在排队的操作不会再执行，正在执行的操作会被中断
+ *
+ * mysql驱动不一定响应线程中断，超时或者取消的操作可能会继续执行到数据库返回为止，但是不会再影响future的结果
+ */
+public class AsyncMysqlHelper {
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private MysqlHelper mysqlHelper;
+    private ThreadPoolExecutor executor;
+    private ScheduledThreadPoolExecutor timer;
+    private long defaultTimeoutMillis;
+
+    /**
+     * @param mysqlHelper           执行数据库操作的同步接口
+     * @param threads               执行数据库操作的线程数
+     * @param queueCapacity         等待执行的操作数量上限
+     * @param defaultTimeoutMillis  没有指定超时时间的操作使用的超时时间，单位毫秒
+     */
+    public AsyncMysqlHelper(MysqlHelper mysqlHelper, int threads, int queueCapacity, long defaultTimeoutMillis) {
+        if (mysqlHelper == null || threads <= 0 || queueCapacity <= 0 || defaultTimeoutMillis <= 0) {
+            throw new RuntimeException("invalid init params");
+        }
+
+        this.mysqlHelper = mysqlHelper;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory("mysql-async-"));
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("mysql-async-timer-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 线程数与连接池的最大连接数相同
+     */
+    public AsyncMysqlHelper(MysqlHelper mysqlHelper) {
+        this(mysqlHelper, mysqlHelper.getConnectionPool().getMaxTotal(), DEFAULT_QUEUE_CAPACITY,
+                DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public ListenableFuture<List<Map<String, String>>> query(final String sql) {
+        return this.submit(new Callable<List<Map<String, String>>>() {
+            public List<Map<String, String>> call() throws Exception {
+                return mysqlHelper.query(sql);
+            }
+        });
+    }
+
+    public ListenableFuture<List<Map<String, String>>> query(final String sql, final SqlField... params) {
+        return this.submit(new Callable<List<Map<String, String>>>() {
+            public List<Map<String, String>> call() throws Exception {
+                return mysqlHelper.query(sql, params);
+            }
+        });
+    }
+
+    public ListenableFuture<List<Map<String, Object>>> queryPrimitives(final String sql, final SqlField... params) {
+        return this.submit(new Callable<List<Map<String, Object>>>() {
+            public List<Map<String, Object>> call() throws Exception {
+                return mysqlHelper.queryPrimitives(sql, params);
+            }
+        });
+    }
+
+    public ListenableFuture<Boolean> update(final String sql) {
+        return this.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return mysqlHelper.update(sql);
+            }
+        });
+    }
+
+    public ListenableFuture<Integer> update(final String sql, final SqlField... params) {
+        return this.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return mysqlHelper.update(sql, params);
+            }
+        });
+    }
+
+    public ListenableFuture<BatchResult> batchUpdate(final String sql, final List<SqlField[]> rows) {
+        return this.submit(new Callable<BatchResult>() {
+            public BatchResult call() throws Exception {
+                return mysqlHelper.batchUpdate(sql, rows);
+            }
+        });
+    }
+
+    public ListenableFuture<BatchResult> batchUpdate(final List<String> sqls) {
+        return this.submit(new Callable<BatchResult>() {
+            public BatchResult call() throws Exception {
+                return mysqlHelper.batchUpdate(sqls);
+            }
+        });
+    }
+
+    /**
+     * @see MysqlHelper#executeInTransaction(TransactionCallback), 超时或者取消时正在执行的事务会被中断，
+     * 事务中抛出的异常使事务回滚
+     */
+    public <T> ListenableFuture<T> executeInTransaction(final TransactionCallback<T> callback) {
+        return this.submit(new Callable<T>() {
+            public T call() throws Exception {
+                return mysqlHelper.executeInTransaction(callback);
+            }
+        });
+    }
+
+    /**
+     * 使用默认超时时间提交一个操作
+     * @see #submit(Callable, long, TimeUnit)
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> task) {
+        return this.submit(task, this.defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 提交一个任意的数据库操作，例如通过{@link MysqlHelper}执行多个语句
+     * @param timeout  从提交开始计算的超时时间，包括排队的时间
+     */
+    public <T> ListenableFuture<T> submit(final Callable<T> task, long timeout, TimeUnit unit) {
+        final SettableFuture<T> result = SettableFuture.create();
+
+        final Future<?> running;
+        try {
+            running = this.executor.submit(new Runnable() {
+                public void run() {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    try {
+                        result.set(task.call());
+                    } catch (Throwable e) {
+                        result.setException(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.setException(this.executor.isShutdown() ? e
+                    : new RejectedExecutionException("Too many pending mysql operations: " + this.getQueueDepth()));
+            return result;
+        }
+
+        final ScheduledFuture<?> timeoutTask = this.timer.schedule(new Runnable() {
+            public void run() {
+                if (result.setException(new TimeoutException("Mysql operation timeout"))) {
+                    running.cancel(true);
+                }
+            }
+        }, timeout, unit);
+
+        result.addListener(new Runnable() {
+            public void run() {
+                timeoutTask.cancel(false);
+                if (result.isCancelled()) {
+                    running.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    /**
+     * 等待执行的操作数量
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * 正在执行的操作数量
+     */
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * 不再接受新的操作，已经提交的操作会继续执行，不会关闭{@link MysqlHelper}
+     */
+    public void close() {
+        this.executor.shutdown();
+        this.timer.shutdown();
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private String prefix;
+        private AtomicInteger index = new AtomicInteger(0);
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, this.prefix + this.index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.xsl.common.db.mysql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量执行的结果，记录成功的条数以及每一条失败的数据在输入中的下标和失败原因
+ */
+public class BatchResult {
+    private int total;
+    private int succeeded;
+    private List<Failure> failures = new ArrayList<>();
+
+    BatchResult(int total) {
+        this.total = total;
+    }
+
+    void addSucceeded(int count) {
+        this.succeeded += count;
+    }
+
+    void addFailure(int index, SQLException error) {
+        this.failures.add(new Failure(index, error));
+    }
+
+    public int getTotal() {
+        return this.total;
+    }
+
+    public int getSucceeded() {
+        return this.succeeded;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(this.failures);
+    }
+
+    public boolean hasFailures() {
+        return !this.failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "total: " + this.total + " succeeded: " + this.succeeded + " failed: " + this.failures.size();
+    }
+
+    public static class Failure {
+        private int index;
+        private SQLException error;
+
+        Failure(int index, SQLException error) {
+            this.index = index;
+            this.error = error;
+        }
+
+        /**
+         * 失败的数据在输入列表中的下标，从0开始
+         */
+        public int getIndex() {
+            return this.index;
+        }
+
+        public SQLException getError() {
+            return this.error;
+        }
+
+        @Override
+        public String toString() {
+            return "index: " + this.index + " error: " + this.error.getMessage();
+        }
+    }
+}
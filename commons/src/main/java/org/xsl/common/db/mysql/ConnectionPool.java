@@ -2,13 +2,35 @@ package org.xsl.common.db.mysql;
 
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.apache.log4j.Logger;
+import org.xsl.common.metrics.Histogram;
+import org.xsl.common.metrics.MetricSet;
+import org.xsl.common.metrics.MetricsReporter;
+import org.xsl.common.metrics.StripedCounter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import static org.xsl.common.config.Constants.*;
 
 /**
+ * 基于dbcp2的连接池，同时记录连接池的运行指标：
+ * 1. 获取连接的等待时间（waitMicros）以及连接从借出到归还的持有时间（holdMillis）的直方图
+ * 2. 获取连接失败的次数（checkoutFailed），其中等待超时、也就是连接池被耗尽的次数（checkoutTimeout）
+ * 3. 当前借出的连接数（active）和空闲的连接数（idle）
+ * 配置了{@code mysql_pool_leak_detection_millis}时，借出时间超过该值的连接会被当作泄漏，
+ * 日志中打印借出连接时的调用栈，每个连接只报告一次（leaked）
  * Created by xiongsenlin on 15/7/8.
  */
 public final class ConnectionPool {
@@ -16,10 +38,27 @@ public final class ConnectionPool {
     private static final int DEFAULT_MAX_TOTAL = DEFAULT_POOL_SIZE * 3;
     private static final int DEFAULT_MAX_IDLE  = DEFAULT_POOL_SIZE;
     private static final int DEFAULT_MIN_IDLE  = 1;
+    private static final int DEFAULT_PREPARED_STATEMENT_CACHE_SIZE = 100;
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 30 * 1000;
 
     private static Logger logger = Logger.getLogger(ConnectionPool.class);
     private BasicDataSource dataSource;
 
+    private MetricSet metrics = new MetricSet();
+    private Histogram waitMicros = this.metrics.histogram("waitMicros");
+    private Histogram holdMillis = this.metrics.histogram("holdMillis");
+    private StripedCounter checkoutFailed = this.metrics.counter("checkoutFailed");
+    private StripedCounter checkoutTimeout = this.metrics.counter("checkoutTimeout");
+    private StripedCounter leaked = this.metrics.counter("leaked");
+
+    /**
+     * 当前借出的连接
+     */
+    private Set<TrackedConnection> checkedOut =
+            Collections.newSetFromMap(new ConcurrentHashMap<TrackedConnection, Boolean>());
+    private long leakDetectionMillis;
+    private ScheduledExecutorService leakDetector;
+
     /**
      * 通过map传递过来的参数初始化连接池
      * @param config config中包括的参数有：
@@ -30,6 +69,16 @@ public final class ConnectionPool {
      *        5. {@code mysql_pool_max_idle}     （可选）   连接池中最大的空闲连接数量，默认值：5
      *        6. {@code mysql_pool_min_idle}     （可选）   连接池中最小的空闲连接数量，默认值：1
      *        7. {@code mysql_pool_max_total}    （可选）   连接池中允许存在的最大连接数量，默认值：15
+     *        8. {@code mysql_fetch_size}        （可选）   流式查询每次从服务端读取的行数，大于0时打开服务端游标（useCursorFetch）
+     *        9. {@code mysql_prepared_statement_cache_size}（可选）每个连接缓存的PreparedStatement数量，为0时不缓存，默认值：100
+     *       10. {@code mysql_server_prepare}    （可选）   是否使用服务端预处理（useServerPrepStmts），默认值：true
+     *       11. {@code mysql_pool_max_wait_millis}（可选） 连接池耗尽时获取连接的最长等待时间，默认值：30000
+     *       12. {@code mysql_pool_validation_query}（可选）检查连接是否可用的sql，例如select 1，默认不检查
+     *       13. {@code mysql_pool_test_on_borrow}（可选）  借出连接前是否检查，需要设置validation query，默认值：false
+     *       14. {@code mysql_pool_test_while_idle}（可选） 空闲检查时是否检查连接，需要设置validation query，默认值：false
+     *       15. {@code mysql_pool_eviction_interval_millis}（可选）空闲检查的间隔，小于等于0时不检查，默认值：-1
+     *       16. {@code mysql_pool_min_evictable_idle_millis}（可选）空闲超过该时间的连接在空闲检查时被关闭，默认值：1800000
+     *       17. {@code mysql_pool_leak_detection_millis}（可选）借出超过该时间的连接被当作泄漏打印出来，默认值：0，不检查
      */
     public ConnectionPool(Map<String, String> config) {
         this.initDatasource(config);
@@ -41,23 +90,112 @@ public final class ConnectionPool {
      * @return
      */
     public Connection getConn(boolean autoCommit) {
-        Connection connection = null;
-        if (dataSource != null) {
-            try {
-                connection = dataSource.getConnection();
-            } catch (Exception e) {
-                logger.error("Get db connection error", e);
-                return null;
+        try {
+            return this.borrow(autoCommit);
+        } catch (SQLException e) {
+            logger.error("Get db connection error, active: " + this.getNumActive()
+                    + " idle: " + this.getNumIdle() + " maxTotal: " + this.getMaxTotal(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 与{@link #getConn(boolean)}相同，区别是获取失败时抛出异常而不是返回null，
+     * 调用方可以通过{@link #isExhausted(Exception)}区分连接池耗尽和数据库故障
+     */
+    Connection borrow(boolean autoCommit) throws SQLException {
+        if (dataSource == null) {
+            return null;
+        }
+
+        Connection connection;
+        long start = System.nanoTime();
+        try {
+            connection = dataSource.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            this.checkoutFailed.increment();
+            if (isExhausted(e)) {
+                this.checkoutTimeout.increment();
             }
+            throw e instanceof SQLException ? (SQLException) e : new SQLException(e);
+        } finally {
+            this.waitMicros.update((System.nanoTime() - start) / 1000);
+        }
 
+        try {
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
             try {
-                connection.setAutoCommit(autoCommit);
-            } catch (SQLException e) {
-                logger.error("Set autocommit error", e);
-                return null;
+                connection.close();
+            } catch (SQLException ignored) {
             }
+            throw e;
         }
-        return connection;
+        return this.track(connection);
+    }
+
+    /**
+     * 获取连接失败的原因是否是连接池中的连接都已经借出、等待超时，而不是数据库连接不上
+     */
+    static boolean isExhausted(Exception e) {
+        return e.getCause() instanceof NoSuchElementException;
+    }
+
+    /**
+     * 借出的连接数已经达到上限，再获取连接需要等待其他连接归还
+     */
+    public boolean isSaturated() {
+        int maxTotal = this.getMaxTotal();
+        return maxTotal > 0 && this.getNumActive() >= maxTotal;
+    }
+
+    /**
+     * 当前借出的连接数量
+     */
+    public int getNumActive() {
+        return this.dataSource.getNumActive();
+    }
+
+    /**
+     * 当前空闲的连接数量
+     */
+    public int getNumIdle() {
+        return this.dataSource.getNumIdle();
+    }
+
+    /**
+     * 获取连接的等待时间，单位微秒
+     */
+    public Histogram getWaitTime() {
+        return this.waitMicros;
+    }
+
+    /**
+     * 连接从借出到归还的时间，单位毫秒
+     */
+    public Histogram getHoldTime() {
+        return this.holdMillis;
+    }
+
+    /**
+     * 所有指标的当前值，包括active和idle
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> res = this.metrics.snapshot();
+        res.put("active", (long) this.getNumActive());
+        res.put("idle", (long) this.getNumIdle());
+        return res;
+    }
+
+    public void report(String source, MetricsReporter reporter) {
+        reporter.report(source, this.snapshot());
+    }
+
+    /**
+     * 连接池中允许存在的最大连接数量
+     */
+    public int getMaxTotal() {
+        return this.dataSource.getMaxTotal();
     }
 
     public void initDatasource(Map<String, String> conf) {
@@ -97,7 +235,56 @@ public final class ConnectionPool {
         bds.setMaxTotal(maxTotal);
         bds.setMaxIdle(maxIdle);
         bds.setMinIdle(minIdle);
-        bds.setMaxWaitMillis(30 * 1000);
+        bds.setMaxWaitMillis(getLong(conf, MYSQL_POOL_MAX_WAIT_MILLIS, DEFAULT_MAX_WAIT_MILLIS));
+
+        String validationQuery = conf.get(MYSQL_POOL_VALIDATION_QUERY);
+        if (validationQuery != null && !validationQuery.isEmpty()) {
+            bds.setValidationQuery(validationQuery);
+            bds.setTestOnBorrow(Boolean.parseBoolean(conf.get(MYSQL_POOL_TEST_ON_BORROW)));
+            bds.setTestWhileIdle(Boolean.parseBoolean(conf.get(MYSQL_POOL_TEST_WHILE_IDLE)));
+        }
+        if (conf.get(MYSQL_POOL_EVICTION_INTERVAL_MILLIS) != null) {
+            bds.setTimeBetweenEvictionRunsMillis(Long.parseLong(conf.get(MYSQL_POOL_EVICTION_INTERVAL_MILLIS)));
+        }
+        if (conf.get(MYSQL_POOL_MIN_EVICTABLE_IDLE_MILLIS) != null) {
+            bds.setMinEvictableIdleTimeMillis(Long.parseLong(conf.get(MYSQL_POOL_MIN_EVICTABLE_IDLE_MILLIS)));
+        }
+
+        this.leakDetectionMillis = getLong(conf, MYSQL_POOL_LEAK_DETECTION_MILLIS, 0);
+        if (this.leakDetectionMillis > 0 && this.leakDetector == null) {
+            this.startLeakDetector();
+        }
+
+        /**
+         * 连接池按sql缓存每个连接上的PreparedStatement，配合服务端预处理，同一条sql在同一个连接上
+         * 只需要解析和生成一次执行计划，之后只传输参数
+         */
+        int statementCacheSize = DEFAULT_PREPARED_STATEMENT_CACHE_SIZE;
+        if (conf.get(MYSQL_PREPARED_STATEMENT_CACHE_SIZE) != null) {
+            statementCacheSize = Integer.parseInt(conf.get(MYSQL_PREPARED_STATEMENT_CACHE_SIZE));
+        }
+        if (statementCacheSize > 0) {
+            bds.setPoolPreparedStatements(true);
+            bds.setMaxOpenPreparedStatements(statementCacheSize);
+        }
+
+        String serverPrepare = conf.get(MYSQL_SERVER_PREPARE);
+        if (serverPrepare == null || Boolean.parseBoolean(serverPrepare)) {
+            bds.addConnectionProperty("useServerPrepStmts", "true");
+        }
+
+        /**
+         * 批量执行时驱动把一批insert改写成一条多值insert，其他语句合并成一次发送，只影响addBatch的执行方式
+         */
+        bds.addConnectionProperty("rewriteBatchedStatements", "true");
+
+        /**
+         * 只有打开了服务端游标，mysql驱动才会按fetchSize分批读取，否则会一次把结果全部读到内存中
+         */
+        String fetchSize = conf.get(MYSQL_FETCH_SIZE);
+        if (fetchSize != null && Integer.parseInt(fetchSize) > 0) {
+            bds.addConnectionProperty("useCursorFetch", "true");
+        }
 
         this.dataSource = bds;
     }
@@ -141,6 +328,99 @@ public final class ConnectionPool {
     }
 
     public void close() throws Exception {
+        if (this.leakDetector != null) {
+            this.leakDetector.shutdownNow();
+        }
         this.dataSource.close();
     }
+
+    private static long getLong(Map<String, String> conf, String key, long defaultValue) {
+        String value = conf.get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * 用代理包装连接，close时记录持有时间；打开泄漏检查时记录借出连接时的调用栈
+     */
+    private Connection track(Connection connection) {
+        TrackedConnection tracked = new TrackedConnection(connection,
+                this.leakDetectionMillis > 0 ? new Throwable("Connection checked out here") : null);
+        this.checkedOut.add(tracked);
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class[] {Connection.class}, tracked);
+    }
+
+    private void startLeakDetector() {
+        this.leakDetector = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mysql-pool-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long period = Math.max(1000, this.leakDetectionMillis / 2);
+        this.leakDetector.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                detectLeaks();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        for (TrackedConnection tracked : this.checkedOut) {
+            long heldMillis = (now - tracked.checkoutNanos) / 1000000;
+            if (heldMillis >= this.leakDetectionMillis && !tracked.reported) {
+                tracked.reported = true;
+                this.leaked.increment();
+                logger.warn("Connection held for " + heldMillis + "ms, possible leak, active: "
+                        + this.getNumActive() + " idle: " + this.getNumIdle(), tracked.checkoutStack);
+            }
+        }
+    }
+
+    /**
+     * 借出的连接，close时把连接还给dbcp并记录持有时间，重复close只记录一次
+     */
+    private final class TrackedConnection implements InvocationHandler {
+        private final Connection target;
+        private final Throwable checkoutStack;
+        private final long checkoutNanos = System.nanoTime();
+        private volatile boolean closed;
+        private volatile boolean reported;
+
+        TrackedConnection(Connection target, Throwable checkoutStack) {
+            this.target = target;
+            this.checkoutStack = checkoutStack;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name) && method.getParameterTypes().length == 0) {
+                if (this.closed) {
+                    return null;
+                }
+                this.closed = true;
+                checkedOut.remove(this);
+                holdMillis.update((System.nanoTime() - this.checkoutNanos) / 1000000);
+            }
+            else if ("isClosed".equals(name) && this.closed) {
+                return true;
+            }
+            else if ("equals".equals(name) && method.getParameterTypes().length == 1) {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+                return System.identityHashCode(proxy);
+            }
+
+            try {
+                return method.invoke(this.target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
 }
\ No newline at end of file
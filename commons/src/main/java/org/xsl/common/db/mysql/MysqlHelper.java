@@ -1,5 +1,6 @@
 package org.xsl.common.db.mysql;
 
+import org.apache.log4j.Logger;
 import org.xsl.common.json.JsonHelper;
 import org.xsl.common.config.Pair;
 import org.xsl.common.string.StringUtils;
@@ -12,14 +13,62 @@ import static org.xsl.common.config.Constants.*;
  * 支持mysql常见的增删查改操作，数据库连接池对操作透明，如果确保对象不再使用的情况下，可以手动调用
  * {@link #close()}接口来释放连接池占有的所有资源
  *
+ * 配置了从库（{@code mysql_replica_urls}）时，查询操作按{@link ReplicaSet}的负载均衡策略读从库，
+ * 所有从库都不可用时读主库；写操作、批量执行、{@link #executeInTransaction(TransactionCallback)}以及
+ * {@link #getConnection()}返回的连接总是使用主库。
+ * 从库有复制延迟，写入之后需要马上读到的数据应当通过{@link #getConnection()}在主库上查询
+ *
  * Created by xiongsenlin on 15/7/8.
  */
 public class MysqlHelper {
+    /**
+     * mysql驱动的逐行流式读取，服务端把结果一行一行推过来，客户端不缓存
+     */
+    public static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+    /**
+     * 每行转换成字段名到字符串值的{@link Row}，与{@link #query(String)}相同
+     */
+    public static final RowMapper<Map<String, String>> STRING_ROW_MAPPER = new RowMapper<Map<String, String>>() {
+        public Map<String, String> mapRow(ResultSet rs, ResultSchema schema) throws SQLException {
+            return readStringRow(rs, schema);
+        }
+    };
+
+    /**
+     * 每行转换成字段名到原始类型值的{@link Row}，与{@link #queryPrimitives(String)}相同
+     */
+    public static final RowMapper<Map<String, Object>> PRIMITIVE_ROW_MAPPER = new RowMapper<Map<String, Object>>() {
+        public Map<String, Object> mapRow(ResultSet rs, ResultSchema schema) throws SQLException {
+            return readPrimitiveRow(rs, schema);
+        }
+    };
+
+    /**
+     * 事务使用连接原来的隔离级别（mysql默认是REPEATABLE_READ）
+     */
+    public static final int DEFAULT_ISOLATION = -1;
+
+    /**
+     * 死锁的错误码，发生死锁时mysql已经回滚了整个事务
+     */
+    private static final int ER_LOCK_DEADLOCK = 1213;
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_DEADLOCK_RETRIES = 3;
+    private static final long DEADLOCK_BACKOFF_MILLIS = 10;
+
+    private static Logger logger = Logger.getLogger(MysqlHelper.class);
+
     private ConnectionPool connectionPool;
+    private ReplicaSet replicaSet;
+    private int fetchSize = STREAMING_FETCH_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int transactionIsolation = DEFAULT_ISOLATION;
+    private int deadlockRetries = DEFAULT_DEADLOCK_RETRIES;
 
     public MysqlHelper(JsonHelper jsonHelper) {
-        Map<String, String> conf = this.getConfig(jsonHelper);
-        this.connectionPool = new ConnectionPool(conf);
+        this(getConfig(jsonHelper));
     }
 
     /**
@@ -32,9 +81,40 @@ public class MysqlHelper {
      *        5. {@code mysql_pool_max_idle}     （可选）   连接池中最大的空闲连接数量，默认值：5
      *        6. {@code mysql_pool_min_idle}     （可选）   连接池中最小的空闲连接数量，默认值：1
      *        7. {@code mysql_pool_max_total}    （可选）   连接池中允许存在的最大连接数量，默认值：15
+     *        8. {@code mysql_fetch_size}        （可选）   流式查询每次从服务端读取的行数，不设置时逐行流式读取
+     *        9. {@code mysql_prepared_statement_cache_size}（可选）每个连接缓存的PreparedStatement数量，为0时不缓存，默认值：100
+     *       10. {@code mysql_server_prepare}    （可选）   是否使用服务端预处理，默认值：true
+     *       11. {@code mysql_batch_insert_number}（可选）  批量执行时每次提交的条数，默认值：1000
+     *       12. {@code mysql_replica_urls}      （可选）   从库的连接url，多个url用逗号分隔，设置之后查询读从库，
+     *                                                    其他从库参数见{@link ReplicaSet#ReplicaSet(Map)}
+     *       13. {@code mysql_transaction_isolation}（可选）事务的隔离级别，READ_UNCOMMITTED, READ_COMMITTED,
+     *                                                    REPEATABLE_READ或者SERIALIZABLE，默认使用连接原来的隔离级别
+     *       14. {@code mysql_deadlock_retries}  （可选）   事务发生死锁时的重试次数，默认值：3
      */
     public MysqlHelper(Map<String, String> config) {
         this.connectionPool = new ConnectionPool(config);
+        String replicaUrls = config.get(MYSQL_REPLICA_URLS);
+        if (replicaUrls != null && !replicaUrls.trim().isEmpty()) {
+            this.replicaSet = new ReplicaSet(config);
+        }
+        if (config.get(MYSQL_FETCH_SIZE) != null) {
+            this.fetchSize = Integer.parseInt(config.get(MYSQL_FETCH_SIZE));
+        }
+        if (config.get(MYSQL_BATCH_INSERT_NUMBER) != null) {
+            this.batchSize = Integer.parseInt(config.get(MYSQL_BATCH_INSERT_NUMBER));
+            if (this.batchSize <= 0) {
+                throw new RuntimeException("Invalid " + MYSQL_BATCH_INSERT_NUMBER + ": " + this.batchSize);
+            }
+        }
+        if (config.get(MYSQL_TRANSACTION_ISOLATION) != null) {
+            this.transactionIsolation = parseIsolation(config.get(MYSQL_TRANSACTION_ISOLATION));
+        }
+        if (config.get(MYSQL_DEADLOCK_RETRIES) != null) {
+            this.deadlockRetries = Integer.parseInt(config.get(MYSQL_DEADLOCK_RETRIES));
+            if (this.deadlockRetries < 0) {
+                throw new RuntimeException("Invalid " + MYSQL_DEADLOCK_RETRIES + ": " + this.deadlockRetries);
+            }
+        }
     }
 
     /**
@@ -51,7 +131,31 @@ public class MysqlHelper {
     }
 
     /**
-     * 初始化自定义PreparedStatement
+     * 获取只读的数据库连接，配置了从库时来自从库，所有从库都不可用时来自主库
+     */
+    public Connection getReadConnection() {
+        Connection conn = this.getReadConn();
+        if (conn == null) {
+            throw new RuntimeException("Can not get connection from pool");
+        }
+
+        return conn;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return this.connectionPool;
+    }
+
+    /**
+     * 没有配置从库时返回null
+     */
+    public ReplicaSet getReplicaSet() {
+        return this.replicaSet;
+    }
+
+    /**
+     * 初始化自定义PreparedStatement，连接由调用方负责关闭，关闭连接之前需要先关闭statement，
+     * 这样statement才能回到连接池的statement缓存中
      * @return
      */
     public PreparedStatement initStatement(Connection conn, String sql) throws SQLException {
@@ -59,13 +163,7 @@ public class MysqlHelper {
             throw new RuntimeException("Can not get connection from pool");
         }
 
-        try {
-            return conn.prepareStatement(sql);
-        } catch (SQLException e) {
-            throw e;
-        } finally {
-            conn.close();
-        }
+        return conn.prepareStatement(sql);
     }
 
     /**
@@ -84,7 +182,34 @@ public class MysqlHelper {
             throw new RuntimeException("Invalid param field");
         }
 
-        switch (valueType.toLowerCase()) {
+        setStmtParam(stmt, paramIndex, valueStr, valueType);
+    }
+
+    /**
+     * 按顺序设置PreparedStatement的全部参数，没有设置paramIndex的字段按照它在params中的位置（从1开始）设置，
+     * 值为null时设置为sql中的NULL，string类型的值可以是空字符串
+     */
+    public void setStmtParams(PreparedStatement stmt, SqlField... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            SqlField field = params[i];
+            if (field == null || StringUtils.isEmpty(field.fieldValueType)) {
+                throw new RuntimeException("Invalid param field at " + (i + 1));
+            }
+
+            int paramIndex = field.paramIndex == null ? i + 1 : field.paramIndex;
+            setStmtParam(stmt, paramIndex, field.fieldValueStr, field.fieldValueType);
+        }
+    }
+
+    private static void setStmtParam(PreparedStatement stmt, int paramIndex, String valueStr, String valueType)
+            throws SQLException {
+        String type = valueType.toLowerCase();
+        if (valueStr == null) {
+            stmt.setNull(paramIndex, sqlTypeOf(type));
+            return;
+        }
+
+        switch (type) {
             case "int":
                 stmt.setInt(paramIndex, Integer.valueOf(valueStr));
                 break;
@@ -112,72 +237,374 @@ public class MysqlHelper {
         }
     }
 
+    private static int sqlTypeOf(String type) {
+        switch (type) {
+            case "int":
+                return Types.INTEGER;
+            case "long":
+                return Types.BIGINT;
+            case "double":
+                return Types.DOUBLE;
+            case "float":
+                return Types.FLOAT;
+            case "string":
+                return Types.VARCHAR;
+            case "timestamp":
+                return Types.TIMESTAMP;
+            case "boolean":
+                return Types.BOOLEAN;
+            default:
+                throw new RuntimeException("Could not recognize " +
+                        "the type [" + type + "] when set PreparedStatement by field");
+        }
+    }
+
     /**
-     * 执行查询操作，返回的每条数据对应一个{@link Map}，所以不能保证字段的顺序，所有数据
-     * 都被转换成{@link String}，客户端使用的时候需要手动转换成对应的类型
-     * @param sql  需要执行的查询语句
-     * @return     返回的结果是一个list，每一条记录是一个map
+     * 参数化查询，通过{@link PreparedStatement}执行，相同的sql在连接池的statement缓存中只解析一次，
+     * 打开服务端预处理时（默认打开）服务端也不需要重新解析和生成执行计划。返回结果与{@link #query(String)}相同
+     * @param sql     带有?占位符的查询语句
+     * @param params  按占位符顺序排列的参数
      */
-    public List<Map<String, String>> query(String sql) throws SQLException {
+    public List<Map<String, String>> query(String sql, SqlField... params) throws SQLException {
+        return this.queryPrepared(sql, STRING_ROW_MAPPER, params);
+    }
+
+    /**
+     * @see #query(String, SqlField...), 返回结果与{@link #queryPrimitives(String)}相同
+     */
+    public List<Map<String, Object>> queryPrimitives(String sql, SqlField... params) throws SQLException {
+        return this.queryPrepared(sql, PRIMITIVE_ROW_MAPPER, params);
+    }
+
+    /**
+     * 参数化的insert, update, delete操作，通过{@link PreparedStatement}执行
+     * @return 影响的行数
+     */
+    public int update(String sql, SqlField... params) throws SQLException {
+        Connection conn = this.connectionPool.getConn(true);
+        if (conn == null) {
+            throw new RuntimeException("Can not get connection from pool");
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            this.setStmtParams(stmt, params);
+            return stmt.executeUpdate();
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 用同一条sql批量执行insert, update, delete，每mysql_batch_insert_number条作为一批一起发送并提交
+     * （连接打开了rewriteBatchedStatements，insert会被改写成一条多值insert）。
+     *
+     * 某一批中有数据执行失败时，这一批会被回滚，然后逐条重新执行，每条成功之后马上提交，执行失败的数据记录在
+     * 返回结果中，不影响其他数据（死锁等错误会让mysql回滚整个事务，逐条提交保证之前重新执行成功的数据不会被一起回滚）。
+     * 连接异常等无法继续执行的错误会直接抛出，此时之前已经提交的数据不会回滚
+     * @param sql   带有?占位符的sql
+     * @param rows  每条数据的参数，按占位符顺序排列
+     */
+    public BatchResult batchUpdate(String sql, final List<SqlField[]> rows) throws SQLException {
+        Connection conn = this.connectionPool.getConn(false);
+        if (conn == null) {
+            throw new RuntimeException("Can not get connection from pool");
+        }
+
+        try (final PreparedStatement stmt = conn.prepareStatement(sql)) {
+            return this.executeInBatches(conn, rows.size(), new Batcher() {
+                public void add(int index) throws SQLException {
+                    setStmtParams(stmt, rows.get(index));
+                    stmt.addBatch();
+                }
+
+                public void executeBatch() throws SQLException {
+                    stmt.executeBatch();
+                }
+
+                public void clearBatch() throws SQLException {
+                    stmt.clearBatch();
+                }
+
+                public void executeOne(int index) throws SQLException {
+                    setStmtParams(stmt, rows.get(index));
+                    stmt.executeUpdate();
+                }
+            });
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 批量执行多条不同的sql，分批以及失败处理的方式与{@link #batchUpdate(String, List)}相同
+     */
+    public BatchResult batchUpdate(final List<String> sqls) throws SQLException {
         Connection conn = this.connectionPool.getConn(false);
         if (conn == null) {
             throw new RuntimeException("Can not get connection from pool");
         }
 
-        List<Map<String, String>> result = new ArrayList<>();
+        try (final Statement stmt = conn.createStatement()) {
+            return this.executeInBatches(conn, sqls.size(), new Batcher() {
+                public void add(int index) throws SQLException {
+                    stmt.addBatch(sqls.get(index));
+                }
+
+                public void executeBatch() throws SQLException {
+                    stmt.executeBatch();
+                }
+
+                public void clearBatch() throws SQLException {
+                    stmt.clearBatch();
+                }
+
+                public void executeOne(int index) throws SQLException {
+                    stmt.executeUpdate(sqls.get(index));
+                }
+            });
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 批量执行的一个批次，下标是数据在输入中的位置
+     */
+    private interface Batcher {
+        void add(int index) throws SQLException;
+
+        void executeBatch() throws SQLException;
+
+        void clearBatch() throws SQLException;
+
+        void executeOne(int index) throws SQLException;
+    }
+
+    private BatchResult executeInBatches(Connection conn, int total, Batcher batcher) throws SQLException {
+        BatchResult result = new BatchResult(total);
+        for (int from = 0; from < total; from += this.batchSize) {
+            int to = Math.min(total, from + this.batchSize);
+            try {
+                for (int i = from; i < to; i++) {
+                    batcher.add(i);
+                }
+                batcher.executeBatch();
+                conn.commit();
+                result.addSucceeded(to - from);
+                continue;
+            } catch (BatchUpdateException e) {
+                logger.warn("Batch [" + from + ", " + to + ") failed, retry one by one: " + e.getMessage());
+                conn.rollback();
+                batcher.clearBatch();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+
+            for (int i = from; i < to; i++) {
+                try {
+                    batcher.executeOne(i);
+                    conn.commit();
+                    result.addSucceeded(1);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    result.addFailure(i, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在一个事务中执行callback，callback中的所有操作通过{@link Transaction}共用同一个主库连接，
+     * callback正常返回时提交一次，抛出异常时回滚并抛出该异常。发生死锁（1213）时mysql已经回滚了事务，
+     * 等待一段随机时间之后重新执行整个callback，最多重试deadlockRetries次。
+     * 结束之后连接的隔离级别会被恢复，不影响连接池中的其他使用者
+     * @param isolation        {@link Connection#TRANSACTION_READ_COMMITTED}等隔离级别，
+     *                         {@link #DEFAULT_ISOLATION}表示使用连接原来的隔离级别
+     * @param deadlockRetries  发生死锁时的重试次数，为0时不重试
+     * @return callback的返回值
+     */
+    public <T> T executeInTransaction(int isolation, int deadlockRetries, TransactionCallback<T> callback)
+            throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            Connection conn = this.connectionPool.getConn(false);
+            if (conn == null) {
+                throw new RuntimeException("Can not get connection from pool");
+            }
+
+            int originalIsolation = DEFAULT_ISOLATION;
+            Transaction tx = new Transaction(this, conn);
+            try {
+                if (isolation != DEFAULT_ISOLATION && conn.getTransactionIsolation() != isolation) {
+                    originalIsolation = conn.getTransactionIsolation();
+                    conn.setTransactionIsolation(isolation);
+                }
+
+                T res = callback.doInTransaction(tx);
+                tx.commit();
+                return res;
+            } catch (Exception e) {
+                rollbackQuietly(conn);
+                if (attempt >= deadlockRetries || !isDeadlock(e)) {
+                    throw e;
+                }
+
+                logger.warn("Transaction deadlock, retry " + (attempt + 1) + "/" + deadlockRetries);
+                if (!backoff(attempt)) {
+                    throw e;
+                }
+            } finally {
+                tx.finish();
+                if (originalIsolation != DEFAULT_ISOLATION) {
+                    try {
+                        conn.setTransactionIsolation(originalIsolation);
+                    } catch (SQLException e) {
+                        logger.error("Restore transaction isolation error", e);
+                    }
+                }
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * 使用配置的隔离级别和死锁重试次数
+     * @see #executeInTransaction(int, int, TransactionCallback)
+     */
+    public <T> T executeInTransaction(TransactionCallback<T> callback) throws Exception {
+        return this.executeInTransaction(this.transactionIsolation, this.deadlockRetries, callback);
+    }
+
+    private static void rollbackQuietly(Connection conn) {
         try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+            conn.rollback();
+        } catch (SQLException e) {
+            logger.error("Rollback transaction error", e);
+        }
+    }
 
-            int columnCount = rs.getMetaData().getColumnCount();
-            while (rs.next()) {
-                Map<String, String> dataItem = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = rs.getMetaData().getColumnName(i);
-                    String columnValue = rs.getString(i);
-                    dataItem.put(columnName, columnValue);
+    /**
+     * 异常链中有死锁错误时返回true，callback可能把SQLException包装在其他异常中
+     */
+    private static boolean isDeadlock(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                for (SQLException next = (SQLException) cause; next != null; next = next.getNextException()) {
+                    if (next.getErrorCode() == ER_LOCK_DEADLOCK) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 重试之前随机等待，等待时间的上限随重试次数翻倍，避免冲突的事务同时重试再次死锁
+     * @return 等待期间被中断时返回false
+     */
+    private static boolean backoff(int attempt) {
+        long bound = DEADLOCK_BACKOFF_MILLIS << Math.min(attempt, 10);
+        try {
+            Thread.sleep(1 + (long) (Math.random() * bound));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static int parseIsolation(String name) {
+        switch (name.trim().toUpperCase()) {
+            case "READ_UNCOMMITTED":
+                return Connection.TRANSACTION_READ_UNCOMMITTED;
+            case "READ_COMMITTED":
+                return Connection.TRANSACTION_READ_COMMITTED;
+            case "REPEATABLE_READ":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "SERIALIZABLE":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            default:
+                throw new RuntimeException("Invalid " + MYSQL_TRANSACTION_ISOLATION + ": " + name);
+        }
+    }
+
+    private <T> List<T> queryPrepared(String sql, RowMapper<T> mapper, SqlField... params) throws SQLException {
+        Connection conn = this.getReadConn();
+        if (conn == null) {
+            throw new RuntimeException("Can not get connection from pool");
+        }
+
+        List<T> result = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            this.setStmtParams(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                ResultSchema schema = ResultSchema.of(rs.getMetaData());
+                while (rs.next()) {
+                    result.add(mapper.mapRow(rs, schema));
                 }
-                result.add(dataItem);
             }
             return result;
-        } catch (Exception e) {
-            throw e;
+        } finally {
+            conn.close();
+        }
+    }
+
+    private <T> List<T> queryStatement(String sql, RowMapper<T> mapper) throws SQLException {
+        Connection conn = this.getReadConn();
+        if (conn == null) {
+            throw new RuntimeException("Can not get connection from pool");
+        }
+
+        List<T> result = new ArrayList<>();
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSchema schema = ResultSchema.of(rs.getMetaData());
+            while (rs.next()) {
+                result.add(mapper.mapRow(rs, schema));
+            }
+            return result;
         } finally {
             conn.close();
         }
     }
 
+    /**
+     * 执行查询操作，返回的每条数据对应一个{@link Map}，所有数据都被转换成{@link String}，
+     * 客户端使用的时候需要手动转换成对应的类型。每条数据是一个{@link Row}，字段名由所有数据共用，
+     * 遍历顺序与sql中的字段顺序一致，与普通的map一样可以修改、增加和删除字段
+     * @param sql  需要执行的查询语句
+     * @return     返回的结果是一个list，每一条记录是一个map
+     */
+    public List<Map<String, String>> query(String sql) throws SQLException {
+        return this.queryStatement(sql, STRING_ROW_MAPPER);
+    }
+
     /**
      * 执行查询操作，返回的每条数据对应一个{@link List&lt;Pair&gt;}对象，与sql中的查询顺序保持一致,
-     * 其中{@link Pair#value1}表示字段名称，{@link Pair#value2}表示字段值
+     * 其中{@link Pair#value1}表示字段名称，{@link Pair#value2}表示字段值。{@link #query(String)}返回的{@link Row}
+     * 本身也是有序的，而且占用的内存更少，新代码建议使用它
      * @param sql
      * @return
      */
     public List<List<Pair<String, String>>> queryInOrder(String sql) throws SQLException {
-        Connection conn = this.connectionPool.getConn(false);
+        Connection conn = this.getReadConn();
         if (conn == null) {
             throw new RuntimeException("Can not get connection from pool");
         }
 
         List<List<Pair<String, String>>> result = new ArrayList<>();
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-
-            int columnCount = rs.getMetaData().getColumnCount();
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSchema schema = ResultSchema.of(rs.getMetaData());
+            int columnCount = schema.getColumnCount();
             while (rs.next()) {
-                List<Pair<String, String>> dataItems = new LinkedList<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = rs.getMetaData().getColumnName(i);
-                    String columnValue = rs.getString(i);
-                    dataItems.add(new Pair<>(columnName, columnValue));
+                List<Pair<String, String>> dataItems = new ArrayList<>(columnCount);
+                for (int i = 0; i < columnCount; i++) {
+                    dataItems.add(new Pair<>(schema.getColumnName(i), rs.getString(i + 1)));
                 }
                 result.add(dataItems);
             }
             return result;
-        }
-        catch (Exception e) {
-            throw e;
         } finally {
             conn.close();
         }
@@ -189,33 +616,64 @@ public class MysqlHelper {
      * @return
      */
     public List<Map<String, Object>> queryPrimitives(String sql) throws SQLException {
-        Connection conn = this.connectionPool.getConn(false);
+        return this.queryStatement(sql, PRIMITIVE_ROW_MAPPER);
+    }
+
+    /**
+     * 流式查询，结果不会一次性读到内存中，而是在遍历返回的迭代器时逐行读取，适合结果行数很多的查询。
+     * 连接在遍历结束时自动释放，提前结束遍历时需要调用{@link ResultIterator#close()}，建议使用try-with-resources
+     * @param sql        需要执行的查询语句
+     * @param fetchSize  每次从服务端读取的行数，{@link #STREAMING_FETCH_SIZE}表示逐行流式读取；
+     *                   大于0时需要在连接上打开useCursorFetch（配置{@code mysql_fetch_size}时会自动打开）
+     * @param mapper     每一行的转换方式，例如{@link #STRING_ROW_MAPPER}
+     */
+    public <T> ResultIterator<T> iterate(String sql, int fetchSize, RowMapper<T> mapper) throws SQLException {
+        Connection conn = this.getReadConn();
         if (conn == null) {
             throw new RuntimeException("Can not get connection from pool");
         }
 
-        List<Map<String, Object>> result = new ArrayList<>();
+        Statement stmt = null;
         try {
-            Statement stmt = conn.createStatement();
+            stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize);
             ResultSet rs = stmt.executeQuery(sql);
+            return new ResultIterator<>(conn, stmt, rs, mapper);
+        } catch (SQLException e) {
+            ResultIterator.closeQuietly(null, stmt, conn);
+            throw e;
+        }
+    }
 
-            int columnCount = rs.getMetaData().getColumnCount();
-            while (rs.next()) {
-                Map<String, Object> dataItem = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = rs.getMetaData().getColumnName(i);
-                    Object columnValue = rs.getObject(i);
-                    dataItem.put(columnName, columnValue);
-                }
-                result.add(dataItem);
+    /**
+     * 使用配置的fetchSize进行流式查询
+     * @see #iterate(String, int, RowMapper)
+     */
+    public <T> ResultIterator<T> iterate(String sql, RowMapper<T> mapper) throws SQLException {
+        return this.iterate(sql, this.fetchSize, mapper);
+    }
+
+    /**
+     * 流式查询，每读到一行调用一次callback，返回时连接已经被释放
+     * @return 读取的总行数
+     * @throws Exception callback抛出的异常，或者查询时数据库的异常
+     */
+    public <T> long query(String sql, RowMapper<T> mapper, RowCallback<T> callback) throws Exception {
+        long rows = 0;
+        try (ResultIterator<T> it = this.iterate(sql, mapper)) {
+            while (it.hasNext()) {
+                callback.onRow(it.next());
+                rows++;
             }
-            return result;
-        }
-        catch (Exception e) {
-            throw e;
-        } finally {
-            conn.close();
         }
+        return rows;
+    }
+
+    /**
+     * @see #query(String, RowMapper, RowCallback), 每一行转换成与{@link #query(String)}相同的map
+     */
+    public long query(String sql, RowCallback<Map<String, String>> callback) throws Exception {
+        return this.query(sql, STRING_ROW_MAPPER, callback);
     }
 
     /**
@@ -225,14 +683,12 @@ public class MysqlHelper {
      * @return
      */
     public String getOneData(String sql) throws SQLException {
-        Connection conn = this.connectionPool.getConn(false);
+        Connection conn = this.getReadConn();
         if (conn == null) {
             throw new RuntimeException("Can not get connection from pool");
         }
 
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
             int columnCount = rs.getMetaData().getColumnCount();
             if (columnCount == 1 && rs.next()) {
                 return rs.getString(1);
@@ -240,8 +696,6 @@ public class MysqlHelper {
             else {
                 return null;
             }
-        } catch (Exception e) {
-            throw e;
         } finally {
             conn.close();
         }
@@ -276,6 +730,9 @@ public class MysqlHelper {
      * @throws Exception
      */
     public void close() throws Exception {
+        if (this.replicaSet != null) {
+            this.replicaSet.close();
+        }
         this.connectionPool.close();
     }
 
@@ -285,7 +742,61 @@ public class MysqlHelper {
         this.close();
     }
 
-    private Map<String, String> getConfig(JsonHelper helper) {
+    /**
+     * 读操作优先使用从库的连接，没有配置从库或者所有从库都不可用时使用主库
+     */
+    private Connection getReadConn() {
+        if (this.replicaSet != null) {
+            Connection conn = this.replicaSet.getConn();
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return this.connectionPool.getConn(false);
+    }
+
+    private static Row<String> readStringRow(ResultSet rs, ResultSchema schema) throws SQLException {
+        Object[] values = new Object[schema.getColumnCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getString(i + 1);
+        }
+        return new Row<>(schema, values);
+    }
+
+    private static Row<Object> readPrimitiveRow(ResultSet rs, ResultSchema schema) throws SQLException {
+        Object[] values = new Object[schema.getColumnCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getObject(i + 1);
+        }
+        return new Row<>(schema, values);
+    }
+
+    /**
+     * 没有配置时使用默认值的配置项
+     */
+    private static final String[] OPTIONAL_CONFIG_KEYS = {
+            MYSQL_FETCH_SIZE,
+            MYSQL_PREPARED_STATEMENT_CACHE_SIZE,
+            MYSQL_SERVER_PREPARE,
+            MYSQL_BATCH_INSERT_NUMBER,
+            MYSQL_POOL_MAX_WAIT_MILLIS,
+            MYSQL_POOL_VALIDATION_QUERY,
+            MYSQL_POOL_TEST_ON_BORROW,
+            MYSQL_POOL_TEST_WHILE_IDLE,
+            MYSQL_POOL_EVICTION_INTERVAL_MILLIS,
+            MYSQL_POOL_MIN_EVICTABLE_IDLE_MILLIS,
+            MYSQL_POOL_LEAK_DETECTION_MILLIS,
+            MYSQL_REPLICA_URLS,
+            MYSQL_REPLICA_WEIGHTS,
+            MYSQL_REPLICA_BALANCE,
+            MYSQL_REPLICA_HEALTH_CHECK_MILLIS,
+            MYSQL_REPLICA_EJECT_FAILURES,
+            MYSQL_REPLICA_READMIT_SUCCESSES,
+            MYSQL_TRANSACTION_ISOLATION,
+            MYSQL_DEADLOCK_RETRIES
+    };
+
+    private static Map<String, String> getConfig(JsonHelper helper) {
         if (helper == null) {
             throw new RuntimeException("App config helper not set");
         }
@@ -312,6 +823,13 @@ public class MysqlHelper {
         conf.put(MYSQL_POOL_MAX_IDLE, maxPoolIdle);
         conf.put(MYSQL_POOL_MIN_IDLE, minPoolIdle);
 
+        for (String key : OPTIONAL_CONFIG_KEYS) {
+            String value = helper.getStringValue(key);
+            if (value != null) {
+                conf.put(key, value);
+            }
+        }
+
         return conf;
     }
 
@@ -0,0 +1,486 @@
+package org.xsl.common.db.mysql;
+
+import org.apache.log4j.Logger;
+import org.xsl.common.metrics.MetricSet;
+import org.xsl.common.metrics.MetricsReporter;
+import org.xsl.common.metrics.StripedCounter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.xsl.common.config.Constants.*;
+
+/**
+ * 一组只读的从库，每个从库一个{@link ConnectionPool}，读请求按负载均衡策略分配到各个从库：
+ * 1. {@link Balance#LEAST_OUTSTANDING}：选择借出连接数与权重之比最小的从库，慢的从库自然分到更少的请求
+ * 2. {@link Balance#WEIGHTED_ROUND_ROBIN}：按权重的比例平滑轮询，同一个从库分到的请求尽量分散而不是连续
+ *
+ * 后台线程定时检查每个从库，连续失败ejectFailures次（包括读请求获取连接失败）的从库被摘除，
+ * 不再分配请求；被摘除的从库连续readmitSuccesses次检查成功之后重新加入。
+ * 没有后台检查时，被摘除的从库每隔{@value #DEFAULT_HEALTH_CHECK_MILLIS}毫秒分到一次读请求作为检查，
+ * 获取连接成功同样计入重新加入所需的成功次数。
+ * 连接池借满只说明从库忙，不算失败：读请求先跳过借满的从库，都借满时在其中一个上排队等待，
+ * 等待超时也不会摘除从库。
+ * 所有从库都不可用时{@link #getConn()}返回null，由调用方决定是否改读主库
+ */
+public class ReplicaSet {
+    private static final int DEFAULT_WEIGHT = 1;
+    private static final long DEFAULT_HEALTH_CHECK_MILLIS = 5000;
+    private static final int DEFAULT_EJECT_FAILURES = 3;
+    private static final int DEFAULT_READMIT_SUCCESSES = 2;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private static Logger logger = Logger.getLogger(ReplicaSet.class);
+
+    public enum Balance {
+        LEAST_OUTSTANDING, WEIGHTED_ROUND_ROBIN
+    }
+
+    private List<Replica> replicas;
+    private Balance balance;
+    private int ejectFailures;
+    private int readmitSuccesses;
+
+    /**
+     * 没有后台检查时，被摘除的从库在读请求中重新尝试的间隔
+     */
+    private long probeMillis;
+
+    /**
+     * 最小负载相同时从不同的位置开始比较，避免请求总是落在第一个从库上
+     */
+    private AtomicInteger cursor = new AtomicInteger();
+    private ScheduledExecutorService healthChecker;
+
+    private MetricSet metrics = new MetricSet();
+    private StripedCounter primaryFallback = this.metrics.counter("primaryFallback");
+
+    /**
+     * @param pools             每个从库的连接池
+     * @param weights           每个从库的权重，为null时权重都为1
+     * @param balance           负载均衡策略
+     * @param healthCheckMillis 健康检查的间隔，单位毫秒，小于等于0时不做后台检查，被摘除的从库改为在读请求中重新尝试
+     * @param ejectFailures     连续失败多少次之后摘除从库
+     * @param readmitSuccesses  被摘除的从库连续检查成功多少次之后重新加入
+     */
+    public ReplicaSet(List<ConnectionPool> pools, int[] weights, Balance balance, long healthCheckMillis,
+                      int ejectFailures, int readmitSuccesses) {
+        if (pools == null || pools.isEmpty() || balance == null || ejectFailures <= 0 || readmitSuccesses <= 0
+                || (weights != null && weights.length != pools.size())) {
+            throw new RuntimeException("invalid init params");
+        }
+
+        this.replicas = new ArrayList<>(pools.size());
+        for (int i = 0; i < pools.size(); i++) {
+            int weight = weights == null ? DEFAULT_WEIGHT : weights[i];
+            if (weight <= 0) {
+                throw new RuntimeException("invalid init params");
+            }
+            this.replicas.add(new Replica(i, pools.get(i), weight));
+        }
+        this.balance = balance;
+        this.ejectFailures = ejectFailures;
+        this.readmitSuccesses = readmitSuccesses;
+
+        if (healthCheckMillis > 0) {
+            this.startHealthCheck(healthCheckMillis);
+        }
+        else {
+            this.probeMillis = DEFAULT_HEALTH_CHECK_MILLIS;
+        }
+    }
+
+    /**
+     * 通过主库的配置创建从库，从库的账号以及连接池参数与主库相同，参数有：
+     *        1. {@code mysql_replica_urls}      （必须）   从库的连接url，多个url用逗号分隔
+     *        2. {@code mysql_replica_weights}   （可选）   每个从库的权重，用逗号分隔，默认都为1
+     *        3. {@code mysql_replica_balance}   （可选）   least_outstanding或者weighted_round_robin，默认值：least_outstanding
+     *        4. {@code mysql_replica_health_check_millis}（可选）健康检查的间隔，默认值：5000
+     *        5. {@code mysql_replica_eject_failures}（可选）连续失败多少次之后摘除，默认值：3
+     *        6. {@code mysql_replica_readmit_successes}（可选）连续成功多少次之后重新加入，默认值：2
+     */
+    public ReplicaSet(Map<String, String> config) {
+        this(createPools(config), parseWeights(config.get(MYSQL_REPLICA_WEIGHTS)),
+                config.get(MYSQL_REPLICA_BALANCE) == null ? Balance.LEAST_OUTSTANDING
+                        : Balance.valueOf(config.get(MYSQL_REPLICA_BALANCE).trim().toUpperCase()),
+                getLong(config, MYSQL_REPLICA_HEALTH_CHECK_MILLIS, DEFAULT_HEALTH_CHECK_MILLIS),
+                (int) getLong(config, MYSQL_REPLICA_EJECT_FAILURES, DEFAULT_EJECT_FAILURES),
+                (int) getLong(config, MYSQL_REPLICA_READMIT_SUCCESSES, DEFAULT_READMIT_SUCCESSES));
+    }
+
+    /**
+     * 从可用的从库中获取一个只读连接，连接不上的从库记一次失败并换下一个从库，连接池借满的从库先跳过，
+     * 可用的从库都借满时在第一个借满的从库上等待。所有从库都不可用或者等待超时时返回null
+     */
+    public Connection getConn() {
+        if (this.healthChecker == null) {
+            Connection conn = this.probeEjected();
+            if (conn != null) {
+                return conn;
+            }
+        }
+
+        Replica saturated = null;
+        for (int attempt = 0; attempt < this.replicas.size(); attempt++) {
+            Replica replica = this.choose();
+            if (replica == null) {
+                break;
+            }
+            if (replica.pool.isSaturated()) {
+                if (saturated == null) {
+                    saturated = replica;
+                }
+                continue;
+            }
+
+            Connection conn = this.borrow(replica);
+            if (conn != null) {
+                return conn;
+            }
+        }
+
+        if (saturated != null) {
+            Connection conn = this.borrow(saturated);
+            if (conn != null) {
+                return conn;
+            }
+        }
+
+        this.primaryFallback.increment();
+        return null;
+    }
+
+    /**
+     * 连接池耗尽时返回null但不记失败，其他错误记一次失败
+     */
+    private Connection borrow(Replica replica) {
+        try {
+            Connection conn = replica.pool.borrow(true);
+            if (conn != null) {
+                replica.reads.increment();
+                return conn;
+            }
+        } catch (SQLException e) {
+            if (ConnectionPool.isExhausted(e)) {
+                replica.exhausted.increment();
+                return null;
+            }
+            logger.warn("Get connection from replica " + replica.index + " error", e);
+        }
+        this.markFailure(replica);
+        return null;
+    }
+
+    /**
+     * 没有后台检查时，从到了重试时间的被摘除的从库中获取连接，成功时计一次检查成功；
+     * 每个从库每个间隔只由一个读请求重试
+     */
+    private Connection probeEjected() {
+        long now = System.currentTimeMillis();
+        for (Replica replica : this.replicas) {
+            if (replica.healthy || now < replica.nextProbeMillis) {
+                continue;
+            }
+            synchronized (replica) {
+                if (replica.healthy || now < replica.nextProbeMillis) {
+                    continue;
+                }
+                replica.nextProbeMillis = now + this.probeMillis;
+            }
+
+            Connection conn = this.borrow(replica);
+            if (conn != null) {
+                this.markSuccess(replica);
+                return conn;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按负载均衡策略选择一个可用的从库，没有可用的从库时返回null
+     */
+    private Replica choose() {
+        return this.balance == Balance.LEAST_OUTSTANDING ? this.leastOutstanding() : this.weightedRoundRobin();
+    }
+
+    private Replica leastOutstanding() {
+        int size = this.replicas.size();
+        int start = (this.cursor.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        Replica best = null;
+        long bestActive = 0;
+        for (int i = 0; i < size; i++) {
+            Replica replica = this.replicas.get((start + i) % size);
+            if (!replica.healthy) {
+                continue;
+            }
+
+            /**
+             * active / weight < bestActive / best.weight，交叉相乘避免除法
+             */
+            long active = replica.pool.getNumActive();
+            if (best == null || active * best.weight < bestActive * replica.weight) {
+                best = replica;
+                bestActive = active;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * nginx的平滑加权轮询：每次所有可用从库的current加上自身的权重，选出current最大的从库，
+     * 然后把它的current减去总权重
+     */
+    private synchronized Replica weightedRoundRobin() {
+        Replica best = null;
+        int totalWeight = 0;
+        for (Replica replica : this.replicas) {
+            if (!replica.healthy) {
+                continue;
+            }
+            replica.current += replica.weight;
+            totalWeight += replica.weight;
+            if (best == null || replica.current > best.current) {
+                best = replica;
+            }
+        }
+
+        if (best != null) {
+            best.current -= totalWeight;
+        }
+        return best;
+    }
+
+    /**
+     * 检查所有从库一次，正常情况下由后台线程定时调用
+     */
+    public void checkHealth() {
+        for (Replica replica : this.replicas) {
+            /**
+             * 连接都借出去了说明从库正在正常处理请求，这一次不检查
+             */
+            if (replica.pool.isSaturated()) {
+                continue;
+            }
+            if (this.isAlive(replica)) {
+                this.markSuccess(replica);
+            }
+            else {
+                this.markFailure(replica);
+            }
+        }
+    }
+
+    private boolean isAlive(Replica replica) {
+        Connection conn;
+        try {
+            conn = replica.pool.borrow(true);
+        } catch (SQLException e) {
+            return ConnectionPool.isExhausted(e);
+        }
+        if (conn == null) {
+            return false;
+        }
+
+        try {
+            return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            logger.warn("Check replica " + replica.index + " error", e);
+            return false;
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private void markFailure(Replica replica) {
+        synchronized (replica) {
+            replica.successes = 0;
+            replica.failures++;
+            if (replica.healthy && replica.failures >= this.ejectFailures) {
+                replica.healthy = false;
+                replica.ejected.increment();
+                logger.warn("Eject replica " + replica.index + " after " + replica.failures + " failures");
+            }
+            if (!replica.healthy) {
+                replica.nextProbeMillis = System.currentTimeMillis() + this.probeMillis;
+            }
+        }
+    }
+
+    private void markSuccess(Replica replica) {
+        synchronized (replica) {
+            replica.failures = 0;
+            if (replica.healthy) {
+                return;
+            }
+
+            replica.successes++;
+            if (replica.successes >= this.readmitSuccesses) {
+                replica.healthy = true;
+                replica.successes = 0;
+                logger.info("Readmit replica " + replica.index);
+            }
+        }
+    }
+
+    /**
+     * 从库的数量，包括被摘除的从库
+     */
+    public int size() {
+        return this.replicas.size();
+    }
+
+    /**
+     * 当前可用的从库数量
+     */
+    public int getHealthyCount() {
+        int count = 0;
+        for (Replica replica : this.replicas) {
+            if (replica.healthy) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isHealthy(int index) {
+        return this.replicas.get(index).healthy;
+    }
+
+    public ConnectionPool getConnectionPool(int index) {
+        return this.replicas.get(index).pool;
+    }
+
+    /**
+     * 所有从库都不可用、改读主库的次数，以及每个从库的replica.i.healthy、replica.i.reads、
+     * replica.i.ejected、replica.i.exhausted（连接池借满、等待超时的次数）和replica.i.active
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> res = this.metrics.snapshot();
+        for (Replica replica : this.replicas) {
+            String prefix = "replica." + replica.index + ".";
+            res.put(prefix + "healthy", replica.healthy ? 1L : 0L);
+            res.put(prefix + "reads", replica.reads.sum());
+            res.put(prefix + "ejected", replica.ejected.sum());
+            res.put(prefix + "exhausted", replica.exhausted.sum());
+            res.put(prefix + "active", (long) replica.pool.getNumActive());
+        }
+        return res;
+    }
+
+    public void report(String source, MetricsReporter reporter) {
+        reporter.report(source, this.snapshot());
+    }
+
+    /**
+     * 停止健康检查并关闭所有从库的连接池
+     */
+    public void close() throws Exception {
+        if (this.healthChecker != null) {
+            this.healthChecker.shutdownNow();
+        }
+
+        Exception error = null;
+        for (Replica replica : this.replicas) {
+            try {
+                replica.pool.close();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void startHealthCheck(long intervalMillis) {
+        this.healthChecker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mysql-replica-health-check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.healthChecker.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    checkHealth();
+                } catch (Throwable e) {
+                    logger.error("Check replica health error", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static List<ConnectionPool> createPools(Map<String, String> config) {
+        String urls = config.get(MYSQL_REPLICA_URLS);
+        if (urls == null || urls.trim().isEmpty()) {
+            throw new RuntimeException("Config [" + MYSQL_REPLICA_URLS + "] is null");
+        }
+
+        List<ConnectionPool> pools = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            Map<String, String> replicaConfig = new HashMap<>(config);
+            replicaConfig.put(MYSQL_CON_URL, url.trim());
+            pools.add(new ConnectionPool(replicaConfig));
+        }
+        return Collections.unmodifiableList(pools);
+    }
+
+    private static int[] parseWeights(String weights) {
+        if (weights == null || weights.trim().isEmpty()) {
+            return null;
+        }
+
+        String[] items = weights.split(",");
+        int[] res = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            res[i] = Integer.parseInt(items[i].trim());
+        }
+        return res;
+    }
+
+    private static long getLong(Map<String, String> config, String key, long defaultValue) {
+        String value = config.get(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * 单个从库，healthy为false时不分配请求；failures、successes和nextProbeMillis在该对象的锁中修改，
+     * current在{@link #weightedRoundRobin()}的锁中修改
+     */
+    private static final class Replica {
+        private final int index;
+        private final ConnectionPool pool;
+        private final int weight;
+        private final StripedCounter reads = new StripedCounter();
+        private final StripedCounter ejected = new StripedCounter();
+        private final StripedCounter exhausted = new StripedCounter();
+
+        private volatile boolean healthy = true;
+        private int failures;
+        private int successes;
+        private int current;
+        private volatile long nextProbeMillis;
+
+        Replica(int index, ConnectionPool pool, int weight) {
+            this.index = index;
+            this.pool = pool;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.xsl.common.db.mysql;
+
+import org.apache.log4j.Logger;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 流式查询的结果，每次只从服务端读取一行（或者一批，取决于fetchSize），内存占用与结果的总行数无关。
+ * 遍历结束或者调用{@link #close()}时释放ResultSet、Statement，并把连接还给连接池。
+ *
+ * 使用mysql的流式读取（fetchSize为{@link Integer#MIN_VALUE}）时，在遍历结束之前同一个连接不能执行其他语句；
+ * 提前close时驱动会把剩余的数据读完再释放连接，结果很大时应该在sql中加上限制条件。
+ * 遍历过程中数据库的异常会被包装成{@link RuntimeException}抛出
+ */
+public class ResultIterator<T> implements Iterator<T>, Closeable {
+    private static Logger logger = Logger.getLogger(ResultIterator.class);
+
+    private Connection conn;
+    private Statement stmt;
+    private ResultSet rs;
+    private RowMapper<T> mapper;
+    private ResultSchema schema;
+
+    private boolean fetched;
+    private boolean hasNext;
+    private boolean closed;
+
+    ResultIterator(Connection conn, Statement stmt, ResultSet rs, RowMapper<T> mapper) throws SQLException {
+        this.conn = conn;
+        this.stmt = stmt;
+        this.rs = rs;
+        this.mapper = mapper;
+        this.schema = ResultSchema.of(rs.getMetaData());
+    }
+
+    public ResultSchema getSchema() {
+        return this.schema;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.closed) {
+            return false;
+        }
+        if (!this.fetched) {
+            try {
+                this.hasNext = this.rs.next();
+            } catch (SQLException e) {
+                this.close();
+                throw new RuntimeException("Read next row error", e);
+            }
+            this.fetched = true;
+            if (!this.hasNext) {
+                this.close();
+            }
+        }
+        return this.hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        this.fetched = false;
+        try {
+            return this.mapper.mapRow(this.rs, this.schema);
+        } catch (SQLException e) {
+            this.close();
+            throw new RuntimeException("Map row error", e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 释放结果集以及连接，可以重复调用
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        closeQuietly(this.rs, this.stmt, this.conn);
+    }
+
+    static void closeQuietly(ResultSet rs, Statement stmt, Connection conn) {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("Close result set error", e);
+        } finally {
+            try {
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (SQLException e) {
+                logger.warn("Release connection error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.xsl.common.db.mysql;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 查询结果的字段信息，每个结果只从{@link ResultSetMetaData}中读取一次，所有行共用。
+ * 字段名经过intern，不同查询返回的相同字段名是同一个对象。
+ *
+ * 有重名字段时（例如join的两张表都有id），按名字查找得到的是最后一个，与把一行放进HashMap的效果相同
+ */
+public final class ResultSchema {
+    private final String[] columnNames;
+    private final Map<String, Integer> indexes;
+
+    /**
+     * 按名字能够访问到的字段的下标，也就是去掉被同名字段覆盖的那些，按字段顺序排列
+     */
+    private final int[] visible;
+
+    public ResultSchema(String[] columnNames) {
+        this.columnNames = new String[columnNames.length];
+        this.indexes = new HashMap<>(columnNames.length * 2);
+        for (int i = 0; i < columnNames.length; i++) {
+            this.columnNames[i] = columnNames[i].intern();
+            this.indexes.put(this.columnNames[i], i);
+        }
+
+        this.visible = new int[this.indexes.size()];
+        int n = 0;
+        for (int i = 0; i < columnNames.length; i++) {
+            if (this.indexes.get(this.columnNames[i]) == i) {
+                this.visible[n++] = i;
+            }
+        }
+    }
+
+    public static ResultSchema of(ResultSetMetaData meta) throws SQLException {
+        String[] names = new String[meta.getColumnCount()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = meta.getColumnName(i + 1);
+        }
+        return new ResultSchema(names);
+    }
+
+    public int getColumnCount() {
+        return this.columnNames.length;
+    }
+
+    /**
+     * @param index  从0开始的字段下标
+     */
+    public String getColumnName(int index) {
+        return this.columnNames[index];
+    }
+
+    /**
+     * 字段的下标，从0开始，不存在时返回-1
+     */
+    public int indexOf(Object columnName) {
+        Integer index = this.indexes.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    int[] visibleColumns() {
+        return this.visible;
+    }
+}
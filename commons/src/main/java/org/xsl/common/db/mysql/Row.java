@@ -0,0 +1,167 @@
+package org.xsl.common.db.mysql;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 查询结果中的一行，只保存字段值数组，字段名保存在所有行共用的{@link ResultSchema}中。
+ * 可以当作字段名到字段值的{@link Map}使用，遍历顺序与sql中的字段顺序一致；
+ * 也可以通过{@link #get(int)}按下标访问。
+ *
+ * 与原来返回的HashMap一样可以任意修改：修改已有字段的值直接写入数组；第一次增加或者删除字段时，
+ * 整行复制到一个{@link LinkedHashMap}中，之后的所有操作都在这个map上进行
+ */
+public final class Row<V> extends AbstractMap<String, V> {
+    private final ResultSchema schema;
+    private final Object[] values;
+
+    /**
+     * 发生过结构修改之后的数据，为null时数据在values中
+     */
+    private Map<String, V> copy;
+
+    public Row(ResultSchema schema, Object[] values) {
+        if (schema.getColumnCount() != values.length) {
+            throw new IllegalArgumentException("Column count mismatch");
+        }
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public ResultSchema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * @param index  从0开始的字段下标，发生过结构修改之后返回该字段名当前的值
+     */
+    public V get(int index) {
+        if (this.copy != null) {
+            return this.copy.get(this.schema.getColumnName(index));
+        }
+        return (V) this.values[index];
+    }
+
+    @Override
+    public V get(Object key) {
+        if (this.copy != null) {
+            return this.copy.get(key);
+        }
+        int index = this.schema.indexOf(key);
+        return index < 0 ? null : (V) this.values[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (this.copy != null) {
+            return this.copy.containsKey(key);
+        }
+        return this.schema.indexOf(key) >= 0;
+    }
+
+    @Override
+    public V put(String key, V value) {
+        int index = this.copy == null ? this.schema.indexOf(key) : -1;
+        if (index < 0) {
+            return this.mutable().put(key, value);
+        }
+        V old = (V) this.values[index];
+        this.values[index] = value;
+        return old;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (this.copy == null && this.schema.indexOf(key) < 0) {
+            return null;
+        }
+        return this.mutable().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        this.mutable().clear();
+    }
+
+    @Override
+    public int size() {
+        if (this.copy != null) {
+            return this.copy.size();
+        }
+        return this.schema.visibleColumns().length;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            public Iterator<Entry<String, V>> iterator() {
+                if (copy != null) {
+                    return copy.entrySet().iterator();
+                }
+                return new EntryIterator();
+            }
+
+            public int size() {
+                return Row.this.size();
+            }
+        };
+    }
+
+    /**
+     * 第一次结构修改时把整行复制出来
+     */
+    private Map<String, V> mutable() {
+        if (this.copy == null) {
+            int[] columns = this.schema.visibleColumns();
+            Map<String, V> map = new LinkedHashMap<>(columns.length * 2);
+            for (int index : columns) {
+                map.put(this.schema.getColumnName(index), (V) this.values[index]);
+            }
+            this.copy = map;
+        }
+        return this.copy;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, V>> {
+        private int[] columns = schema.visibleColumns();
+        private int next = 0;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.columns.length;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int index = this.columns[this.next++];
+            this.last = index;
+            return new SimpleEntry<String, V>(schema.getColumnName(index), (V) values[index]) {
+                public V setValue(V value) {
+                    super.setValue(value);
+                    return put(getKey(), value);
+                }
+            };
+        }
+
+        /**
+         * 删除之后数据已经复制出来，剩下的字段仍然从values中读取，它们与复制出来的值相同
+         */
+        @Override
+        public void remove() {
+            if (this.last < 0) {
+                throw new IllegalStateException();
+            }
+            mutable().remove(schema.getColumnName(this.last));
+            this.last = -1;
+        }
+    }
+}
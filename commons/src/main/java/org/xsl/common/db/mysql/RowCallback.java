@@ -0,0 +1,8 @@
+package org.xsl.common.db.mysql;
+
+/**
+ * 流式查询的回调，每读到一行调用一次，回调抛出异常时查询终止，连接被释放
+ */
+public interface RowCallback<T> {
+    void onRow(T row) throws Exception;
+}
@@ -0,0 +1,12 @@
+package org.xsl.common.db.mysql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 把{@link ResultSet}当前行转换成一个对象，流式查询时每读到一行调用一次，
+ * schema是这个结果的字段信息，每个结果只读取一次
+ */
+public interface RowMapper<T> {
+    T mapRow(ResultSet rs, ResultSchema schema) throws SQLException;
+}
@@ -0,0 +1,175 @@
+package org.xsl.common.db.mysql;
+
+import org.xsl.common.db.mysql.MysqlHelper.SqlField;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个事务中的所有操作共用同一个主库连接，由{@link MysqlHelper#executeInTransaction(TransactionCallback)}创建，
+ * 回调正常返回时提交一次，抛出异常时回滚，不需要也不能手动提交或者关闭连接。
+ *
+ * 不关心影响行数的语句可以通过{@link #addBatch(String)}延迟执行，下一次访问数据库（查询、更新、
+ * 设置或回滚savepoint）或者提交之前一次发送给服务端，连续的多条语句只有一次网络往返
+ */
+public class Transaction {
+    private MysqlHelper helper;
+    private Connection conn;
+    private List<String> pending = new ArrayList<>();
+
+    Transaction(MysqlHelper helper, Connection conn) {
+        this.helper = helper;
+        this.conn = conn;
+    }
+
+    /**
+     * 当前事务使用的连接，用于执行本类没有提供的操作，不要在连接上提交、回滚或者关闭
+     */
+    public Connection getConnection() throws SQLException {
+        this.flush();
+        return this.conn;
+    }
+
+    /**
+     * 延迟执行一条insert, update, delete语句
+     */
+    public void addBatch(String sql) {
+        this.checkActive();
+        this.pending.add(sql);
+    }
+
+    /**
+     * 把延迟执行的语句一次发送给服务端
+     * @return 每条语句影响的行数
+     */
+    public int[] flush() throws SQLException {
+        this.checkActive();
+        if (this.pending.isEmpty()) {
+            return new int[0];
+        }
+
+        try (Statement stmt = this.conn.createStatement()) {
+            for (String sql : this.pending) {
+                stmt.addBatch(sql);
+            }
+            this.pending.clear();
+            return stmt.executeBatch();
+        }
+    }
+
+    /**
+     * 在事务中查询，能读到本事务之前写入的数据，返回结果与{@link MysqlHelper#query(String)}相同
+     */
+    public List<Map<String, String>> query(String sql, SqlField... params) throws SQLException {
+        return this.select(sql, MysqlHelper.STRING_ROW_MAPPER, params);
+    }
+
+    /**
+     * @see #query(String, SqlField...), 返回结果与{@link MysqlHelper#queryPrimitives(String)}相同
+     */
+    public List<Map<String, Object>> queryPrimitives(String sql, SqlField... params) throws SQLException {
+        return this.select(sql, MysqlHelper.PRIMITIVE_ROW_MAPPER, params);
+    }
+
+    /**
+     * 查询结果只有一条数据并且只有一列时返回它的值，否则返回null
+     */
+    public String getOneData(String sql, SqlField... params) throws SQLException {
+        this.flush();
+        try (PreparedStatement stmt = this.conn.prepareStatement(sql)) {
+            this.helper.setStmtParams(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.getMetaData().getColumnCount() == 1 && rs.next()) {
+                    return rs.getString(1);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 立即执行一条insert, update, delete语句
+     * @return 影响的行数
+     */
+    public int update(String sql, SqlField... params) throws SQLException {
+        this.flush();
+        try (PreparedStatement stmt = this.conn.prepareStatement(sql)) {
+            this.helper.setStmtParams(stmt, params);
+            return stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 同一条sql的多组参数一次执行，任何一组失败时抛出异常，整个事务回滚。
+     * 与{@link MysqlHelper#batchUpdate(String, List)}不同，这里不会分批提交
+     * @return 每组参数影响的行数
+     */
+    public int[] batchUpdate(String sql, List<SqlField[]> rows) throws SQLException {
+        this.flush();
+        try (PreparedStatement stmt = this.conn.prepareStatement(sql)) {
+            for (SqlField[] row : rows) {
+                this.helper.setStmtParams(stmt, row);
+                stmt.addBatch();
+            }
+            return stmt.executeBatch();
+        }
+    }
+
+    public Savepoint setSavepoint(String name) throws SQLException {
+        this.flush();
+        return this.conn.setSavepoint(name);
+    }
+
+    /**
+     * 撤销savepoint之后的所有操作，事务继续
+     */
+    public void rollback(Savepoint savepoint) throws SQLException {
+        this.flush();
+        this.conn.rollback(savepoint);
+    }
+
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        this.flush();
+        this.conn.releaseSavepoint(savepoint);
+    }
+
+    void commit() throws SQLException {
+        this.flush();
+        this.conn.commit();
+    }
+
+    /**
+     * 事务结束之后连接已经还给连接池，不能再通过这个对象访问数据库
+     */
+    void finish() {
+        this.conn = null;
+        this.pending.clear();
+    }
+
+    private void checkActive() {
+        if (this.conn == null) {
+            throw new IllegalStateException("Transaction already finished");
+        }
+    }
+
+    private <T> List<T> select(String sql, RowMapper<T> mapper, SqlField... params) throws SQLException {
+        this.flush();
+        List<T> result = new ArrayList<>();
+        try (PreparedStatement stmt = this.conn.prepareStatement(sql)) {
+            this.helper.setStmtParams(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                ResultSchema schema = ResultSchema.of(rs.getMetaData());
+                while (rs.next()) {
+                    result.add(mapper.mapRow(rs, schema));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,9 @@
+package org.xsl.common.db.mysql;
+
+/**
+ * 在一个事务中执行的操作，所有数据库操作都通过参数中的{@link Transaction}完成。
+ * 发生死锁时整个回调会被重新执行，回调中不要有数据库之外、不能重复执行的副作用
+ */
+public interface TransactionCallback<T> {
+    T doInTransaction(Transaction tx) throws Exception;
+}
@@ -0,0 +1,259 @@
+package org.xsl.common.db.mysql.dump;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 记录一轮导出中已经完成的分段，进程退出之后重新启动时，没有完成的一轮导出从断点继续，
+ * 只查询还没有完成的区间。文件是只追加写的文本，每行一条记录，字段用tab分隔：
+ * 1. round  name  fullLoad  lower  upper   一轮导出开始，导出的区间是[lower, upper)
+ * 2. done   lower upper                    分段[lower, upper)已经完成
+ * 3. cursor key1 key2 ...                  按主键分页时，已经导出的最后一条数据的主键，值经过url编码
+ * 4. finish                                这一轮导出已经全部完成
+ *
+ * 每条记录写入之后马上flush到操作系统，进程崩溃不会丢失已经写入的记录；
+ * 末尾写到一半的记录在读取时被忽略，对应的分段会被重新导出
+ */
+public class DumpCheckpoint implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DumpCheckpoint.class);
+
+    private static final String ROUND = "round";
+    private static final String DONE = "done";
+    private static final String CURSOR = "cursor";
+    private static final String FINISH = "finish";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File file;
+    private String name;
+    private Writer writer;
+
+    /**
+     * @param file  断点文件
+     * @param name  导出任务的名称，例如表名加分区字段，文件中的名称不同时不会从断点继续
+     */
+    public DumpCheckpoint(File file, String name) {
+        if (file == null || name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("invalid init params");
+        }
+
+        this.file = file;
+        this.name = name.replaceAll("\\s", "_");
+    }
+
+    /**
+     * 读取上一次没有完成的一轮导出
+     * @return 文件不存在、名称不同或者上一轮已经完成时返回null
+     */
+    public synchronized Round load() throws IOException {
+        if (!this.file.exists()) {
+            return null;
+        }
+
+        /**
+         * 没有以换行结尾的最后一行是写到一半的记录
+         */
+        boolean complete = true;
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+            if (raf.length() > 0) {
+                raf.seek(raf.length() - 1);
+                complete = raf.read() == '\n';
+            }
+        }
+
+        Round round = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(this.file), UTF8))) {
+            String line = reader.readLine();
+            for (String next; line != null; line = next) {
+                next = reader.readLine();
+                if (next == null && !complete) {
+                    logger.warn("Ignore broken checkpoint record: " + line);
+                    break;
+                }
+
+                String[] items = line.split("\t", -1);
+                try {
+                    if (ROUND.equals(items[0]) && items.length == 5) {
+                        if (!this.name.equals(items[1])) {
+                            return null;
+                        }
+                        round = new Round(Boolean.parseBoolean(items[2]),
+                                Long.parseLong(items[3]), Long.parseLong(items[4]));
+                    }
+                    else if (DONE.equals(items[0]) && items.length == 3 && round != null) {
+                        round.completed.add(new Segmentation(Long.parseLong(items[1]), Long.parseLong(items[2])));
+                    }
+                    else if (CURSOR.equals(items[0]) && items.length > 1 && round != null) {
+                        List<String> cursor = new ArrayList<>(items.length - 1);
+                        for (int i = 1; i < items.length; i++) {
+                            cursor.add(URLDecoder.decode(items[i], "UTF-8"));
+                        }
+                        round.cursor = cursor;
+                    }
+                    else if (FINISH.equals(items[0]) && items.length == 1) {
+                        round = null;
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Ignore broken checkpoint record: " + line);
+                }
+            }
+        }
+        return round;
+    }
+
+    /**
+     * 开始新的一轮导出，清空文件中原来的记录
+     */
+    public synchronized void begin(boolean fullLoad, long lower, long upper) throws IOException {
+        this.closeWriter();
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, false), UTF8));
+        this.write(ROUND + "\t" + this.name + "\t" + fullLoad + "\t" + lower + "\t" + upper);
+    }
+
+    /**
+     * 从{@link #load()}读到的一轮导出继续，后面的记录追加到文件末尾
+     */
+    public synchronized void resume() throws IOException {
+        this.closeWriter();
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), UTF8));
+
+        /**
+         * 上一次退出时最后一行可能只写了一半，先换行，避免和新的记录拼在一起
+         */
+        this.write("");
+    }
+
+    /**
+     * 开始新的一轮按主键分页的导出，这种导出没有区间，只记录{@link #saveCursor(List)}
+     */
+    public void begin(boolean fullLoad) throws IOException {
+        this.begin(fullLoad, 0, 0);
+    }
+
+    /**
+     * 记录已经导出的最后一条数据的主键，重新启动时从它的下一条开始
+     */
+    public synchronized void saveCursor(List<String> key) throws IOException {
+        StringBuilder sb = new StringBuilder(CURSOR);
+        for (String value : key) {
+            sb.append('\t').append(URLEncoder.encode(value, "UTF-8"));
+        }
+        this.write(sb.toString());
+    }
+
+    public synchronized void complete(Segmentation segmentation) throws IOException {
+        this.write(DONE + "\t" + segmentation.getLowerBound() + "\t" + segmentation.getUpperBound());
+    }
+
+    public synchronized void finish() throws IOException {
+        this.write(FINISH);
+        this.closeWriter();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.closeWriter();
+    }
+
+    private void write(String line) throws IOException {
+        if (this.writer == null) {
+            throw new IllegalStateException("begin or resume must be called first");
+        }
+        this.writer.write(line);
+        this.writer.write('\n');
+        this.writer.flush();
+    }
+
+    private void closeWriter() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    /**
+     * 一轮导出的区间以及其中已经完成的分段
+     */
+    public static class Round {
+        private boolean fullLoad;
+        private long lower;
+        private long upper;
+        private List<Segmentation> completed = new ArrayList<>();
+        private List<String> cursor;
+
+        Round(boolean fullLoad, long lower, long upper) {
+            this.fullLoad = fullLoad;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public boolean isFullLoad() {
+            return fullLoad;
+        }
+
+        public long getLower() {
+            return lower;
+        }
+
+        public long getUpper() {
+            return upper;
+        }
+
+        public List<Segmentation> getCompleted() {
+            return Collections.unmodifiableList(completed);
+        }
+
+        /**
+         * 按主键分页时最后一次记录的主键，没有记录时返回null
+         */
+        public List<String> getCursor() {
+            return cursor;
+        }
+
+        /**
+         * 还没有完成的区间，按下边界排序，相邻的已完成分段之间的空隙合并成一个区间
+         */
+        public List<Segmentation> remaining() {
+            List<Segmentation> done = new ArrayList<>(this.completed);
+            Collections.sort(done, new Comparator<Segmentation>() {
+                public int compare(Segmentation a, Segmentation b) {
+                    return Long.compare(a.getLowerBound(), b.getLowerBound());
+                }
+            });
+
+            List<Segmentation> res = new ArrayList<>();
+            long cursor = this.lower;
+            for (Segmentation segmentation : done) {
+                if (segmentation.getLowerBound() > cursor) {
+                    res.add(new Segmentation(cursor, Math.min(segmentation.getLowerBound(), this.upper)));
+                }
+                cursor = Math.max(cursor, segmentation.getUpperBound());
+                if (cursor >= this.upper) {
+                    break;
+                }
+            }
+            if (cursor < this.upper) {
+                res.add(new Segmentation(cursor, this.upper));
+            }
+            return res;
+        }
+    }
+}
@@ -1,8 +1,18 @@
 package org.xsl.common.db.mysql.dump;
 
+import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xsl.common.db.mysql.MysqlHelper;
+import org.xsl.common.string.StringUtils;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -15,11 +25,52 @@ import static org.xsl.common.config.Constants.*;
 /**
  * 主要完成的功能是定期导出某个表的全量数据，导出的数据放入到内存的缓存中，
  * 可以调用接口{@link #getData()}方法获取数据，详细配置请参考：*
+ *
+ * 每一轮导出把分区字段的区间切成多个分段，由多个线程并行查询：
+ * 1. 分段的大小根据查询的耗时自动调整，使每次查询的耗时接近{@code mysql_dump_target_query_millis}
+ * 2. 查询线程之间不再固定休眠，对数据库的压力由{@code mysql_dump_max_qps}和
+ *    {@code mysql_dump_max_rows_per_second}限制，没有配置时不限制
+ * 3. 查询失败的分段拆成两半，等待一段指数增长的时间之后重试，不会被丢弃
+ * 4. 配置了{@code mysql_dump_checkpoint_file}时，已经完成的分段记录在本地文件中，进程重启之后
+ *    没有完成的一轮导出从断点继续。数据放入内存队列之后分段就算完成，队列中还没有被取走的数据在进程退出时会丢失
+ *
+ * {@code mysql_dump_mode}为keyset时不使用分区字段，而是按主键{@code mysql_primary_key_fields}顺序分页：
+ * where (pk) > (上一页最后一条数据的pk) order by pk limit n，每页的条数固定，每次查询都是主键索引上的一次定位，
+ * 导出之前也不需要count。全量导出从头开始，其他时候从上一轮结束的位置继续，只能读到新插入的、主键更大的数据，
+ * 已有数据的修改要等下一次全量导出。断点文件中记录的是最后一页的主键
  * Created by xiongsenlin on 15/9/27.
  */
 public class MysqlReader implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(MysqlReader.class);
-    private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private static final ThreadLocal<SimpleDateFormat> sdf = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        }
+    };
+
+    /**
+     * 一轮导出开始时按照每个分段大约这么多条数据来切分
+     */
+    private static final int INITIAL_SEGMENT_ROWS = 3000;
+
+    /**
+     * 单个分段的数据条数超过该值时缩小分段，限制一次查询占用的内存
+     */
+    private static final int MAX_SEGMENT_ROWS = 50000;
+
+    private static final int DEFAULT_DATA_LIST_CAPACITY = 50000;
+    private static final int DEFAULT_KEYSET_BATCH_SIZE = 3000;
+    private static final String KEYSET_MODE = "keyset";
+    private static final long DEFAULT_TARGET_QUERY_MILLIS = 500;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 60 * 1000;
+
+    /**
+     * 没有可以执行的分段、但是其他线程的分段还没有完成时，等待重试分段的最长时间
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
 
     private MysqlHelper mysqlHelper;
 
@@ -69,17 +120,41 @@ public class MysqlReader implements Runnable {
      */
     private String querySql;
 
+    /**
+     * 按主键分页时第一页以及后面各页的查询语句，不是按主键分页时为null
+     */
+    private String keysetFirstSql;
+    private String keysetNextSql;
+    private String keysetLastSql;
+    private int keysetBatchSize;
+    private String[] keyTypes;
+
     /**
      * 表示要读取的字段，如果不配置则读取所有的字段
      */
     private Set<String> readFields;
 
+    /**
+     * 分段查询的目标耗时，单位毫秒
+     */
+    private long targetQueryMillis = DEFAULT_TARGET_QUERY_MILLIS;
+
+    /**
+     * 查询次数以及读取条数的限速，为null时不限速
+     */
+    private RateLimiter queryLimiter;
+    private RateLimiter rowLimiter;
+
+    /**
+     * 为null时不记录断点
+     */
+    private DumpCheckpoint checkpoint;
+
     private AtomicInteger procDataNumber;
     private CountDownLatch countDownLatch;
     private ExecutorService executorService;
 
-    private BlockingQueue<Segmentation> querySegmentation = new LinkedBlockingQueue<>();
-    private BlockingQueue<Map<String, String>> dataList = new LinkedBlockingQueue<Map<String, String>>();
+    private BlockingQueue<Map<String, String>> dataList;
 
     public MysqlReader(Map<String, String> config) {
         this.mysqlHelper = new MysqlHelper(config);
@@ -128,6 +203,14 @@ public class MysqlReader implements Runnable {
         this.querySql = "select " + fields + " from " + tableName + " where "
                 + partitionField + " >= {0} and " + partitionField + " < {1}";
 
+        if (KEYSET_MODE.equalsIgnoreCase(config.get(MYSQL_DUMP_MODE))) {
+            int batchSize = DEFAULT_KEYSET_BATCH_SIZE;
+            if (config.get(MYSQL_DUMP_BATCH_SIZE) != null) {
+                batchSize = Integer.parseInt(config.get(MYSQL_DUMP_BATCH_SIZE).trim());
+            }
+            this.initKeysetSql(fields, batchSize);
+        }
+
         if (config.get(MYSQL_ALL_LOAD_FREQUENCY) != null) {
             float day = Float.parseFloat(config.get(MYSQL_ALL_LOAD_FREQUENCY).trim());
             this.readInterval = (int) (day * DAY_MILLISECONDS);
@@ -154,6 +237,28 @@ public class MysqlReader implements Runnable {
                     config.get(MYSQL_FETCH_DATA_THREADS.trim()));
         }
 
+        int capacity = DEFAULT_DATA_LIST_CAPACITY;
+        if (config.get(MYSQL_JOB_QUEUE_LENGTH) != null) {
+            capacity = Integer.parseInt(config.get(MYSQL_JOB_QUEUE_LENGTH).trim());
+        }
+        this.dataList = new LinkedBlockingQueue<>(capacity);
+
+        if (config.get(MYSQL_DUMP_TARGET_QUERY_MILLIS) != null) {
+            this.targetQueryMillis = Long.parseLong(config.get(MYSQL_DUMP_TARGET_QUERY_MILLIS).trim());
+        }
+        if (config.get(MYSQL_DUMP_MAX_QPS) != null) {
+            this.queryLimiter = RateLimiter.create(Double.parseDouble(config.get(MYSQL_DUMP_MAX_QPS).trim()));
+        }
+        if (config.get(MYSQL_DUMP_MAX_ROWS_PER_SECOND) != null) {
+            this.rowLimiter = RateLimiter.create(
+                    Double.parseDouble(config.get(MYSQL_DUMP_MAX_ROWS_PER_SECOND).trim()));
+        }
+        if (config.get(MYSQL_DUMP_CHECKPOINT_FILE) != null) {
+            String name = this.keysetFirstSql == null ? this.tableName + "." + this.partitionField
+                    : KEYSET_MODE + ":" + this.tableName + "." + StringUtils.join(this.primaryKesFields, ",");
+            this.checkpoint = new DumpCheckpoint(new File(config.get(MYSQL_DUMP_CHECKPOINT_FILE).trim()), name);
+        }
+
         this.executorService = Executors.newFixedThreadPool(this.threadPoolSize + 1);
         this.executorService.execute(this);
     }
@@ -172,10 +277,47 @@ public class MysqlReader implements Runnable {
         return null;
     }
 
+    /**
+     * 按主键分页的查询语句，组合主键使用行比较，同时加上第一个主键字段的范围条件，
+     * 老版本的mysql不会对行比较做范围优化，有了这个条件之后仍然是主键索引上的范围扫描：
+     * select ... where pk1 >= ? and (pk1, pk2) > (?, ?) order by pk1, pk2 limit n
+     */
+    private void initKeysetSql(String fields, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Config [" + MYSQL_DUMP_BATCH_SIZE + "] is invalid");
+        }
+
+        String keys = StringUtils.join(this.primaryKesFields, ", ");
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < this.primaryKesFields.size(); i++) {
+            placeholders.append(", ?");
+        }
+
+        String where;
+        if (this.primaryKesFields.size() == 1) {
+            where = keys + " > ?";
+        }
+        else {
+            where = this.primaryKesFields.get(0) + " >= ? and (" + keys + ") > (" + placeholders + ")";
+        }
+
+        String orderBy = " order by " + keys + " limit " + batchSize;
+        this.keysetFirstSql = "select " + fields + " from " + this.tableName + orderBy;
+        this.keysetNextSql = "select " + fields + " from " + this.tableName + " where " + where + orderBy;
+        this.keysetLastSql = "select " + keys + " from " + this.tableName
+                + " order by " + StringUtils.join(this.primaryKesFields, " desc, ") + " desc limit 1";
+        this.keysetBatchSize = batchSize;
+    }
+
     /**
      * 调度现成，定期执行一次全量查询，其它时间执行增量导入
      */
     public void run() {
+        if (this.keysetFirstSql != null) {
+            this.runKeyset();
+            return;
+        }
+
         String format1 = "select {0}({1}) from {2}";
         String format2 = "select count(*) from {0} where {1} >= {2} and {3} <= {4}";
 
@@ -186,10 +328,21 @@ public class MysqlReader implements Runnable {
         String min = null;
         List<String> preMinValues = new ArrayList<>();
 
+        /**
+         * 上一次进程退出时没有完成的一轮导出
+         */
+        DumpCheckpoint.Round unfinished = this.loadCheckpoint();
+
         int dumpTimes = 0;
         while (++dumpTimes <= this.fullDumpTimes) {
             boolean fullLoad = false;
-            if (preTime != null) {
+            if (unfinished != null) {
+                fullLoad = unfinished.isFullLoad();
+                if (fullLoad || preTime == null) {
+                    preTime = System.currentTimeMillis();
+                }
+            }
+            else if (preTime != null) {
                 long now = System.currentTimeMillis();
                 if (now - preTime >= this.readInterval && this.checkInterval()) {
                     preTime = now;
@@ -203,14 +356,21 @@ public class MysqlReader implements Runnable {
             }
 
             /**
-             * 下边界要视情况而定，如果是全量导入，则取数据库中的最小值，如果不是全量导入，则为上次全量导入的最大值
+             * 下边界要视情况而定，如果是全量导入，则取数据库中的最小值，如果不是全量导入，则为上次全量导入的最大值。
+             * 从断点继续时使用上一次的区间
              */
             String max, count;
             try {
-                if (fullLoad) {
-                    min = this.mysqlHelper.getOneData(minSql);
+                if (unfinished != null) {
+                    min = this.fromPosition(unfinished.getLower());
+                    max = this.fromPosition(unfinished.getUpper() - this.positionUnit());
+                }
+                else {
+                    if (fullLoad) {
+                        min = this.mysqlHelper.getOneData(minSql);
+                    }
+                    max = this.mysqlHelper.getOneData(maxSql);
                 }
-                max = this.mysqlHelper.getOneData(maxSql);
 
                 if (min == null) {
                     min = this.getDefaultMaxMinValue("min", fullLoad);
@@ -233,29 +393,43 @@ public class MysqlReader implements Runnable {
 
             String preProcessTimeStr = null;
             if (preTime != null) {
-                preProcessTimeStr = sdf.format(new Date(preTime));
+                preProcessTimeStr = sdf.get().format(new Date(preTime));
             }
-            logger.info("[[[ Mysql reader thread heart beat, fullLoad: " + fullLoad
+            logger.info("[[[ Mysql reader thread heart beat, fullLoad: " + fullLoad + " resume: " + (unfinished != null)
                     + " min: " + min + " max: " + max + " dataCount: " + count + " preProcessTime: " + preProcessTimeStr + " ]]]");
 
-            this.getSegmentation(min, max, count);
-            logger.info("[[[ jobListSize: " + this.querySegmentation.size() + " ]]]");
-
-            int threadNumber = (this.querySegmentation.size() + 49) / 50;
-            threadNumber = (threadNumber > this.threadPoolSize ? this.threadPoolSize : threadNumber);
+            DumpRound round;
+            try {
+                round = this.createRound(unfinished, fullLoad, min, max, count);
+            } catch (Exception e) {
+                logger.error("Create dump round error, min: " + min + " max: " + max, e);
+                unfinished = null;
+                continue;
+            }
+            unfinished = null;
 
+            long start = System.currentTimeMillis();
             this.procDataNumber = new AtomicInteger(0);
-            this.countDownLatch = new CountDownLatch(threadNumber);
-
-            for (int i = 0; i < threadNumber; i++) {
-                this.executorService.execute(new QueryRunner());
+            if (round != null) {
+                int threadNumber = (int) Math.min(this.threadPoolSize, Math.max(1, round.estimatedSegments));
+                this.countDownLatch = new CountDownLatch(threadNumber);
+                for (int i = 0; i < threadNumber; i++) {
+                    this.executorService.execute(new QueryRunner(round));
+                }
             }
 
             try {
-                this.countDownLatch.await();
+                if (round != null) {
+                    this.countDownLatch.await();
+                    round.finish();
+                    logger.info("[[[ Dump round finished, segments: " + round.segments.get() + " retries: "
+                            + round.retries.get() + " processedDataNumber: " + this.procDataNumber
+                            + " cost: " + (System.currentTimeMillis() - start) + "ms ]]]");
+                }
                 Thread.sleep(15000);
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                Thread.currentThread().interrupt();
+                break;
             }
 
             if (preMinValues.size() == 0) {
@@ -281,6 +455,251 @@ public class MysqlReader implements Runnable {
         }
 
         this.executorService.shutdownNow();
+        if (this.checkpoint != null) {
+            try {
+                this.checkpoint.close();
+            } catch (IOException e) {
+                logger.error("Close dump checkpoint error", e);
+            }
+        }
+    }
+
+    /**
+     * 按主键分页导出，全量导出从第一页开始，其他时候从上一轮最后一条数据的下一条开始。
+     * 第一轮不是全量导出时从表中当前最大的主键之后开始，只导出之后新增的数据
+     */
+    private void runKeyset() {
+        Long preTime = null;
+        List<String> cursor = null;
+        boolean started = false;
+        DumpCheckpoint.Round unfinished = this.loadCheckpoint();
+        if (unfinished != null && unfinished.getCursor() != null
+                && unfinished.getCursor().size() != this.primaryKesFields.size()) {
+            logger.warn("Primary key fields changed, ignore checkpoint cursor " + unfinished.getCursor());
+            unfinished = null;
+        }
+
+        int dumpTimes = 0;
+        while (++dumpTimes <= this.fullDumpTimes) {
+            boolean fullLoad = false;
+            long now = System.currentTimeMillis();
+            if (unfinished != null) {
+                fullLoad = unfinished.isFullLoad();
+                cursor = unfinished.getCursor();
+                if (fullLoad || preTime == null) {
+                    preTime = now;
+                }
+            }
+            else if (preTime == null ? this.checkInterval() : now - preTime >= this.readInterval && this.checkInterval()) {
+                fullLoad = true;
+                cursor = null;
+                preTime = now;
+            }
+
+            /**
+             * cursor为null的增量导出会从第一页开始，变成一次全量导出。之后的轮次cursor仍为null说明表一直是空的，
+             * 从第一页开始读到的都是新增的数据
+             */
+            if (!started && !fullLoad && unfinished == null) {
+                try {
+                    cursor = this.lastKey();
+                } catch (Exception e) {
+                    logger.error("Get last primary key error, skip this round", e);
+                    if (!this.pause()) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+            started = true;
+
+            logger.info("[[[ Mysql reader thread heart beat, mode: keyset, fullLoad: " + fullLoad
+                    + " resume: " + (unfinished != null) + " cursor: " + cursor + " ]]]");
+
+            long start = System.currentTimeMillis();
+            this.procDataNumber = new AtomicInteger(0);
+            try {
+                if (this.checkpoint != null) {
+                    if (unfinished != null) {
+                        this.checkpoint.resume();
+                    }
+                    else {
+                        this.checkpoint.begin(fullLoad);
+                        if (cursor != null) {
+                            this.checkpoint.saveCursor(cursor);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Save dump checkpoint error", e);
+            }
+            unfinished = null;
+
+            /**
+             * 没有完成的一轮不记录finish，下一轮从断点文件中最后一次记录的cursor继续
+             */
+            try {
+                if (this.keyTypes == null) {
+                    this.keyTypes = this.resolveKeyTypes();
+                }
+                cursor = this.scanKeyset(cursor);
+
+                if (this.checkpoint != null) {
+                    this.checkpoint.finish();
+                }
+                logger.info("[[[ Dump round finished, cursor: " + cursor + " processedDataNumber: "
+                        + this.procDataNumber + " cost: " + (System.currentTimeMillis() - start) + "ms ]]]");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Dump by primary key error, cursor: " + cursor, e);
+                unfinished = this.loadCheckpoint();
+            }
+
+            if (!this.pause()) {
+                break;
+            }
+        }
+
+        this.executorService.shutdownNow();
+        if (this.checkpoint != null) {
+            try {
+                this.checkpoint.close();
+            } catch (IOException e) {
+                logger.error("Close dump checkpoint error", e);
+            }
+        }
+    }
+
+    /**
+     * 两轮导出之间等待15秒，被中断时返回false
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(15000);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 表中当前最大的主键，表为空时返回null
+     */
+    private List<String> lastKey() throws SQLException {
+        List<Map<String, String>> dataItems = this.mysqlHelper.query(this.keysetLastSql);
+        return dataItems.isEmpty() ? null : this.keyOf(dataItems.get(0));
+    }
+
+    /**
+     * 从cursor之后开始逐页读取，直到读到不满一页为止。查询失败时等待一段指数增长的时间之后重试当前页
+     * @param cursor 为null时从第一页开始
+     * @return 最后一条数据的主键，没有读到数据时返回传入的cursor
+     */
+    private List<String> scanKeyset(List<String> cursor) throws InterruptedException {
+        int retryTimes = 0;
+        while (true) {
+            if (this.queryLimiter != null) {
+                this.queryLimiter.acquire();
+            }
+
+            List<Map<String, String>> dataItems;
+            try {
+                if (cursor == null) {
+                    dataItems = this.mysqlHelper.query(this.keysetFirstSql);
+                }
+                else {
+                    dataItems = this.mysqlHelper.query(this.keysetNextSql, this.keysetParams(cursor));
+                }
+            } catch (Exception e) {
+                retryTimes++;
+                long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(retryTimes - 1, 16));
+                logger.error("Query page after " + cursor + " error, retry times: " + retryTimes
+                        + " retry after " + backoff + "ms", e);
+                Thread.sleep(backoff);
+                continue;
+            }
+            retryTimes = 0;
+
+            if (dataItems.isEmpty()) {
+                return cursor;
+            }
+            if (this.rowLimiter != null) {
+                this.rowLimiter.acquire(dataItems.size());
+            }
+            for (Map<String, String> item : dataItems) {
+                this.dataList.put(item);
+            }
+            this.procDataNumber.addAndGet(dataItems.size());
+
+            cursor = this.keyOf(dataItems.get(dataItems.size() - 1));
+            if (this.checkpoint != null) {
+                try {
+                    this.checkpoint.saveCursor(cursor);
+                } catch (IOException e) {
+                    logger.error("Save dump checkpoint error, cursor: " + cursor, e);
+                }
+            }
+            if (dataItems.size() < this.keysetBatchSize) {
+                return cursor;
+            }
+        }
+    }
+
+    private List<String> keyOf(Map<String, String> dataItem) {
+        List<String> key = new ArrayList<>(this.primaryKesFields.size());
+        for (String field : this.primaryKesFields) {
+            String value = dataItem.get(field);
+            if (value == null) {
+                throw new RuntimeException("Primary key field [" + field + "] is null or not in the result");
+            }
+            key.add(value);
+        }
+        return key;
+    }
+
+    /**
+     * 与{@link #initKeysetSql(String, int)}中的占位符对应，组合主键时第一个字段出现两次
+     */
+    private MysqlHelper.SqlField[] keysetParams(List<String> cursor) {
+        List<MysqlHelper.SqlField> params = new ArrayList<>();
+        if (cursor.size() > 1) {
+            params.add(new MysqlHelper.SqlField(cursor.get(0), this.keyTypes[0]));
+        }
+        for (int i = 0; i < cursor.size(); i++) {
+            params.add(new MysqlHelper.SqlField(cursor.get(i), this.keyTypes[i]));
+        }
+        return params.toArray(new MysqlHelper.SqlField[params.size()]);
+    }
+
+    /**
+     * 主键字段的参数类型，整数字段按long设置参数，其他字段按string设置，由mysql转换成字段的类型
+     * （datetime字段与字符串比较时字符串会被转换成时间）。整数字段如果按字符串比较会被转换成浮点数，
+     * 超过2^53的bigint主键会比较出错
+     */
+    private String[] resolveKeyTypes() throws SQLException {
+        String sql = "select " + StringUtils.join(this.primaryKesFields, ", ") + " from " + this.tableName + " limit 0";
+        try (Connection conn = this.mysqlHelper.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSetMetaData meta = rs.getMetaData();
+            String[] types = new String[this.primaryKesFields.size()];
+            for (int i = 0; i < types.length; i++) {
+                switch (meta.getColumnType(i + 1)) {
+                    case Types.TINYINT:
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                    case Types.BIGINT:
+                        types[i] = "long";
+                        break;
+                    default:
+                        types[i] = "string";
+                }
+            }
+            return types;
+        }
     }
 
     private boolean checkInterval() {
@@ -297,63 +716,94 @@ public class MysqlReader implements Runnable {
         return false;
     }
 
+    private DumpCheckpoint.Round loadCheckpoint() {
+        if (this.checkpoint == null) {
+            return null;
+        }
+
+        try {
+            return this.checkpoint.load();
+        } catch (IOException e) {
+            logger.error("Load dump checkpoint error, start a new round", e);
+            return null;
+        }
+    }
+
     /**
-     * 根据数据量的大小，将任务分成多个小块，每次执行1000条数据的查询任务
-     * @param min
-     * @param max
-     * @param count
+     * 创建一轮导出，区间为[min, max]，初始的分段大小按照每个分段大约{@link #INITIAL_SEGMENT_ROWS}条数据计算
+     * @param unfinished 不为null时只导出其中还没有完成的区间
+     * @return 没有需要导出的数据时返回null
      */
-    private void getSegmentation(String min, String max, String count) {
-        List<String> result = new ArrayList<String>();
-
-        int total;
+    private DumpRound createRound(DumpCheckpoint.Round unfinished, boolean fullLoad, String min, String max,
+                                  String count) throws ParseException, IOException {
+        long total;
         if (count == null) {
             total = 3000 * 3000;
         } else {
-            total = Integer.parseInt(count);
+            total = Long.parseLong(count);
         }
 
-        if (total == 0) {
-            return;
+        long lower = this.toPosition(min);
+        long upper = this.toPosition(max) + this.positionUnit();
+        if (total == 0 || upper <= lower) {
+            if (unfinished != null && this.checkpoint != null) {
+                this.checkpoint.resume();
+                this.checkpoint.finish();
+            }
+            return null;
         }
 
-        int segments = (total + 2999) / 3000;
-        if (this.partitionFieldType.equals("int")) {
-            int start = Integer.parseInt(min);
-            int end = Integer.parseInt(max);
-            int step = (end - start) / segments;
-            for (int i = start; i < end && step >= 0; i += step) {
-                result.add(i + "");
-            }
-            if (result.size() == 0) {
-                result.add(start + "");
+        long segments = (total + INITIAL_SEGMENT_ROWS - 1) / INITIAL_SEGMENT_ROWS;
+        long width = Math.max(this.positionUnit(), (upper - lower) / segments);
+
+        List<Segmentation> ranges;
+        if (unfinished != null) {
+            ranges = unfinished.remaining();
+            if (this.checkpoint != null) {
+                this.checkpoint.resume();
             }
-            result.add(end + 1 + "");
         }
-
         else {
-            try {
-                long start = sdf.parse(min).getTime();
-                long end = sdf.parse(max).getTime();
-                long step = (end - start) / segments;
-                for (long i = start; i < end && step >= 0; i += step) {
-                    result.add("'" + sdf.format(new Date(i)) + "'");
-                }
-                if (result.size() == 0) {
-                    result.add("'" + sdf.format(new Date(start)) + "'");
-                }
-                result.add("'" + sdf.format(new Date(end + 1000)) + "'");
-            } catch (ParseException e) {
-                logger.error("Date parse error", e);
+            ranges = new ArrayList<>();
+            ranges.add(new Segmentation(lower, upper));
+            if (this.checkpoint != null) {
+                this.checkpoint.begin(fullLoad, lower, upper);
             }
         }
 
-        for (int i = 1; i < result.size(); i++) {
-            String lower = result.get(i - 1);
-            String upper = result.get(i);
-            Segmentation segmentation = new Segmentation(lower, upper);
-            this.querySegmentation.add(segmentation);
+        logger.info("[[[ ranges: " + ranges + " initialSegmentWidth: " + width + " ]]]");
+        return new DumpRound(ranges, width, segments);
+    }
+
+    /**
+     * 分区字段的最小单位，int是1，datetime是1秒
+     */
+    private long positionUnit() {
+        return this.partitionFieldType.equals("int") ? 1 : 1000;
+    }
+
+    private long toPosition(String value) throws ParseException {
+        if (this.partitionFieldType.equals("int")) {
+            return Long.parseLong(value.trim());
+        }
+        return sdf.get().parse(value).getTime();
+    }
+
+    private String fromPosition(long position) {
+        if (this.partitionFieldType.equals("int")) {
+            return String.valueOf(position);
+        }
+        return sdf.get().format(new Date(position));
+    }
+
+    /**
+     * 分区字段的值在sql中的写法
+     */
+    private String toLiteral(long position) {
+        if (this.partitionFieldType.equals("int")) {
+            return String.valueOf(position);
         }
+        return "'" + sdf.get().format(new Date(position)) + "'";
     }
 
     /**
@@ -398,49 +848,204 @@ public class MysqlReader implements Runnable {
     }
 
     /**
-     * 根据分段，实际执行查询任务的现成类
+     * 一轮导出的状态，查询线程从还没有切分的区间中按当前的分段大小切出新的分段，
+     * 失败的分段放入重试队列，所有区间都切分完并且所有分段都完成之后这一轮结束
      */
-    private class QueryRunner implements Runnable {
-        private final int sleepTime = 5000;
+    private class DumpRound {
+        private LinkedList<Segmentation> ranges;
+        private long width;
+        private long estimatedSegments;
 
-        public void run() {
-            while (true) {
+        /**
+         * 已经切分出来但是还没有完成的分段数量，包括正在等待重试的分段
+         */
+        private AtomicInteger outstanding = new AtomicInteger();
+        private AtomicInteger segments = new AtomicInteger();
+        private AtomicInteger retries = new AtomicInteger();
+        private DelayQueue<Segmentation> retryQueue = new DelayQueue<>();
+
+        DumpRound(List<Segmentation> ranges, long width, long estimatedSegments) {
+            this.ranges = new LinkedList<>(ranges);
+            this.width = width;
+            this.estimatedSegments = estimatedSegments;
+        }
+
+        /**
+         * 按当前的分段大小切出一个新的分段，区间都已经切分完时返回null
+         */
+        synchronized Segmentation next() {
+            Segmentation range = this.ranges.peekFirst();
+            if (range == null) {
+                return null;
+            }
+
+            long lower = range.getLowerBound();
+            long upper = Math.min(range.getUpperBound(), lower + this.width);
+            if (upper >= range.getUpperBound()) {
+                this.ranges.removeFirst();
+            }
+            else {
+                range.setLowerBound(upper);
+            }
+
+            this.outstanding.incrementAndGet();
+            return new Segmentation(lower, upper);
+        }
+
+        /**
+         * 根据分段的查询耗时调整之后的分段大小，每次最多放大一倍或者缩小一半
+         */
+        synchronized void adapt(long costMillis, int rows) {
+            double factor = (double) targetQueryMillis / Math.max(1, costMillis);
+            if (rows > MAX_SEGMENT_ROWS) {
+                factor = Math.min(factor, (double) MAX_SEGMENT_ROWS / rows);
+            }
+            factor = Math.max(0.5, Math.min(2, factor));
+            this.width = Math.max(positionUnit(), (long) (this.width * factor));
+        }
+
+        void complete(Segmentation segmentation) {
+            this.segments.incrementAndGet();
+            if (checkpoint != null) {
                 try {
-                    if (dataList.size() >= 50000) {
-                        Thread.sleep(1000);
-                        continue;
-                    }
+                    checkpoint.complete(segmentation);
+                } catch (IOException e) {
+                    logger.error("Save dump checkpoint error, segmentation: " + segmentation, e);
+                }
+            }
+            this.outstanding.decrementAndGet();
+        }
+
+        /**
+         * 失败的分段拆成两半放入重试队列，等待时间随重试次数指数增长，分段永远不会被丢弃
+         */
+        void fail(Segmentation segmentation, Exception e) {
+            int retryTimes = segmentation.getRetryTimes() + 1;
+            long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(retryTimes - 1, 16));
+            this.retries.incrementAndGet();
+            logger.error("Query segmentation " + segmentation + " error, retry times: " + retryTimes
+                    + " retry after " + backoff + "ms", e);
 
-                    Segmentation segmentation = querySegmentation.poll(3, TimeUnit.SECONDS);
+            synchronized (this) {
+                this.width = Math.max(positionUnit(), this.width / 2);
+            }
+
+            long lower = segmentation.getLowerBound();
+            long upper = segmentation.getUpperBound();
+            long middle = lower + (upper - lower) / 2;
+            if (middle - lower >= positionUnit()) {
+                this.outstanding.incrementAndGet();
+                this.retry(new Segmentation(lower, middle), retryTimes, backoff);
+                this.retry(new Segmentation(middle, upper), retryTimes, backoff);
+            }
+            else {
+                this.retry(segmentation, retryTimes, backoff);
+            }
+        }
+
+        void retry(Segmentation segmentation, int retryTimes, long backoff) {
+            segmentation.setRetryTimes(retryTimes);
+            segmentation.delay(backoff);
+            this.retryQueue.add(segmentation);
+        }
+
+        /**
+         * 区间都已经切分完并且所有分段都已经完成
+         */
+        synchronized boolean isDone() {
+            return this.ranges.isEmpty() && this.outstanding.get() == 0;
+        }
+
+        void finish() {
+            if (checkpoint != null) {
+                try {
+                    checkpoint.finish();
+                } catch (IOException e) {
+                    logger.error("Finish dump checkpoint error", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 根据分段，实际执行查询任务的现成类，查询的频率只受限速的限制，
+     * 内存队列满了的时候阻塞在放入数据上，直到数据被取走
+     */
+    private class QueryRunner implements Runnable {
+        private DumpRound round;
+
+        QueryRunner(DumpRound round) {
+            this.round = round;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Segmentation segmentation = this.round.retryQueue.poll();
                     if (segmentation == null) {
-                        countDownLatch.countDown();
-                        break;
+                        segmentation = this.round.next();
                     }
-
-                    String sql = MessageFormat.format(querySql, segmentation.getLowerBound(), segmentation.getUpperBound());
-                    try {
-                        List<Map<String, String>> dataItems = mysqlHelper.query(sql);
-                        if (dataItems.size() > 0) {
-                            procDataNumber.addAndGet(dataItems.size());
-                            dataList.addAll(dataItems);
-                        }
-                    } catch (Exception e) {
-                        if (segmentation.getRetryTimes() < 3) {
-                            segmentation.setRetryTimes(segmentation.getRetryTimes() + 1);
-                            querySegmentation.add(segmentation);
+                    if (segmentation == null) {
+                        if (this.round.isDone()) {
+                            break;
                         }
-                        else {
-                            logger.info("Query mysql error", e);
+
+                        /**
+                         * 剩下的分段正在被其他线程查询或者在等待重试
+                         */
+                        segmentation = this.round.retryQueue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (segmentation == null) {
+                            continue;
                         }
                     }
 
-                    logger.info("[[[ jobLeft: " + querySegmentation.size() +" querySql: " + sql
-                            + " processedDataNumber: " + procDataNumber + " dataListSize: " + dataList.size() + " ]]]");
+                    this.query(segmentation);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                countDownLatch.countDown();
+            }
+        }
+
+        private void query(Segmentation segmentation) throws InterruptedException {
+            String sql = MessageFormat.format(querySql, toLiteral(segmentation.getLowerBound()),
+                    toLiteral(segmentation.getUpperBound()));
+            if (queryLimiter != null) {
+                queryLimiter.acquire();
+            }
+
+            long start = System.nanoTime();
+            List<Map<String, String>> dataItems;
+            try {
+                dataItems = mysqlHelper.query(sql);
+            } catch (Exception e) {
+                this.round.fail(segmentation, e);
+                return;
+            }
+            long cost = (System.nanoTime() - start) / 1000000;
+            this.round.adapt(cost, dataItems.size());
 
-                    Thread.sleep(sleepTime);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+            if (rowLimiter != null && dataItems.size() > 0) {
+                rowLimiter.acquire(dataItems.size());
+            }
+            try {
+                for (Map<String, String> item : dataItems) {
+                    dataList.put(item);
                 }
+            } catch (InterruptedException e) {
+                /**
+                 * 分段没有完成，交给其他线程重新查询，已经放入队列的数据会重复
+                 */
+                this.round.retry(segmentation, segmentation.getRetryTimes(), 0);
+                throw e;
+            }
+            procDataNumber.addAndGet(dataItems.size());
+            this.round.complete(segmentation);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("[[[ querySql: " + sql + " rows: " + dataItems.size() + " cost: " + cost
+                        + "ms processedDataNumber: " + procDataNumber + " dataListSize: " + dataList.size() + " ]]]");
             }
         }
     }
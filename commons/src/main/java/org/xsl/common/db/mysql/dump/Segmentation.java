@@ -1,33 +1,40 @@
 package org.xsl.common.db.mysql.dump;
 
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
 /**
+ * 分区字段上的一个左闭右开区间[lowerBound, upperBound)，int类型的分区字段是字段的值，
+ * datetime类型的分区字段是毫秒时间戳。查询失败的分段在{@link java.util.concurrent.DelayQueue}中
+ * 等到readyAt之后重新执行
  * Created by xiongsenlin on 15/9/27.
  */
-public class Segmentation {
+public class Segmentation implements Delayed {
     private int retryTimes = 0;
-    private String lowerBound;
-    private String upperBound;
+    private long lowerBound;
+    private long upperBound;
+    private long readyAt;
 
     public Segmentation() {}
 
-    public Segmentation(String lower, String upper) {
+    public Segmentation(long lower, long upper) {
         this.lowerBound = lower;
         this.upperBound = upper;
     }
 
-    public String getLowerBound() {
+    public long getLowerBound() {
         return lowerBound;
     }
 
-    public void setLowerBound(String lowerBound) {
+    public void setLowerBound(long lowerBound) {
         this.lowerBound = lowerBound;
     }
 
-    public String getUpperBound() {
+    public long getUpperBound() {
         return upperBound;
     }
 
-    public void setUpperBound(String upperBound) {
+    public void setUpperBound(long upperBound) {
         this.upperBound = upperBound;
     }
 
@@ -38,4 +45,27 @@ public class Segmentation {
     public void setRetryTimes(int retryTimes) {
         this.retryTimes = retryTimes;
     }
+
+    /**
+     * 分段在delayMillis毫秒之后才能被重新执行
+     */
+    public void delay(long delayMillis) {
+        this.readyAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(this.readyAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+        long diff = this.getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + this.lowerBound + ", " + this.upperBound + ")";
+    }
 }
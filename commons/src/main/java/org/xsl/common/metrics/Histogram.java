@@ -0,0 +1,87 @@
+package org.xsl.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按2的幂分桶的直方图，第0个桶记录0，第i个桶记录[2^(i-1), 2^i)范围内的值，记录一次只需要几次原子操作，
+ * 分位数是所在桶的上界，误差不超过一倍，用于观察耗时等数据的量级和分布
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private StripedCounter count = new StripedCounter();
+    private StripedCounter sum = new StripedCounter();
+    private AtomicLong max = new AtomicLong(0);
+
+    /**
+     * @param value  非负数，负数按0处理
+     */
+    public void update(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        this.buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        this.count.increment();
+        this.sum.add(value);
+
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long n = this.count.sum();
+        return n == 0 ? 0 : (double) this.sum.sum() / n;
+    }
+
+    /**
+     * @param quantile  0到1之间，例如0.99
+     * @return 分位数所在桶的上界
+     */
+    public long getQuantile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(upperBound(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
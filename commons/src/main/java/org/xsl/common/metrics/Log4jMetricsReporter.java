@@ -0,0 +1,24 @@
+package org.xsl.common.metrics;
+
+import org.apache.log4j.Logger;
+import java.util.Map;
+
+/**
+ * 把指标以一行日志的形式输出
+ */
+public class Log4jMetricsReporter implements MetricsReporter {
+    private static Logger logger = Logger.getLogger(Log4jMetricsReporter.class);
+
+    @Override
+    public void report(String source, Map<String, Long> metrics) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(source);
+        for (Map.Entry<String, Long> entry : metrics.entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        logger.info(sb.toString());
+    }
+}
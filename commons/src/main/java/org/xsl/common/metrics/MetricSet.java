@@ -0,0 +1,78 @@
+package org.xsl.common.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一组命名的计数器和直方图，计数器和直方图在第一次获取的时候创建。
+ * 快照只是把各个计数器的值读一遍，不加锁，可以频繁调用
+ */
+public class MetricSet {
+    private Map<String, StripedCounter> counters = new LinkedHashMap<>();
+    private Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    public synchronized StripedCounter counter(String name) {
+        StripedCounter counter = this.counters.get(name);
+        if (counter == null) {
+            counter = new StripedCounter();
+            this.counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public synchronized Histogram histogram(String name) {
+        Histogram histogram = this.histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            this.histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * 加入一个在别处创建的直方图，已经存在同名的直方图时替换掉
+     */
+    public synchronized void register(String name, Histogram histogram) {
+        this.histograms.put(name, histogram);
+    }
+
+    /**
+     * 计数器输出当前值，直方图输出name.count、name.mean、name.p50、name.p99以及name.max
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, StripedCounter> counters;
+        Map<String, Histogram> histograms;
+        synchronized (this) {
+            counters = new LinkedHashMap<>(this.counters);
+            histograms = new LinkedHashMap<>(this.histograms);
+        }
+
+        Map<String, Long> res = new LinkedHashMap<>();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            res.put(name + ".count", histogram.getCount());
+            res.put(name + ".mean", Math.round(histogram.getMean()));
+            res.put(name + ".p50", histogram.getQuantile(0.5));
+            res.put(name + ".p99", histogram.getQuantile(0.99));
+            res.put(name + ".max", histogram.getMax());
+        }
+        return res;
+    }
+
+    public void report(String source, MetricsReporter reporter) {
+        reporter.report(source, this.snapshot());
+    }
+
+    public synchronized void reset() {
+        for (StripedCounter counter : this.counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : this.histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
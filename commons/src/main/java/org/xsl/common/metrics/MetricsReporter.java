@@ -0,0 +1,14 @@
+package org.xsl.common.metrics;
+
+import java.util.Map;
+
+/**
+ * 指标的输出方式，例如写日志、发送到监控系统等
+ */
+public interface MetricsReporter {
+    /**
+     * @param source   指标的来源，例如缓存的名字
+     * @param metrics  指标名到指标值的映射，按注册顺序排列
+     */
+    void report(String source, Map<String, Long> metrics);
+}
@@ -0,0 +1,62 @@
+package org.xsl.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器，作用与java8中的LongAdder相同：计数分散到多个槽中，不同线程大概率落在不同的槽上，
+ * 高并发时不会在同一个原子变量上竞争；读取时把所有槽的值加起来。每个槽独占一个缓存行，避免伪共享
+ */
+public class StripedCounter {
+    /**
+     * 相邻两个槽之间间隔8个long，也就是64字节
+     */
+    private static final int PADDING = 8;
+
+    private AtomicLongArray cells;
+    private int mask;
+
+    public StripedCounter() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    public void add(long delta) {
+        this.cells.getAndAdd(this.index(), delta);
+    }
+
+    public void increment() {
+        this.add(1);
+    }
+
+    /**
+     * 所有槽的和，并发更新时返回的不是某一时刻的精确值
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i <= this.mask; i++) {
+            sum += this.cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i <= this.mask; i++) {
+            this.cells.set(i * PADDING, 0);
+        }
+    }
+
+    private int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & this.mask) * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(this.sum());
+    }
+}
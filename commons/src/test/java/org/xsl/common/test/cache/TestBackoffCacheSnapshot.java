@@ -0,0 +1,222 @@
+package org.xsl.common.test.cache;
+
+import com.google.common.cache.RemovalCause;
+import org.junit.Test;
+import org.xsl.common.cache.BackoffCacheSnapshot;
+import org.xsl.common.cache.BackoffListener;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+import org.xsl.common.cache.JavaValueSerializer;
+import org.xsl.common.cache.TimingWheelBackoffCache;
+import org.xsl.common.cache.ValueSerializer;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestBackoffCacheSnapshot {
+
+    @Test
+    public void testRestore() throws Exception {
+        File file = File.createTempFile("backoff", ".log");
+        file.delete();
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        BackoffCacheSnapshot snapshot = new BackoffCacheSnapshot(cache, file);
+        assertEquals(0, snapshot.restore());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.addData("key" + i, new CacheItem<>("value" + i));
+        }
+        CacheItem item = cache.get("key1");
+        cache.addData("key1", item);
+        cache.remove("key2");
+        snapshot.flush();
+
+        cache.remove("key3");
+        snapshot.close();
+        cache.close();
+
+        /**
+         * 模拟写到一半退出的记录
+         */
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(100);
+            raf.writeByte(1);
+        }
+
+        TimingWheelBackoffCache restored = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        BackoffCacheSnapshot restoredSnapshot = new BackoffCacheSnapshot(restored, file);
+        assertEquals(998, restoredSnapshot.restore());
+        assertFalse(restored.exist("key2"));
+        assertFalse(restored.exist("key3"));
+        assertEquals("value0", restored.get("key0").getData());
+        assertEquals(1, restored.get("key0").getTimes());
+        assertEquals(2, restored.get("key1").getTimes());
+        assertEquals(item.getStartTime(), restored.get("key1").getStartTime());
+
+        restoredSnapshot.compact();
+        restoredSnapshot.close();
+        restored.close();
+
+        TimingWheelBackoffCache compacted = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        assertEquals(998, new BackoffCacheSnapshot(compacted, file).restore());
+        compacted.close();
+        file.delete();
+    }
+
+    @Test
+    public void testExpireAfterRestore() throws Exception {
+        File file = File.createTempFile("backoff", ".log");
+        file.delete();
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(2, 1, 2, 100, 50, null, null);
+        BackoffCacheSnapshot snapshot = new BackoffCacheSnapshot(cache, file);
+        snapshot.restore();
+        cache.addData("key", new CacheItem<>("value"));
+        snapshot.close();
+        cache.close();
+
+        Thread.sleep(1200);
+
+        final List<RemovalCause> causes = new CopyOnWriteArrayList<>();
+        BackoffListener listener = new BackoffListener() {
+            public void onRemoval(CacheItem item, RemovalCause cause) {
+                causes.add(cause);
+            }
+        };
+        TimingWheelBackoffCache restored = new TimingWheelBackoffCache(2, 1, 2, 100, 50, listener, null);
+        assertEquals(1, new BackoffCacheSnapshot(restored, file).restore());
+
+        Thread.sleep(300);
+        assertFalse(restored.exist("key"));
+        assertTrue(causes.contains(RemovalCause.EXPIRED));
+        restored.close();
+        file.delete();
+    }
+
+    @Test
+    public void testPeriodicFlush() throws Exception {
+        File file = File.createTempFile("backoff", ".log");
+        file.delete();
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        BackoffCacheSnapshot snapshot = new BackoffCacheSnapshot(cache, file);
+        snapshot.restore();
+        snapshot.start(50);
+        for (int i = 0; i < 100; i++) {
+            cache.addData("key" + i, new CacheItem<>("value" + i));
+        }
+
+        /**
+         * 快照线程定时保存，不需要手动flush
+         */
+        Thread.sleep(500);
+        TimingWheelBackoffCache restored = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        assertEquals(100, new BackoffCacheSnapshot(restored, file).restore());
+        restored.close();
+
+        snapshot.close();
+        cache.close();
+        file.delete();
+    }
+
+    @Test
+    public void testSerializeFailure() throws Exception {
+        File file = File.createTempFile("backoff", ".log");
+        file.delete();
+
+        final AtomicBoolean broken = new AtomicBoolean(true);
+        final JavaValueSerializer<Object> java = new JavaValueSerializer<>();
+        ValueSerializer<Object> serializer = new ValueSerializer<Object>() {
+            public byte[] serialize(Object value) {
+                if (broken.get() && "bad".equals(value)) {
+                    throw new RuntimeException("serialize bad value");
+                }
+                return java.serialize(value);
+            }
+
+            public Object deserialize(byte[] bytes) {
+                return java.deserialize(bytes);
+            }
+        };
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        BackoffCacheSnapshot snapshot = new BackoffCacheSnapshot(cache, file, serializer);
+        snapshot.restore();
+        for (int i = 0; i < 50; i++) {
+            cache.addData("key" + i, new CacheItem<>("value" + i));
+        }
+        cache.addData("bad", new CacheItem<>("bad"));
+        for (int i = 50; i < 100; i++) {
+            cache.addData("key" + i, new CacheItem<>("value" + i));
+        }
+
+        /**
+         * 序列化失败的数据不影响其他数据，下一次保存时重试
+         */
+        snapshot.flush();
+        TimingWheelBackoffCache partial = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        assertEquals(100, new BackoffCacheSnapshot(partial, file, serializer).restore());
+        assertFalse(partial.exist("bad"));
+        partial.close();
+
+        broken.set(false);
+        cache.addData("key100", new CacheItem<>("value100"));
+        snapshot.close();
+        cache.close();
+
+        TimingWheelBackoffCache restored = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        assertEquals(102, new BackoffCacheSnapshot(restored, file, serializer).restore());
+        assertEquals("bad", restored.get("bad").getData());
+        assertEquals("value100", restored.get("key100").getData());
+        restored.close();
+        file.delete();
+    }
+
+    @Test
+    public void testAppendAfterBrokenRecord() throws Exception {
+        File file = File.createTempFile("backoff", ".log");
+        file.delete();
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        BackoffCacheSnapshot snapshot = new BackoffCacheSnapshot(cache, file);
+        snapshot.restore();
+        cache.addData("key0", new CacheItem<>("value0"));
+        snapshot.flush();
+
+        /**
+         * 模拟上一次写入失败留下的半条记录，之后追加的记录不能被它挡住
+         */
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(100);
+            raf.writeByte(1);
+        }
+        cache.addData("key1", new CacheItem<>("value1"));
+        snapshot.close();
+        cache.close();
+
+        TimingWheelBackoffCache restored = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        assertEquals(2, new BackoffCacheSnapshot(restored, file).restore());
+        assertEquals("value1", restored.get("key1").getData());
+        restored.close();
+        file.delete();
+    }
+
+    @Test
+    public void testCloseWithoutRestore() throws Exception {
+        File file = File.createTempFile("backoff", ".log");
+        file.delete();
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, null, null);
+        new BackoffCacheSnapshot(cache, file).close();
+        assertFalse(file.exists());
+        cache.close();
+    }
+}
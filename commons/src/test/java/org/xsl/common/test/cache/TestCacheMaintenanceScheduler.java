@@ -0,0 +1,50 @@
+package org.xsl.common.test.cache;
+
+import org.junit.Test;
+import org.xsl.common.base.BatchCallback;
+import org.xsl.common.cache.CacheMaintenanceScheduler;
+import org.xsl.common.cache.ExpiryDispatcher;
+import org.xsl.common.cache.SoftRefTimeCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCacheMaintenanceScheduler {
+
+    @Test
+    public void testSharedScheduler() throws InterruptedException {
+        final AtomicInteger expired = new AtomicInteger(0);
+        ExpiryDispatcher<Map.Entry<String, String>> dispatcher = new ExpiryDispatcher<>(
+                new BatchCallback<Map.Entry<String, String>>() {
+                    public void callback(List<Map.Entry<String, String>> batch) {
+                        expired.addAndGet(batch.size());
+                    }
+                });
+
+        CacheMaintenanceScheduler scheduler = new CacheMaintenanceScheduler(1);
+        List<SoftRefTimeCache<String, String>> caches = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            SoftRefTimeCache<String, String> cache = new SoftRefTimeCache<>(1, 3, dispatcher, scheduler);
+            cache.put("key", "value");
+            caches.add(cache);
+        }
+
+        Thread.sleep(2000);
+        assertEquals(1000, expired.get());
+        for (SoftRefTimeCache<String, String> cache : caches) {
+            assertEquals(0, cache.size());
+        }
+
+        SoftRefTimeCache<String, String> closed = caches.get(0);
+        closed.close();
+        closed.put("key", "value");
+        Thread.sleep(2000);
+        assertEquals(1, closed.size());
+        assertEquals(1000, expired.get());
+
+        scheduler.close();
+    }
+}
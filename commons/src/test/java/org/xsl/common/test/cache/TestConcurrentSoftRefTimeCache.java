@@ -0,0 +1,54 @@
+package org.xsl.common.test.cache;
+
+import org.junit.Test;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.ConcurrentSoftRefTimeCache;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestConcurrentSoftRefTimeCache {
+
+    @Test
+    public void testConcurrentPutAndExpire() throws InterruptedException {
+        final AtomicInteger expired = new AtomicInteger(0);
+        final ConcurrentSoftRefTimeCache<String, Integer> cache = new ConcurrentSoftRefTimeCache<>(2, 3,
+                new Callback() {
+                    public void callback(Object param) {
+                        expired.incrementAndGet();
+                    }
+                });
+
+        final int threads = 8;
+        final int perThread = 10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = base; i < base + perThread; i++) {
+                        cache.put("key" + i, i);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+
+        assertEquals(threads * perThread, cache.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            assertEquals(Integer.valueOf(i), cache.get("key" + i));
+        }
+
+        cache.put("key0", -1);
+        assertEquals(Integer.valueOf(-1), cache.get("key0"));
+        cache.remove("key0");
+        assertNull(cache.get("key0"));
+
+        Thread.sleep(3500);
+        assertEquals(0, cache.size());
+        assertEquals(threads * perThread - 1, expired.get());
+    }
+}
@@ -0,0 +1,283 @@
+package org.xsl.common.test.cache;
+
+import org.junit.Test;
+import org.xsl.common.base.BatchCallback;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.CacheMaintenanceScheduler;
+import org.xsl.common.cache.CacheMetrics;
+import org.xsl.common.cache.ExpiryDispatcher;
+import org.xsl.common.cache.OverflowPolicy;
+import org.xsl.common.cache.SoftRefTimeCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestExpiryDispatcher {
+
+    @Test
+    public void testBatchAndOrder() throws InterruptedException {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final AtomicInteger batches = new AtomicInteger(0);
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExpiryDispatcher<Integer> dispatcher = new ExpiryDispatcher<>(new BatchCallback<Integer>() {
+            public void callback(List<Integer> batch) {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                assertTrue(batch.size() <= 100);
+                batches.incrementAndGet();
+                received.addAll(batch);
+                running.decrementAndGet();
+            }
+        }, 100, 50, executor);
+
+        for (int i = 0; i < 10000; i++) {
+            dispatcher.dispatch(i);
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(10000, received.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(Integer.valueOf(i), received.get(i));
+        }
+        assertEquals(1, maxRunning.get());
+        assertEquals(0, dispatcher.getPendingSize());
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final ExpiryDispatcher<Integer> dispatcher = new ExpiryDispatcher<>(new BatchCallback<Integer>() {
+            public void callback(List<Integer> batch) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                received.addAndGet(batch.size());
+            }
+        }, 10, 10, executor);
+
+        final AtomicInteger submitted = new AtomicInteger(0);
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    dispatcher.dispatch(i);
+                    submitted.incrementAndGet();
+                }
+            }
+        });
+        producer.start();
+
+        Thread.sleep(500);
+        assertTrue(submitted.get() <= 21);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(5000);
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(100, received.get());
+    }
+
+    @Test
+    public void testDropWhenFull() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExpiryDispatcher<Integer> dispatcher = new ExpiryDispatcher<>(new BatchCallback<Integer>() {
+            public void callback(List<Integer> batch) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                received.addAndGet(batch.size());
+            }
+        }, 10, 10, OverflowPolicy.DROP, 100, executor);
+
+        /**
+         * 回调卡住时只等待一次超时，之后的数据直接丢弃
+         */
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(i);
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(dispatcher.getDroppedCount() >= 70);
+
+        release.countDown();
+        dispatcher.close();
+        assertEquals(100, received.get() + dispatcher.getDroppedCount());
+
+        dispatcher.dispatch(100);
+        assertEquals(101, received.get() + dispatcher.getDroppedCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testOfferAllWhenFull() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExpiryDispatcher<Integer> dispatcher = new ExpiryDispatcher<>(new BatchCallback<Integer>() {
+            public void callback(List<Integer> batch) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                received.addAll(batch);
+            }
+        }, 10, 10, OverflowPolicy.BLOCK, 100, executor);
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+
+        /**
+         * 回调卡住时最多等待一次超时，没有放进去的数据按顺序交还给调用方
+         */
+        long start = System.currentTimeMillis();
+        List<Integer> rest = dispatcher.offerAll(items);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(rest.size() >= 70);
+        assertEquals(items.subList(100 - rest.size(), 100), rest);
+        assertEquals(0, dispatcher.getDroppedCount());
+
+        release.countDown();
+        dispatcher.dispatchAll(rest);
+        dispatcher.close();
+        assertEquals(items, received);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCacheKeepsBacklog() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExpiryDispatcher<Map.Entry<String, Integer>> dispatcher = new ExpiryDispatcher<>(
+                new BatchCallback<Map.Entry<String, Integer>>() {
+                    public void callback(List<Map.Entry<String, Integer>> batch) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        received.addAndGet(batch.size());
+                    }
+                }, 10, 10, OverflowPolicy.BLOCK, 10, executor);
+
+        CacheMaintenanceScheduler scheduler = new CacheMaintenanceScheduler(1);
+        SoftRefTimeCache<String, Integer> cache = new SoftRefTimeCache<>(1, 3, dispatcher, scheduler);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, i);
+        }
+
+        /**
+         * 回调卡住期间数据超时，维护线程不会被卡住，另一个缓存照常轮转
+         */
+        SoftRefTimeCache<String, Integer> other = new SoftRefTimeCache<>(1, 3, null, scheduler);
+        other.put("key", 1);
+        Thread.sleep(2500);
+        assertEquals(0, cache.size());
+        assertEquals(0, other.size());
+        assertEquals(0, received.get());
+
+        release.countDown();
+        cache.close();
+        other.close();
+        assertEquals(1000, received.get());
+        assertEquals(0, dispatcher.getDroppedCount());
+        scheduler.close();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSharedExecutorFairness() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        BatchCallback<Integer> slow = new BatchCallback<Integer>() {
+            public void callback(List<Integer> batch) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        ExpiryDispatcher<Integer> busy1 = new ExpiryDispatcher<>(slow, 1, 100000, executor);
+        ExpiryDispatcher<Integer> busy2 = new ExpiryDispatcher<>(slow, 1, 100000, executor);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        ExpiryDispatcher<Integer> quiet = new ExpiryDispatcher<>(new BatchCallback<Integer>() {
+            public void callback(List<Integer> batch) {
+                done.countDown();
+            }
+        }, 1, 10, executor);
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            items.add(i);
+        }
+        busy1.dispatchAll(items);
+        busy2.dispatchAll(items);
+        quiet.dispatch(0);
+
+        /**
+         * 两个dispatcher一直有数据，第三个也能很快轮到
+         */
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSoftRefTimeCacheCallback() throws InterruptedException {
+        final AtomicInteger expired = new AtomicInteger(0);
+        SoftRefTimeCache<String, Integer> cache = new SoftRefTimeCache<>(1, 3, new Callback() {
+            public void callback(Object param) {
+                Map.Entry<String, Integer> entry = (Map.Entry<String, Integer>) param;
+                assertEquals("key" + entry.getValue(), entry.getKey());
+                expired.incrementAndGet();
+            }
+        });
+
+        for (int i = 0; i < 10000; i++) {
+            cache.put("key" + i, i);
+        }
+
+        assertEquals(Integer.valueOf(1), cache.get("key1"));
+        assertNull(cache.get("missing"));
+
+        Thread.sleep(2500);
+        assertEquals(0, cache.size());
+        assertEquals(10000, expired.get());
+
+        CacheMetrics metrics = cache.getMetrics();
+        assertEquals(1, metrics.getHitCount());
+        assertEquals(1, metrics.getMissCount());
+        assertEquals(10000, metrics.getPutCount(0));
+        assertEquals(10000, metrics.getExpiredCount(0));
+        assertTrue(metrics.snapshot().get("callbackMicros.count") > 0);
+        cache.close();
+    }
+}
@@ -0,0 +1,74 @@
+package org.xsl.common.test.cache;
+
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.junit.Test;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.GuavaBackoffCache;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestGuavaBackoffCache {
+
+    @Test
+    public void testShardedSize() throws InterruptedException {
+        final GuavaBackoffCache cache = new GuavaBackoffCache(2, 3600, 2, 100000, 8, null, (Callback) null);
+        assertEquals(8, cache.getShardCount());
+
+        final int threads = 8;
+        final int keysPerThread = 1000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int base = t * keysPerThread;
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < keysPerThread; i++) {
+                        cache.addData("key_" + (base + i), new CacheItem<>(i));
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        assertEquals(threads * keysPerThread, cache.getDataSize());
+        assertTrue(cache.exist("key_0"));
+        assertFalse(cache.exist("missing"));
+
+        /**
+         * 再次放入进入第二层，第一层中的数据要等超时才会退出，所以两层各算一条
+         */
+        CacheItem<Integer> item = new CacheItem<>(0);
+        cache.addData("again", item);
+        cache.addData("again", item);
+        assertEquals(threads * keysPerThread + 2, cache.getDataSize());
+        assertEquals(threads * keysPerThread + 1, cache.getMetrics().getPutCount(0));
+        assertEquals(1, cache.getMetrics().getPutCount(1));
+        cache.close();
+    }
+
+    @Test
+    public void testShardedSizeLimit() {
+        final AtomicInteger evicted = new AtomicInteger();
+        RemovalListener<String, CacheItem> listener = new RemovalListener<String, CacheItem>() {
+            public void onRemoval(RemovalNotification<String, CacheItem> notification) {
+                evicted.incrementAndGet();
+            }
+        };
+
+        GuavaBackoffCache cache = new GuavaBackoffCache(1, 3600, 2, 400, 4, listener, (Callback) null);
+        for (int i = 0; i < 10000; i++) {
+            cache.addData("key_" + i, new CacheItem<>(i));
+        }
+
+        assertTrue(cache.getDataSize() <= 400);
+        assertEquals(10000, cache.getDataSize() + evicted.get());
+        assertEquals(evicted.get(), cache.getMetrics().getEvictedCount());
+        cache.close();
+    }
+}
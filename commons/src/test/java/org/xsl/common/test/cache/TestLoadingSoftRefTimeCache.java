@@ -0,0 +1,114 @@
+package org.xsl.common.test.cache;
+
+import com.google.common.cache.CacheLoader;
+import org.junit.Test;
+import org.xsl.common.cache.LoadingSoftRefTimeCache;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLoadingSoftRefTimeCache {
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        final AtomicInteger loads = new AtomicInteger(0);
+        final LoadingSoftRefTimeCache<String, String> cache = new LoadingSoftRefTimeCache<>(60, 3,
+                new CacheLoader<String, String>() {
+                    public String load(String key) throws Exception {
+                        loads.incrementAndGet();
+                        Thread.sleep(200);
+                        return "value_" + key;
+                    }
+                });
+
+        final int threads = 16;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        final AtomicInteger correct = new AtomicInteger(0);
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    if ("value_hot".equals(cache.get("hot"))) {
+                        correct.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+
+        assertEquals(1, loads.get());
+        assertEquals(threads, correct.get());
+        assertEquals("value_hot", cache.getIfPresent("hot"));
+        cache.close();
+    }
+
+    @Test
+    public void testGetAll() {
+        final AtomicInteger batches = new AtomicInteger(0);
+        LoadingSoftRefTimeCache<Integer, String> cache = new LoadingSoftRefTimeCache<>(60, 3,
+                new CacheLoader<Integer, String>() {
+                    public String load(Integer key) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) {
+                        batches.incrementAndGet();
+                        Map<Integer, String> res = new HashMap<>();
+                        for (Integer key : keys) {
+                            if (key % 2 == 0) {
+                                res.put(key, "value" + key);
+                            }
+                        }
+                        return res;
+                    }
+                });
+
+        cache.put(1, "cached");
+        Map<Integer, String> res = cache.getAll(Arrays.asList(1, 2, 3, 4, 4));
+        assertEquals(1, batches.get());
+        assertEquals(3, res.size());
+        assertEquals("cached", res.get(1));
+        assertEquals("value2", res.get(2));
+        assertFalse(res.containsKey(3));
+        assertNull(cache.getIfPresent(3));
+        cache.close();
+    }
+
+    @Test
+    public void testRefreshAhead() throws InterruptedException {
+        final AtomicInteger version = new AtomicInteger(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        LoadingSoftRefTimeCache<String, Integer> cache = new LoadingSoftRefTimeCache<>(2, 3,
+                new CacheLoader<String, Integer>() {
+                    public Integer load(String key) {
+                        return version.incrementAndGet();
+                    }
+                }, executor, null);
+
+        assertEquals(Integer.valueOf(1), cache.get("key"));
+
+        /**
+         * 数据进入最早的槽之后，命中时返回旧数据并在后台重新加载，每个轮转周期最多加载一次，
+         * 数据始终不会因为超时而丢失
+         */
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 5000) {
+            Integer value = cache.get("key");
+            assertTrue(value != null);
+            Thread.sleep(50);
+        }
+        assertTrue(version.get() >= 2 && version.get() <= 7);
+
+        cache.close();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,100 @@
+package org.xsl.common.test.cache;
+
+import com.google.common.cache.RemovalCause;
+import org.junit.Test;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+import org.xsl.common.cache.LongBackoffCache;
+import org.xsl.common.cache.LongBackoffListener;
+import org.xsl.common.cache.LongSoftRefTimeCache;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLongKeyCache {
+
+    @Test
+    public void testLongSoftRefTimeCache() throws InterruptedException {
+        final AtomicInteger expired = new AtomicInteger(0);
+        LongSoftRefTimeCache<String> cache = new LongSoftRefTimeCache<>(2, 3, new Callback() {
+            public void callback(Object param) {
+                Map.Entry<Long, String> entry = (Map.Entry<Long, String>) param;
+                assertEquals("value" + entry.getKey(), entry.getValue());
+                expired.incrementAndGet();
+            }
+        });
+
+        for (long i = 0; i < 100000; i++) {
+            cache.put(i * 7919, "value" + (i * 7919));
+        }
+        assertEquals(100000, cache.size());
+        assertEquals("value7919", cache.get(7919));
+        assertNull(cache.get(7920));
+
+        for (long i = 0; i < 50000; i++) {
+            cache.remove(i * 7919);
+        }
+        assertEquals(50000, cache.size());
+        assertNull(cache.get(7919));
+        assertEquals("value" + (99999L * 7919), cache.get(99999L * 7919));
+
+        Thread.sleep(3500);
+        assertEquals(0, cache.size());
+        cache.close();
+        assertEquals(50000, expired.get());
+    }
+
+    @Test
+    public void testLongSoftRefTimeCacheNewestFirst() throws InterruptedException {
+        LongSoftRefTimeCache<String> cache = new LongSoftRefTimeCache<>(2, 3);
+        cache.put(1L, "old");
+
+        /**
+         * 轮转之后重新放入，旧槽中的数据还没有超时，查询应该返回新放入的数据
+         */
+        Thread.sleep(1500);
+        cache.put(1L, "new");
+        assertEquals("new", cache.get(1L));
+        assertEquals(2, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void testLongBackoffCache() throws InterruptedException {
+        final List<Long> finished = new CopyOnWriteArrayList<>();
+        final LongBackoffCache[] holder = new LongBackoffCache[1];
+
+        LongBackoffListener listener = new LongBackoffListener() {
+            public void onRemoval(long key, CacheItem item, RemovalCause cause) {
+                if (cause == RemovalCause.EXPIRED) {
+                    holder[0].addData(key, item);
+                }
+            }
+        };
+        Callback callback = new Callback() {
+            public void callback(Object param) {
+                finished.add(((Map.Entry<Long, CacheItem>) param).getKey());
+            }
+        };
+
+        LongBackoffCache cache = new LongBackoffCache(2, 1, 2, 100, 50, listener, callback);
+        holder[0] = cache;
+
+        cache.addData(123456789L, new CacheItem<>("value"));
+        assertTrue(cache.exist(123456789L));
+        assertFalse(cache.exist(1L));
+
+        Thread.sleep(3500);
+        assertFalse(cache.exist(123456789L));
+        assertEquals(0, cache.getDataSize());
+        cache.close();
+        assertEquals(1, finished.size());
+        assertEquals(Long.valueOf(123456789L), finished.get(0));
+    }
+}
@@ -0,0 +1,107 @@
+package org.xsl.common.test.cache;
+
+import org.junit.Test;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.OffHeapTimeCache;
+import org.xsl.common.cache.StringValueSerializer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestOffHeapTimeCache {
+
+    @Test
+    public void testPutAndExpire() throws InterruptedException {
+        final AtomicInteger expired = new AtomicInteger(0);
+        OffHeapTimeCache<String, String> cache = new OffHeapTimeCache<>(2, 3, 1024 * 1024, 64 * 1024,
+                new StringValueSerializer(), new Callback() {
+                    public void callback(Object param) {
+                        expired.incrementAndGet();
+                    }
+                });
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(1000, cache.size());
+        assertEquals("value10", cache.get("key10"));
+
+        cache.put("key10", "new value");
+        assertEquals("new value", cache.get("key10"));
+
+        cache.remove("key10");
+        assertNull(cache.get("key10"));
+
+        Thread.sleep(3500);
+        assertEquals(0, cache.size());
+        cache.close();
+        assertEquals(999, expired.get());
+    }
+
+    @Test
+    public void testMemoryLimit() {
+        final AtomicInteger evicted = new AtomicInteger(0);
+        int slabSize = 4096;
+        OffHeapTimeCache<String, String> cache = new OffHeapTimeCache<>(3600, 3, slabSize * 4, slabSize,
+                new StringValueSerializer(), new Callback() {
+                    public void callback(Object param) {
+                        evicted.incrementAndGet();
+                    }
+                });
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('v');
+        }
+        String value = sb.toString();
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, value);
+            assertTrue(cache.getAllocatedBytes() <= slabSize * 4);
+        }
+
+        cache.close();
+        assertEquals(100, cache.size() + evicted.get());
+        assertTrue(evicted.get() > 0);
+        assertEquals(value, cache.get("key99"));
+    }
+
+    @Test
+    public void testValueAcrossSlabs() {
+        final AtomicInteger evicted = new AtomicInteger(0);
+        int slabSize = 1024;
+        OffHeapTimeCache<String, String> cache = new OffHeapTimeCache<>(3600, 3, slabSize * 4, slabSize,
+                new StringValueSerializer(), new Callback() {
+                    public void callback(Object param) {
+                        evicted.incrementAndGet();
+                    }
+                });
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String large = sb.toString();
+
+        cache.put("small", "v");
+        cache.put("large", large);
+        cache.put("empty", "");
+        assertEquals("v", cache.get("small"));
+        assertEquals(large, cache.get("large"));
+        assertEquals("", cache.get("empty"));
+
+        /**
+         * 内存块一直被复用，不会重新申请
+         */
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, large);
+            assertEquals(large, cache.get("key" + i));
+            assertTrue(cache.getAllocatedBytes() <= slabSize * 4);
+        }
+        assertEquals(slabSize * 4, cache.getAllocatedBytes());
+        cache.close();
+        assertEquals(103, cache.size() + evicted.get());
+    }
+}
@@ -0,0 +1,72 @@
+package org.xsl.common.test.cache;
+
+import org.junit.Test;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.CacheMaintenanceScheduler;
+import org.xsl.common.cache.ExpiryDispatcher;
+import org.xsl.common.cache.OrderedSoftRefTimeCache;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestOrderedSoftRefTimeCache {
+
+    @Test
+    public void testScanAcrossBuckets() throws InterruptedException {
+        OrderedSoftRefTimeCache<String> cache = new OrderedSoftRefTimeCache<>(2, 3);
+        cache.put("user1_003", "a");
+        cache.put("user2_001", "b");
+        cache.put("user1_001", "c");
+
+        /**
+         * 等待一次轮转，新数据进入新的槽，user1_003在两个槽中都有，只返回最新的值
+         */
+        Thread.sleep(1300);
+        cache.put("user1_002", "d");
+        cache.put("user1_003", "e");
+        cache.put("user10_001", "f");
+
+        assertEquals("[user1_001=c, user1_002=d, user1_003=e]", keys(cache.prefix("user1_")));
+        assertEquals("[user10_001=f, user1_001=c, user1_002=d, user1_003=e]", keys(cache.prefix("user1")));
+        assertEquals("[user1_002=d, user1_003=e]", keys(cache.subMap("user1_002", "user2")));
+        assertEquals("[]", keys(cache.subMap("user2", "user1")));
+        assertFalse(cache.prefix("user3").hasNext());
+        assertEquals("e", cache.get("user1_003"));
+        cache.close();
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        final List<String> expired = new CopyOnWriteArrayList<>();
+        Callback callback = new Callback() {
+            public void callback(Object param) {
+                expired.add(((Map.Entry<String, String>) param).getKey());
+            }
+        };
+        OrderedSoftRefTimeCache<String> cache = new OrderedSoftRefTimeCache<>(1, 2, callback);
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (expired.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, expired.size());
+        assertFalse(cache.prefix("k").hasNext());
+        cache.close();
+    }
+
+    private static String keys(Iterator<Map.Entry<String, String>> it) {
+        List<String> res = new ArrayList<>();
+        while (it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            res.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package org.xsl.common.test.cache;
+
+import org.junit.Test;
+import org.xsl.common.cache.SoftRefTimeCache;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSoftRefTimeCache {
+
+    @Test
+    public void testGetOrWait() throws InterruptedException {
+        final SoftRefTimeCache<String, String> cache = new SoftRefTimeCache<>(60, 3);
+        final AtomicReference<String> received = new AtomicReference<>();
+
+        Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    received.set(cache.getOrWait("key1", 5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        consumer.start();
+
+        Thread.sleep(200);
+        cache.put("other", "value0");
+        cache.put("key1", "value1");
+        consumer.join(2000);
+        assertEquals("value1", received.get());
+
+        assertEquals("value1", cache.getOrWait("key1", 0, TimeUnit.SECONDS));
+
+        long start = System.currentTimeMillis();
+        assertNull(cache.getOrWait("key2", 200, TimeUnit.MILLISECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 190);
+        cache.close();
+    }
+}
@@ -0,0 +1,188 @@
+package org.xsl.common.test.cache;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
+import org.junit.Test;
+import org.xsl.common.base.Callback;
+import org.xsl.common.cache.AdmissionPolicy;
+import org.xsl.common.cache.BackoffListener;
+import org.xsl.common.cache.GuavaBackoffCache.CacheItem;
+import org.xsl.common.cache.TimingWheelBackoffCache;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTimingWheelBackoffCache {
+
+    @Test
+    public void testBackoff() throws InterruptedException {
+        final List<String> finished = new CopyOnWriteArrayList<>();
+        final List<Integer> expiredTimes = new CopyOnWriteArrayList<>();
+
+        final TimingWheelBackoffCache[] holder = new TimingWheelBackoffCache[1];
+        BackoffListener listener = new BackoffListener() {
+            public void onRemoval(CacheItem item, RemovalCause cause) {
+                if (cause == RemovalCause.EXPIRED) {
+                    expiredTimes.add(item.getTimes());
+                    holder[0].addData(item.getKey(), item);
+                }
+            }
+        };
+        Callback callback = new Callback() {
+            public void callback(Object param) {
+                finished.add(((CacheItem) param).getKey());
+            }
+        };
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(2, 1, 2, 100, 50, listener, callback);
+        holder[0] = cache;
+
+        cache.addData("key1", new CacheItem<>("value1"));
+        assertTrue(cache.exist("key1"));
+        assertFalse(cache.exist("key2"));
+        assertEquals(1, cache.getDataSize());
+
+        Thread.sleep(1500);
+        assertTrue(cache.exist("key1"));
+        assertEquals(1, expiredTimes.size());
+
+        Thread.sleep(2000);
+        assertFalse(cache.exist("key1"));
+        assertEquals(0, cache.getDataSize());
+        assertEquals(2, expiredTimes.size());
+        cache.close();
+        assertEquals(1, finished.size());
+        assertEquals("key1", finished.get(0));
+    }
+
+    @Test
+    public void testSizeLimitAndReplace() {
+        final List<RemovalCause> causes = new CopyOnWriteArrayList<>();
+        BackoffListener listener = new BackoffListener() {
+            public void onRemoval(CacheItem item, RemovalCause cause) {
+                causes.add(cause);
+            }
+        };
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 60, 2, 10, listener, null);
+        for (int i = 0; i < 1000; i++) {
+            cache.addData("key" + i, new CacheItem<>(i));
+        }
+        assertEquals(10, cache.getDataSize());
+        assertTrue(cache.exist("key999"));
+        assertFalse(cache.exist("key0"));
+        assertEquals(990, causes.size());
+
+        cache.addData("key999", new CacheItem<>(999));
+        assertEquals(RemovalCause.REPLACED, causes.get(causes.size() - 1));
+
+        assertTrue(cache.remove("key999") != null);
+        assertFalse(cache.exist("key999"));
+        assertEquals(9, cache.getDataSize());
+    }
+
+    @Test
+    public void testWeightLimit() {
+        final List<String> evicted = new CopyOnWriteArrayList<>();
+        BackoffListener listener = new BackoffListener() {
+            public void onRemoval(CacheItem item, RemovalCause cause) {
+                assertEquals(RemovalCause.SIZE, cause);
+                evicted.add(item.getKey());
+            }
+        };
+        Weigher<String, CacheItem> weigher = new Weigher<String, CacheItem>() {
+            public int weigh(String key, CacheItem item) {
+                return ((String) item.getData()).length();
+            }
+        };
+
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, 100, weigher, listener, null);
+
+        /**
+         * old在第1层，其余数据在第0层，超出权重上限时先淘汰高层的old
+         */
+        CacheItem old = new CacheItem<>("0123456789");
+        cache.addData("old", old);
+        cache.addData("old", old);
+        for (int i = 0; i < 9; i++) {
+            cache.addData("key" + i, new CacheItem<>("0123456789"));
+        }
+        assertEquals(100, cache.getTotalWeight());
+        assertTrue(evicted.isEmpty());
+
+        cache.addData("key9", new CacheItem<>("0123456789"));
+        assertEquals(1, evicted.size());
+        assertEquals("old", evicted.get(0));
+
+        cache.addData("big", new CacheItem<>("012345678901234567890123456789"));
+        assertEquals(4, evicted.size());
+        assertEquals("key0", evicted.get(1));
+        assertEquals("key2", evicted.get(3));
+        assertTrue(cache.exist("big"));
+        assertEquals(100, cache.getTotalWeight());
+        assertEquals(8, cache.getDataSize());
+    }
+
+    @Test
+    public void testTinyLfuAdmission() {
+        // 准入窗口中保留着最新的一条数据，所以只有99个经常被查询的key留在缓存中
+        assertEquals(99, this.survivedHotKeys(AdmissionPolicy.TINY_LFU));
+        assertEquals(0, this.survivedHotKeys(AdmissionPolicy.ADMIT_ALL));
+    }
+
+    /**
+     * 新key在窗口中被查询了几次之后，访问频率超过最早进入的数据，挤出窗口时可以进入缓存
+     */
+    @Test
+    public void testTinyLfuWindow() {
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, 100, AdmissionPolicy.TINY_LFU,
+                null, null);
+        for (int i = 0; i < 100; i++) {
+            cache.addData("hot" + i, new CacheItem<>(i));
+            assertTrue(cache.exist("hot" + i));
+        }
+
+        cache.addData("burst", new CacheItem<>(0));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cache.exist("burst"));
+        }
+        for (int i = 0; i < 10; i++) {
+            cache.addData("once" + i, new CacheItem<>(i));
+        }
+
+        assertTrue(cache.exist("burst"));
+        assertEquals(100, cache.getDataSize());
+        cache.close();
+    }
+
+    /**
+     * 100个经常被查询的key，然后来了1000个只出现一次的key，返回留在缓存中的经常被查询的key的数量
+     */
+    private int survivedHotKeys(AdmissionPolicy admission) {
+        TimingWheelBackoffCache cache = new TimingWheelBackoffCache(3, 3600, 2, 100, admission, null, null);
+        for (int i = 0; i < 100; i++) {
+            cache.addData("hot" + i, new CacheItem<>(i));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(cache.exist("hot" + i));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.addData("once" + i, new CacheItem<>(i));
+        }
+
+        int survived = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get("hot" + i) != null) {
+                survived++;
+            }
+        }
+        assertEquals(100, cache.getDataSize());
+        cache.close();
+        return survived;
+    }
+}
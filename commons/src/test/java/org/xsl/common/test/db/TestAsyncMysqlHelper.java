@@ -0,0 +1,89 @@
+package org.xsl.common.test.db;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+import org.xsl.common.config.Constants;
+import org.xsl.common.db.mysql.AsyncMysqlHelper;
+import org.xsl.common.db.mysql.MysqlHelper;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 只测试调度相关的逻辑，提交的任务不访问数据库
+ */
+public class TestAsyncMysqlHelper {
+    private MysqlHelper mysqlHelper;
+
+    public TestAsyncMysqlHelper() {
+        Map<String, String> conf = new HashMap<>();
+        conf.put(Constants.MYSQL_CON_URL, "jdbc:mysql://127.0.0.1:3307/test?user=root&password=123456");
+        this.mysqlHelper = new MysqlHelper(conf);
+    }
+
+    @Test
+    public void testQueueLimitAndCancel() throws Exception {
+        AsyncMysqlHelper helper = new AsyncMysqlHelper(this.mysqlHelper, 1, 1, 10000);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> blocking = new Callable<String>() {
+            public String call() throws Exception {
+                release.await();
+                return "done";
+            }
+        };
+
+        ListenableFuture<String> running = helper.submit(blocking);
+        ListenableFuture<String> queued = helper.submit(blocking);
+        ListenableFuture<String> rejected = helper.submit(blocking);
+        assertEquals(RejectedExecutionException.class, causeOf(rejected).getClass());
+
+        queued.cancel(true);
+        release.countDown();
+        assertEquals("done", running.get(2, TimeUnit.SECONDS));
+        assertTrue(queued.isCancelled());
+        helper.close();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        AsyncMysqlHelper helper = new AsyncMysqlHelper(this.mysqlHelper, 1, 10, 10000);
+        ListenableFuture<String> future = helper.submit(new Callable<String>() {
+            public String call() throws Exception {
+                Thread.sleep(5000);
+                return "done";
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        long start = System.currentTimeMillis();
+        assertEquals(TimeoutException.class, causeOf(future).getClass());
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        /**
+         * 超时的任务被中断，线程可以马上执行下一个任务
+         */
+        ListenableFuture<String> next = helper.submit(new Callable<String>() {
+            public String call() {
+                return "next";
+            }
+        });
+        assertEquals("next", next.get(1, TimeUnit.SECONDS));
+        helper.close();
+    }
+
+    private static Throwable causeOf(ListenableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("future should fail");
+    }
+}
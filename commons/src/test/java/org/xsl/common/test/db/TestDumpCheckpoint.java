@@ -0,0 +1,91 @@
+package org.xsl.common.test.db;
+
+import org.junit.Test;
+import org.xsl.common.db.mysql.dump.DumpCheckpoint;
+import org.xsl.common.db.mysql.dump.Segmentation;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDumpCheckpoint {
+
+    @Test
+    public void testResume() throws IOException {
+        File file = File.createTempFile("dump", ".checkpoint");
+        file.deleteOnExit();
+
+        DumpCheckpoint checkpoint = new DumpCheckpoint(file, "test_user.id");
+        checkpoint.begin(true, 0, 1000);
+        checkpoint.complete(new Segmentation(0, 100));
+        checkpoint.complete(new Segmentation(300, 400));
+        checkpoint.complete(new Segmentation(100, 200));
+        checkpoint.complete(new Segmentation(900, 1000));
+        checkpoint.close();
+
+        /**
+         * 模拟写到一半时进程退出
+         */
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("done\t400\t5".getBytes("UTF-8"));
+        }
+
+        DumpCheckpoint.Round round = new DumpCheckpoint(file, "test_user.id").load();
+        assertTrue(round.isFullLoad());
+        assertEquals(0, round.getLower());
+        assertEquals(1000, round.getUpper());
+
+        /**
+         * 最后一条记录没有换行，被忽略
+         */
+        List<Segmentation> remaining = round.remaining();
+        assertEquals(2, remaining.size());
+        assertEquals(200, remaining.get(0).getLowerBound());
+        assertEquals(300, remaining.get(0).getUpperBound());
+        assertEquals(400, remaining.get(1).getLowerBound());
+        assertEquals(900, remaining.get(1).getUpperBound());
+
+        assertNull(new DumpCheckpoint(file, "other_table.id").load());
+
+        checkpoint = new DumpCheckpoint(file, "test_user.id");
+        checkpoint.resume();
+        checkpoint.complete(new Segmentation(200, 300));
+        checkpoint.close();
+        assertEquals(1, checkpoint.load().remaining().size());
+
+        checkpoint.resume();
+        checkpoint.complete(new Segmentation(400, 900));
+        checkpoint.finish();
+        assertNull(checkpoint.load());
+    }
+
+    @Test
+    public void testKeysetCursor() throws IOException {
+        File file = File.createTempFile("dump", ".checkpoint");
+        file.deleteOnExit();
+
+        DumpCheckpoint checkpoint = new DumpCheckpoint(file, "test_user.id,name");
+        checkpoint.begin(false);
+        checkpoint.saveCursor(Arrays.asList("100", "tom"));
+        checkpoint.saveCursor(Arrays.asList("200", "a\tb c"));
+        checkpoint.close();
+
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("cursor\t3".getBytes("UTF-8"));
+        }
+
+        DumpCheckpoint.Round round = checkpoint.load();
+        assertEquals(Arrays.asList("200", "a\tb c"), round.getCursor());
+
+        checkpoint.resume();
+        checkpoint.saveCursor(Arrays.asList("300", ""));
+        assertEquals(Arrays.asList("300", ""), checkpoint.load().getCursor());
+        checkpoint.finish();
+        assertNull(checkpoint.load());
+    }
+}
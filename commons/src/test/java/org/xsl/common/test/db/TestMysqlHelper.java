@@ -1,15 +1,25 @@
 package org.xsl.common.test.db;
 
 import org.junit.Test;
+import org.xsl.common.db.mysql.BatchResult;
 import org.xsl.common.db.mysql.MysqlHelper;
+import org.xsl.common.db.mysql.ResultIterator;
+import org.xsl.common.db.mysql.RowCallback;
+import org.xsl.common.db.mysql.Transaction;
+import org.xsl.common.db.mysql.TransactionCallback;
 import org.xsl.common.json.JsonHelper;
 import org.xsl.common.config.Constants;
 import org.xsl.common.config.Pair;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Created by xiongsenlin on 17/1/6.
  */
@@ -36,4 +46,135 @@ public class TestMysqlHelper {
         List<Map<String, Object>> result2 = this.mysqlHelper.queryPrimitives(sql);
         System.out.println(JsonHelper.toJson(result2));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStreamingQuery() throws Exception {
+        String sql = "select * from test_user";
+
+        long rows = this.mysqlHelper.query(sql, new RowCallback<Map<String, String>>() {
+            public void onRow(Map<String, String> row) {
+                System.out.println(JsonHelper.toJson(row));
+            }
+        });
+        System.out.println("rows: " + rows);
+
+        try (ResultIterator<Map<String, Object>> it = this.mysqlHelper.iterate(sql, MysqlHelper.PRIMITIVE_ROW_MAPPER)) {
+            while (it.hasNext()) {
+                System.out.println(JsonHelper.toJson(it.next()));
+            }
+        }
+    }
+
+    @Test
+    public void testPreparedStatement() throws SQLException {
+        List<Map<String, String>> result = this.mysqlHelper.query("select * from test_user where id > ? and name <> ?",
+                new MysqlHelper.SqlField("0", "int"), new MysqlHelper.SqlField("", "string"));
+        System.out.println(JsonHelper.toJson(result));
+
+        int rows = this.mysqlHelper.update("update test_user set name = ? where id = ?",
+                new MysqlHelper.SqlField("tom", "string"), new MysqlHelper.SqlField("1", "int"));
+        System.out.println("updated: " + rows);
+    }
+
+    @Test
+    public void testBatchUpdate() throws SQLException {
+        List<MysqlHelper.SqlField[]> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            rows.add(new MysqlHelper.SqlField[] {
+                    new MysqlHelper.SqlField(String.valueOf(100000 + i), "int"),
+                    new MysqlHelper.SqlField("user_" + i, "string")});
+        }
+        BatchResult result = this.mysqlHelper.batchUpdate("insert into test_user(id, name) values(?, ?)", rows);
+        System.out.println(result + " " + result.getFailures());
+
+        List<String> sqls = new ArrayList<>();
+        sqls.add("delete from test_user where id >= 100000");
+        sqls.add("insert into not_exist_table values(1)");
+        result = this.mysqlHelper.batchUpdate(sqls);
+        System.out.println(result + " " + result.getFailures());
+    }
+
+    /**
+     * 逐条重新执行时，一条数据等锁超时或者死锁导致整个事务被回滚，之前重新执行成功的数据不能丢失
+     */
+    @Test
+    public void testBatchReplayRollback() throws Exception {
+        this.mysqlHelper.update("delete from test_user where id >= 300000");
+        this.mysqlHelper.update("insert into test_user(id, name) values(300100, 'locked')");
+
+        final Connection holder = this.mysqlHelper.getConnectionPool().getConn(false);
+        holder.createStatement().executeQuery("select * from test_user where id = 300100 for update").close();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                    holder.createStatement().executeUpdate("update test_user set name = 'x' where id = 300001");
+                    Thread.sleep(3000);
+                    holder.commit();
+                } catch (Exception e) {
+                    System.out.println("lock holder: " + e.getMessage());
+                } finally {
+                    try {
+                        holder.close();
+                    } catch (SQLException e) {
+                        // ignore
+                    }
+                }
+            }
+        });
+        thread.start();
+
+        List<String> sqls = new ArrayList<>();
+        sqls.add("set innodb_lock_wait_timeout = 2");
+        sqls.add("insert into test_user(id, name) values(300001, 'a')");
+        sqls.add("insert into test_user(id, name) values(300002, 'b')");
+        sqls.add("insert into test_user(id, name) values(300001, 'duplicate')");
+        sqls.add("update test_user set name = 'y' where id = 300100");
+        sqls.add("insert into test_user(id, name) values(300003, 'c')");
+        BatchResult result = this.mysqlHelper.batchUpdate(sqls);
+        thread.join();
+
+        int inserted = Integer.valueOf(this.mysqlHelper.getOneData(
+                "select count(*) from test_user where id between 300001 and 300003"));
+        System.out.println(result + " " + result.getFailures() + " inserted: " + inserted);
+
+        /**
+         * 下标1、2、5是新插入的数据，没有记录为失败的都必须真的写入了
+         */
+        int expected = 3;
+        for (BatchResult.Failure failure : result.getFailures()) {
+            if (failure.getIndex() == 1 || failure.getIndex() == 2 || failure.getIndex() == 5) {
+                expected--;
+            }
+        }
+        assertEquals(expected, inserted);
+        this.mysqlHelper.update("delete from test_user where id >= 300000");
+    }
+
+    @Test
+    public void testPoolMetrics() throws SQLException {
+        for (int i = 0; i < 100; i++) {
+            this.mysqlHelper.query("select 1");
+        }
+        System.out.println(this.mysqlHelper.getConnectionPool().snapshot());
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        int updated = this.mysqlHelper.executeInTransaction(Connection.TRANSACTION_READ_COMMITTED, 3,
+                new TransactionCallback<Integer>() {
+                    public Integer doInTransaction(Transaction tx) throws Exception {
+                        for (int i = 0; i < 100; i++) {
+                            tx.addBatch("insert into test_user(id, name) values(" + (200000 + i) + ", 'tx_" + i + "')");
+                        }
+                        Savepoint savepoint = tx.setSavepoint("before_delete");
+                        tx.update("delete from test_user where id >= ?", new MysqlHelper.SqlField("200000", "int"));
+                        tx.rollback(savepoint);
+                        return Integer.valueOf(tx.getOneData("select count(*) from test_user where id >= 200000"));
+                    }
+                });
+        System.out.println("rows in transaction: " + updated);
+        System.out.println(this.mysqlHelper.getOneData("select count(*) from test_user where id >= 200000"));
+        this.mysqlHelper.update("delete from test_user where id >= 200000");
+    }
+}
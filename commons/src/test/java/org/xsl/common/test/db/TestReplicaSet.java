@@ -0,0 +1,71 @@
+package org.xsl.common.test.db;
+
+import org.junit.Test;
+import org.xsl.common.config.Constants;
+import org.xsl.common.db.mysql.MysqlHelper;
+import org.xsl.common.db.mysql.ReplicaSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 3307端口的mysql同时作为主库和从库，3399端口没有mysql，作为宕机的从库
+ */
+public class TestReplicaSet {
+    private static final String LIVE_URL = "jdbc:mysql://127.0.0.1:3307/test?user=root&password=123456";
+    private static final String DEAD_URL = "jdbc:mysql://127.0.0.1:3399/test?user=root&password=123456";
+
+    @Test
+    public void testEjectDeadReplicas() throws Exception {
+        Map<String, String> conf = new HashMap<>();
+        conf.put(Constants.MYSQL_CON_URL, DEAD_URL);
+        conf.put(Constants.MYSQL_POOL_SIZE, "0");
+        conf.put(Constants.MYSQL_POOL_MAX_WAIT_MILLIS, "100");
+        conf.put(Constants.MYSQL_REPLICA_URLS, DEAD_URL + "," + DEAD_URL);
+        conf.put(Constants.MYSQL_REPLICA_BALANCE, "weighted_round_robin");
+        conf.put(Constants.MYSQL_REPLICA_WEIGHTS, "2,1");
+        conf.put(Constants.MYSQL_REPLICA_HEALTH_CHECK_MILLIS, "0");
+        conf.put(Constants.MYSQL_REPLICA_EJECT_FAILURES, "2");
+
+        ReplicaSet replicas = new ReplicaSet(conf);
+        assertEquals(2, replicas.size());
+        assertEquals(2, replicas.getHealthyCount());
+
+        /**
+         * 每次获取连接时两个从库各失败一次，第二次之后全部被摘除
+         */
+        assertNull(replicas.getConn());
+        assertEquals(2, replicas.getHealthyCount());
+        assertNull(replicas.getConn());
+        assertEquals(0, replicas.getHealthyCount());
+
+        replicas.checkHealth();
+        assertFalse(replicas.isHealthy(0));
+        assertFalse(replicas.isHealthy(1));
+
+        Map<String, Long> snapshot = replicas.snapshot();
+        assertEquals(2L, snapshot.get("primaryFallback").longValue());
+        assertEquals(1L, snapshot.get("replica.0.ejected").longValue());
+        assertEquals(0L, snapshot.get("replica.1.reads").longValue());
+        replicas.close();
+    }
+
+    @Test
+    public void testReadSplitting() throws Exception {
+        Map<String, String> conf = new HashMap<>();
+        conf.put(Constants.MYSQL_CON_URL, LIVE_URL);
+        conf.put(Constants.MYSQL_REPLICA_URLS, LIVE_URL + "," + LIVE_URL + "," + DEAD_URL);
+        conf.put(Constants.MYSQL_REPLICA_WEIGHTS, "3,1,1");
+        conf.put(Constants.MYSQL_REPLICA_HEALTH_CHECK_MILLIS, "1000");
+
+        MysqlHelper mysqlHelper = new MysqlHelper(conf);
+        for (int i = 0; i < 100; i++) {
+            mysqlHelper.getOneData("select count(*) from test_user");
+        }
+        System.out.println(mysqlHelper.getReplicaSet().snapshot());
+        mysqlHelper.close();
+    }
+}
@@ -0,0 +1,90 @@
+package org.xsl.common.test.db;
+
+import org.junit.Test;
+import org.xsl.common.db.mysql.ResultSchema;
+import org.xsl.common.db.mysql.Row;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRow {
+
+    @Test
+    public void testMapView() {
+        ResultSchema schema = new ResultSchema(new String[] {"id", "name", "age"});
+        Row<String> row = new Row<>(schema, new Object[] {"1", "tom", null});
+
+        assertEquals(3, row.size());
+        assertEquals("tom", row.get("name"));
+        assertEquals("1", row.get(0));
+        assertNull(row.get("age"));
+        assertTrue(row.containsKey("age"));
+        assertFalse(row.containsKey("missing"));
+        assertEquals("[id, name, age]", new ArrayList<>(row.keySet()).toString());
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("id", "1");
+        expected.put("name", "tom");
+        expected.put("age", null);
+        assertEquals(expected, row);
+        assertEquals(expected.hashCode(), row.hashCode());
+
+        row.put("age", "20");
+        assertEquals("20", row.get("age"));
+    }
+
+    @Test
+    public void testStructuralChange() {
+        ResultSchema schema = new ResultSchema(new String[] {"id", "name", "age"});
+        Row<String> row = new Row<>(schema, new Object[] {"1", "tom", "20"});
+
+        assertNull(row.put("city", "beijing"));
+        assertEquals("beijing", row.get("city"));
+        assertEquals(4, row.size());
+        assertEquals("[id, name, age, city]", new ArrayList<>(row.keySet()).toString());
+
+        assertEquals("tom", row.remove("name"));
+        assertNull(row.remove("missing"));
+        assertFalse(row.containsKey("name"));
+        assertNull(row.get(1));
+        assertEquals("20", row.get(2));
+
+        for (Map.Entry<String, String> entry : row.entrySet()) {
+            entry.setValue(entry.getValue() + "!");
+        }
+        assertEquals("{id=1!, age=20!, city=beijing!}", row.toString());
+
+        Row<String> other = new Row<>(schema, new Object[] {"2", "jack", "30"});
+        Iterator<String> it = other.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().equals("id")) {
+                it.remove();
+            }
+        }
+        assertEquals("{name=jack, age=30}", other.toString());
+
+        other.clear();
+        assertTrue(other.isEmpty());
+    }
+
+    @Test
+    public void testDuplicateColumns() {
+        ResultSchema schema = new ResultSchema(new String[] {"id", "name", "id"});
+        Row<String> row = new Row<>(schema, new Object[] {"1", "tom", "2"});
+
+        assertEquals(2, row.size());
+        assertEquals("2", row.get("id"));
+        List<String> entries = new ArrayList<>();
+        for (Map.Entry<String, String> entry : row.entrySet()) {
+            entries.add(entry.getKey() + "=" + entry.getValue());
+        }
+        assertEquals("[name=tom, id=2]", entries.toString());
+    }
+}
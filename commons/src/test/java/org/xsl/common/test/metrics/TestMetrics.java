@@ -0,0 +1,73 @@
+package org.xsl.common.test.metrics;
+
+import org.junit.Test;
+import org.xsl.common.metrics.Histogram;
+import org.xsl.common.metrics.MetricSet;
+import org.xsl.common.metrics.MetricsReporter;
+import org.xsl.common.metrics.StripedCounter;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestMetrics {
+
+    @Test
+    public void testStripedCounter() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 8;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        counter.increment();
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        assertEquals(800000, counter.sum());
+
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.update(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+
+        long p50 = histogram.getQuantile(0.5);
+        assertTrue(p50 >= 500 && p50 < 1024);
+        assertEquals(1000, histogram.getQuantile(0.99));
+        assertEquals(1, histogram.getQuantile(0));
+    }
+
+    @Test
+    public void testReport() {
+        MetricSet metrics = new MetricSet();
+        metrics.counter("hit").add(3);
+        metrics.histogram("latency").update(10);
+
+        final Map<String, Long>[] reported = new Map[1];
+        metrics.report("test", new MetricsReporter() {
+            public void report(String source, Map<String, Long> values) {
+                assertEquals("test", source);
+                reported[0] = values;
+            }
+        });
+
+        assertEquals(Long.valueOf(3), reported[0].get("hit"));
+        assertEquals(Long.valueOf(1), reported[0].get("latency.count"));
+        assertEquals(Long.valueOf(10), reported[0].get("latency.max"));
+    }
+}